@@ -0,0 +1,47 @@
+package net.freudasoft;
+
+import org.gradle.testkit.runner.BuildResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Configuration time of builds with 1, 10 and 100 subprojects applying the plugin.
+ * Runs {@code help}, which configures all projects but runs no cmake task, in a warm TestKit daemon.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ConfigurationBenchmark {
+    @Param({ "1", "10", "100" })
+    public int subprojects;
+
+    private PerfProject project;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        project = new PerfProject(subprojects);
+        // starts the daemon and compiles the build scripts
+        project.runner("help").build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        project.close();
+    }
+
+    @Benchmark
+    public BuildResult configure() {
+        return project.runner("help").build();
+    }
+}
@@ -0,0 +1,78 @@
+package net.freudasoft;
+
+import org.gradle.api.logging.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.File;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput of {@link CMakeExecutor} on a synthetic process printing many lines on stdout and stderr at the same time,
+ * either build progress lines or a compiler warning repeated on every line.
+ *
+ * The output goes to a logger that only counts the calls, so the pumping, filtering and batching of the executor is
+ * measured, not the console.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ExecutorBenchmark {
+    private static final String PROGRESS = "[123/4567] Building CXX object src/CMakeFiles/perf.dir/some/deeply/nested/source_file.cpp.o";
+    private static final String WARNING = "/src/include/common.h:12:5: warning: unused variable 'x' [-Wunused-variable]";
+
+    @Param({ "100000", "1000000" })
+    public int lines;
+
+    @Param({ "progress", "warning" })
+    public String output;
+
+    private final AtomicLong logCalls = new AtomicLong();
+    private List<String> cmdLine;
+    private File workingFolder;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String line = output.equals("warning") ? WARNING : PROGRESS;
+        // yes and head are fast enough to make the reading side the bottleneck
+        cmdLine = Arrays.asList("sh", "-c", "yes \"$0\" | head -n \"$1\" & yes \"$0\" | head -n \"$1\" >&2; wait", line, String.valueOf(lines));
+        workingFolder = new File(System.getProperty("java.io.tmpdir"));
+    }
+
+    @Benchmark
+    public long exec() {
+        new CMakeExecutor(countingLogger(logCalls), "benchmark").exec(cmdLine, workingFolder);
+        return logCalls.get();
+    }
+
+    // all levels enabled, every log call counted and dropped
+    private static Logger countingLogger(AtomicLong calls) {
+        return (Logger)Proxy.newProxyInstance(Logger.class.getClassLoader(), new Class<?>[] { Logger.class }, (proxy, method, args) -> {
+            switch ( method.getName() ) {
+                case "getName":
+                case "toString":
+                    return "benchmark";
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    if ( method.getReturnType() == boolean.class )
+                        return Boolean.TRUE;
+                    calls.incrementAndGet();
+                    return null;
+            }
+        });
+    }
+}
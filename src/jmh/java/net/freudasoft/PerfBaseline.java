@@ -0,0 +1,136 @@
+package net.freudasoft;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares JMH results (JSON format) with a stored baseline and fails if a benchmark got slower than the tolerance.
+ *
+ * Usage: {@code PerfBaseline <results.json> <baseline.json> <tolerance> [update]}. The tolerance is relative,
+ * 0.2 allows 20% slower results. With {@code update} the results become the new baseline, without it a missing baseline fails.
+ */
+public class PerfBaseline {
+    private static class Result {
+        final String mode;
+        final double score;
+        final String unit;
+
+        Result(String mode, double score, String unit) {
+            this.mode = mode;
+            this.score = score;
+            this.unit = unit;
+        }
+
+        // throughput: higher is better, all other modes measure time
+        double slowdown(Result baseline) {
+            return mode.equals("thrpt") ? baseline.score / score : score / baseline.score;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if ( args.length < 3 ) {
+            System.err.println("usage: PerfBaseline <results.json> <baseline.json> <tolerance> [update]");
+            System.exit(2);
+        }
+        File resultsFile = new File(args[0]);
+        File baselineFile = new File(args[1]);
+        double tolerance = Double.parseDouble(args[2]);
+        boolean update = args.length > 3 && Boolean.parseBoolean(args[3]);
+
+        if ( !update && !baselineFile.isFile() ) {
+            System.err.println("No baseline " + baselineFile + ", run with -Pperf.updateBaseline=true on a reference machine to store one.");
+            System.exit(1);
+        }
+        if ( update ) {
+            Files.createDirectories(baselineFile.getAbsoluteFile().getParentFile().toPath());
+            Files.copy(resultsFile.toPath(), baselineFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            System.out.println("Stored " + resultsFile + " as the new baseline " + baselineFile);
+            return;
+        }
+
+        Map<String, Result> results = read(resultsFile);
+        Map<String, Result> baseline = read(baselineFile);
+        List<String> regressions = new ArrayList<>();
+        for ( Map.Entry<String, Result> entry : results.entrySet() ) {
+            Result result = entry.getValue();
+            Result base = baseline.get(entry.getKey());
+            if ( base == null ) {
+                System.out.println(String.format("%-80s %12.3f %-8s (new)", entry.getKey(), result.score, result.unit));
+                continue;
+            }
+            double slowdown = result.slowdown(base);
+            System.out.println(String.format("%-80s %12.3f %-8s baseline %12.3f %+6.1f%%", entry.getKey(), result.score, result.unit, base.score, (slowdown - 1) * 100));
+            if ( slowdown > 1 + tolerance )
+                regressions.add(entry.getKey());
+        }
+        if ( !regressions.isEmpty() ) {
+            System.err.println(regressions.size() + " benchmark(s) regressed by more than " + Math.round(tolerance * 100) + "%: " + regressions);
+            System.exit(1);
+        }
+    }
+
+    // benchmark name and parameters -> primary result
+    private static Map<String, Result> read(File file) throws IOException {
+        Map<String, Result> results = new LinkedHashMap<>();
+        try ( Reader in = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8); CMakeJsonReader json = new CMakeJsonReader(in) ) {
+            json.beginArray();
+            while ( json.hasNext() ) {
+                String benchmark = null;
+                String mode = null;
+                Map<String, String> params = new TreeMap<>();
+                double score = Double.NaN;
+                String unit = null;
+                json.beginObject();
+                while ( json.hasNext() ) {
+                    switch ( json.nextName() ) {
+                        case "benchmark":
+                            benchmark = json.nextString();
+                            break;
+                        case "mode":
+                            mode = json.nextString();
+                            break;
+                        case "params":
+                            json.beginObject();
+                            while ( json.hasNext() )
+                                params.put(json.nextName(), json.nextString());
+                            json.endObject();
+                            break;
+                        case "primaryMetric":
+                            json.beginObject();
+                            while ( json.hasNext() ) {
+                                switch ( json.nextName() ) {
+                                    case "score":
+                                        score = Double.parseDouble(json.nextString());
+                                        break;
+                                    case "scoreUnit":
+                                        unit = json.nextString();
+                                        break;
+                                    default:
+                                        json.skipValue();
+                                        break;
+                                }
+                            }
+                            json.endObject();
+                            break;
+                        default:
+                            json.skipValue();
+                            break;
+                    }
+                }
+                json.endObject();
+                results.put(benchmark + (params.isEmpty() ? "" : " " + params), new Result(mode, score, unit));
+            }
+            json.endArray();
+        }
+        return results;
+    }
+}
@@ -0,0 +1,84 @@
+package net.freudasoft;
+
+import org.gradle.testkit.runner.GradleRunner;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * A generated multi-project build whose subprojects apply the plugin, with a stub cmake,
+ * so the benchmarks run offline and without a native tool chain.
+ */
+class PerfProject implements AutoCloseable {
+    private final Path root;
+
+    PerfProject(int subprojects) throws IOException {
+        root = Files.createTempDirectory("cmake-plugin-perf");
+        Path cmake = root.resolve("bin/cmake");
+        Files.createDirectories(cmake.getParent());
+        try ( InputStream in = PerfProject.class.getResourceAsStream("stub-cmake.sh") ) {
+            Files.copy(in, cmake);
+        }
+        if ( !cmake.toFile().setExecutable(true) )
+            throw new IOException("Could not make " + cmake + " executable");
+
+        StringBuilder settings = new StringBuilder("rootProject.name = 'perf'\n");
+        for ( int i = 0; i < subprojects; i++ ) {
+            String name = "native" + i;
+            settings.append("include '").append(name).append("'\n");
+            Path project = root.resolve(name);
+            write(project.resolve("src/main/cpp/CMakeLists.txt"),
+                    "cmake_minimum_required(VERSION 3.14)\nproject(" + name + " CXX)\nadd_library(perf SHARED perf.cpp)\n");
+            write(project.resolve("src/main/cpp/perf.cpp"), "int perf() { return " + i + "; }\n");
+            write(project.resolve("build.gradle"),
+                    "plugins {\n" +
+                    "    id 'net.freudasoft.gradle-cmake-plugin'\n" +
+                    "}\n" +
+                    "cmake {\n" +
+                    "    executable = '" + cmake.toAbsolutePath().toString().replace('\\', '/') + "'\n" +
+                    "    sourceFolder = file('src/main/cpp')\n" +
+                    "    artifacts.from(file(\"$buildDir/cmake/libperf.so\"))\n" +
+                    "    variants {\n" +
+                    "        debug { buildType = 'Debug' }\n" +
+                    "    }\n" +
+                    "}\n");
+        }
+        write(root.resolve("settings.gradle"), settings.toString());
+        write(root.resolve("build.gradle"), "");
+    }
+
+    /**
+     * @return a runner for the given tasks, offline and without the configuration cache, so configuration is measured
+     */
+    GradleRunner runner(String... tasks) {
+        List<String> arguments = new ArrayList<>(Arrays.asList(tasks));
+        arguments.add("--offline");
+        arguments.add("--no-configuration-cache");
+        arguments.add("-q");
+        return GradleRunner.create()
+                .withProjectDir(root.toFile())
+                .withPluginClasspath()
+                .withArguments(arguments);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try ( Stream<Path> paths = Files.walk(root) ) {
+            for ( Path path : (Iterable<Path>)paths.sorted(Comparator.reverseOrder())::iterator )
+                Files.deleteIfExists(path);
+        }
+    }
+
+    private static void write(Path file, String content) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,53 @@
+package net.freudasoft;
+
+import org.gradle.testkit.runner.BuildResult;
+import org.gradle.testkit.runner.BuildTask;
+import org.gradle.testkit.runner.TaskOutcome;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of a build in which every cmake task is up-to-date: configuration plus the up-to-date checks
+ * of the configure and build tasks of all projects and variants.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class UpToDateBenchmark {
+    @Param({ "1", "10" })
+    public int subprojects;
+
+    private PerfProject project;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        project = new PerfProject(subprojects);
+        project.runner("cmakeBuild", "cmakeBuildDebug").build();
+        BuildResult result = project.runner("cmakeBuild", "cmakeBuildDebug").build();
+        for ( BuildTask task : result.getTasks() ) {
+            if ( task.getOutcome() != TaskOutcome.UP_TO_DATE )
+                throw new IllegalStateException(task.getPath() + " is not up-to-date but " + task.getOutcome());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        project.close();
+    }
+
+    @Benchmark
+    public BuildResult upToDate() {
+        return project.runner("cmakeBuild", "cmakeBuildDebug").build();
+    }
+}
@@ -0,0 +1,23 @@
+#!/bin/sh
+# Stands in for cmake in the performance tests: answers the capability query and writes the files
+# the plugin looks at, so the tests measure the plugin and not the native build.
+case "$1" in
+    -E)
+        if [ "$2" = "capabilities" ]; then
+            echo '{"version":{"major":3,"minor":28,"patch":1,"string":"3.28.1"},"generators":[{"name":"Unix Makefiles","platformSupport":false,"toolsetSupport":false,"extraGenerators":[]}],"fileApi":{"requests":[{"kind":"codemodel","version":[{"major":2,"minor":2}]}]},"serverMode":false}'
+        fi
+        exit 0
+        ;;
+    --version)
+        echo "cmake version 3.28.1"
+        exit 0
+        ;;
+    --build)
+        echo "[1/1] Linking CXX shared library libperf.so"
+        echo "stub" > libperf.so
+        exit 0
+        ;;
+esac
+echo "CMAKE_GENERATOR:INTERNAL=Unix Makefiles" > CMakeCache.txt
+echo "-- Configuring done (0.0s)"
+echo "-- Generating done (0.0s)"
@@ -0,0 +1,22 @@
+package net.freudasoft;
+
+import org.gradle.api.Project;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+
+import java.io.File;
+
+/**
+ * Allows only one native build at a time in a build folder.
+ * Make and ninja keep state (like .ninja_log and .ninja_deps) in the build folder, that must not be written
+ * by two builds at the same time. Builds in different folders still run in parallel.
+ */
+public abstract class CMakeBuildFolderLock implements BuildService<BuildServiceParameters.None> {
+
+    static Provider<CMakeBuildFolderLock> register(Project project, File buildFolder) {
+        String name = "cmakeBuildFolderLock_" + Integer.toHexString(buildFolder.getAbsolutePath().hashCode());
+        return project.getGradle().getSharedServices().registerIfAbsent(name, CMakeBuildFolderLock.class,
+                spec -> spec.getMaxParallelUsages().set(1));
+    }
+}
@@ -0,0 +1,665 @@
+package net.freudasoft;
+
+import org.gradle.api.logging.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Snapshot of all files a native build reads and writes, to skip starting cmake, make or ninja when nothing changed.
+ *
+ * The files are the inputs and outputs of the generated build system and the headers found by the compiler, taken from
+ * the Ninja build files and .ninja_deps, or from the Makefiles and the compiler's .d files. Each file is recorded with size,
+ * modification time and content hash. A file with a new modification time but the same content counts as unchanged.
+ * The snapshot is taken after the build, so it is not recorded if a source was modified while the build ran: the
+ * objects may have been built from the old content.
+ * Other generators are not supported, their builds always run. So do builds with commands that make or ninja run every
+ * time, like custom targets and the install target.
+ */
+class CMakeBuildSnapshot {
+    private static final int MAGIC = 0x434d4253;
+    private static final int VERSION = 1;
+    private static final int HASH_BYTES = 20;
+    // files modified this close to the snapshot could have changed after they were hashed, they are always hashed again
+    private static final long TIMESTAMP_GRANULARITY_MILLIS = 2000;
+    private static final String NINJA_DEPS = ".ninja_deps";
+    private static final String NINJA_LOG = ".ninja_log";
+
+    private static class Entry {
+        final String path;
+        long size;
+        long modified;
+        byte[] hash;
+
+        Entry(String path, long size, long modified, byte[] hash) {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+            this.hash = hash;
+        }
+    }
+
+    private CMakeBuildSnapshot() {
+    }
+
+    /**
+     * @param key everything else the build depends on, like its command line
+     * @return true if the snapshot exists for the same key and no recorded file changed
+     */
+    static boolean isUnchanged(File snapshot, String key, Logger logger) {
+        if ( !snapshot.isFile() )
+            return false;
+        long recorded;
+        List<Entry> entries;
+        try {
+            Map<String, Entry> read = new HashMap<>();
+            recorded = read(snapshot, key, read);
+            if ( recorded < 0 )
+                return false;
+            entries = new ArrayList<>(read.values());
+        }
+        catch ( IOException | RuntimeException e ) {
+            logger.info("Could not read the build snapshot " + snapshot + ": " + e.getMessage());
+            return false;
+        }
+
+        AtomicBoolean touched = new AtomicBoolean();
+        boolean unchanged = entries.parallelStream().allMatch(entry -> {
+            File file = new File(entry.path);
+            long modified = file.lastModified();
+            if ( modified == 0 || file.length() != entry.size )
+                return false;
+            if ( modified == entry.modified && modified + TIMESTAMP_GRANULARITY_MILLIS < recorded )
+                return true;
+            try {
+                if ( !Arrays.equals(hash(file.toPath()), entry.hash) )
+                    return false;
+            }
+            catch ( IOException e ) {
+                return false;
+            }
+            // same content, take the new time so the file is not hashed again next time
+            entry.modified = modified;
+            touched.set(true);
+            return true;
+        });
+        if ( unchanged && touched.get() ) {
+            try {
+                write(snapshot, key, entries);
+            }
+            catch ( IOException e ) {
+                logger.info("Could not update the build snapshot " + snapshot + ": " + e.getMessage());
+            }
+        }
+        return unchanged;
+    }
+
+    /**
+     * Records the files of the build system in the build folder. Hashes of the last snapshot are taken over for files with
+     * unchanged size and modification time.
+     * @param target the target built, null for the default target
+     * @param buildStart the time the build started, sources modified since then are not recorded
+     * @return false if no snapshot was recorded, because the generator is not supported, the build runs commands on every run
+     * or a source was modified during the build. An existing snapshot is deleted then.
+     */
+    static boolean record(File buildFolder, File snapshot, String key, String target, long buildStart) throws IOException {
+        String generator = readGenerator(buildFolder);
+        if ( generator == null || !(generator.startsWith("Ninja") || generator.endsWith("Makefiles")) ) {
+            Files.deleteIfExists(snapshot.toPath());
+            return false;
+        }
+        boolean ninja = generator.startsWith("Ninja");
+        List<Path> buildFiles = new ArrayList<>();
+        BuildGraph graph = readBuildGraph(buildFolder.toPath(), ninja, buildFiles);
+        List<String> goals = target != null && !target.trim().isEmpty() ? Arrays.asList(target.trim().split("\\s+"))
+                : ninja ? Collections.emptyList() : Collections.singletonList("all");
+        if ( runsCommandsAlways(graph, goals, buildFolder) ) {
+            Files.deleteIfExists(snapshot.toPath());
+            return false;
+        }
+
+        TreeSet<String> paths = new TreeSet<>();
+        // written by the build itself: the build files (cmake may regenerate them), and the outputs of the rules
+        Set<String> written = new HashSet<>();
+        for ( Path file : buildFiles )
+            written.add(file.toAbsolutePath().toString());
+        written.add(new File(buildFolder, "CMakeCache.txt").getAbsolutePath());
+        paths.addAll(written);
+        for ( String output : graph.rules.keySet() )
+            written.add(absolutePath(buildFolder, output));
+        for ( String path : graph.paths ) {
+            File file = new File(absolutePath(buildFolder, path));
+            String name = file.getName();
+            // paths are stored with a 16 bit length
+            if ( !name.equals(NINJA_DEPS) && !name.equals(NINJA_LOG) && path.length() < 0x4000 && file.isFile() )
+                paths.add(file.getPath());
+        }
+
+        Map<String, Entry> previous = new HashMap<>();
+        long previousRecorded = -1;
+        try {
+            if ( snapshot.isFile() )
+                previousRecorded = read(snapshot, key, previous);
+        }
+        catch ( IOException | RuntimeException e ) {
+            previousRecorded = -1;
+        }
+        if ( previousRecorded < 0 )
+            previous.clear();
+        long hashedBefore = previousRecorded;
+
+        long start = System.currentTimeMillis();
+        List<Entry> entries = new ArrayList<>(paths.size());
+        paths.parallelStream().map(path -> {
+            File file = new File(path);
+            if ( !file.isFile() )
+                return null;
+            long size = file.length();
+            long modified = file.lastModified();
+            Entry before = previous.get(path);
+            if ( before != null && before.size == size && before.modified == modified && modified + TIMESTAMP_GRANULARITY_MILLIS < hashedBefore )
+                return before;
+            try {
+                return new Entry(path, size, modified, hash(file.toPath()));
+            }
+            catch ( IOException e ) {
+                return null;
+            }
+        }).forEachOrdered(entry -> {
+            if ( entry != null )
+                entries.add(entry);
+        });
+        // an edit during the build would be taken for built, and later builds would be skipped although make or ninja would run
+        if ( entries.stream().anyMatch(entry -> !written.contains(entry.path) && entry.modified + TIMESTAMP_GRANULARITY_MILLIS >= buildStart) ) {
+            Files.deleteIfExists(snapshot.toPath());
+            return false;
+        }
+        write(snapshot, key, entries, start);
+        return true;
+    }
+
+    private static String absolutePath(File buildFolder, String path) {
+        File file = new File(path);
+        if ( !file.isAbsolute() )
+            file = new File(buildFolder, path);
+        return file.toPath().normalize().toAbsolutePath().toString();
+    }
+
+    private static String readGenerator(File buildFolder) throws IOException {
+        File cache = new File(buildFolder, "CMakeCache.txt");
+        if ( !cache.isFile() )
+            return null;
+        for ( String line : Files.readAllLines(cache.toPath(), StandardCharsets.UTF_8) ) {
+            if ( line.startsWith("CMAKE_GENERATOR:") )
+                return line.substring(line.indexOf('=') + 1);
+        }
+        return null;
+    }
+
+    /**
+     * The rules of a generated build system: what each target needs, and whether make or ninja runs a command for it.
+     */
+    static class BuildGraph {
+        final Map<String, Rule> rules = new HashMap<>();
+        // make's .PHONY targets, remade on every run
+        final Set<String> phony = new HashSet<>();
+        // ninja's default statements
+        final List<String> defaults = new ArrayList<>();
+        // every target and input named by the build files
+        final List<String> paths = new ArrayList<>();
+
+        void add(String target, Rule rule) {
+            Rule existing = rules.putIfAbsent(target, rule);
+            if ( existing != null && existing != rule ) {
+                // several make rules for one target, or the same ninja statement in the files of several configurations
+                existing.inputs.addAll(rule.inputs);
+                existing.orderOnly.addAll(rule.orderOnly);
+                existing.command |= rule.command;
+            }
+        }
+    }
+
+    static class Rule {
+        // explicit and implicit inputs, the target is out of date if one of them is
+        final List<String> inputs = new ArrayList<>();
+        // built first, but without making the target out of date. also the goals of a recursive make
+        final List<String> orderOnly = new ArrayList<>();
+        boolean command;
+    }
+
+    // the build files themselves, and the rules in them
+    private static BuildGraph readBuildGraph(Path buildFolder, boolean ninja, List<Path> buildFiles) throws IOException {
+        if ( ninja ) {
+            // build.ninja and the files of Ninja Multi-Config are in the build folder, rules.ninja in CMakeFiles
+            for ( Path folder : new Path[] { buildFolder, buildFolder.resolve("CMakeFiles") } ) {
+                File[] files = folder.toFile().listFiles((dir, name) -> name.endsWith(".ninja"));
+                if ( files != null ) {
+                    for ( File file : files )
+                        buildFiles.add(file.toPath());
+                }
+            }
+        }
+        else {
+            Files.walkFileTree(buildFolder, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    String name = file.getFileName().toString();
+                    // a Makefile in every folder, the rules and the compiler's dependency files below CMakeFiles
+                    boolean inCMakeFiles = file.getParent().toString().contains("CMakeFiles");
+                    if ( name.equals("Makefile") || (inCMakeFiles && (name.equals("Makefile2") || name.endsWith(".make") || name.endsWith(".d") || name.equals("link.txt"))) )
+                        buildFiles.add(file);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+
+        BuildGraph graph = new BuildGraph();
+        for ( Path file : buildFiles ) {
+            String name = file.getFileName().toString();
+            // the Makefiles of the folders only pass their targets on to CMakeFiles/Makefile2
+            if ( name.equals("Makefile") || name.equals("link.txt") )
+                continue;
+            String content = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+            if ( ninja )
+                parseNinja(content, graph);
+            else
+                parseMake(content, graph);
+        }
+        if ( ninja )
+            readNinjaDeps(buildFolder.resolve(NINJA_DEPS), graph.paths);
+        return graph;
+    }
+
+    /**
+     * Tells whether make or ninja would run a command for the goals although no file changed since the last run:
+     * a command without an output file, like a custom target or the install target, or a goal the graph does not know,
+     * like the targets of make's top level Makefile.
+     * @param goals the targets built, empty for ninja's default targets
+     */
+    static boolean runsCommandsAlways(BuildGraph graph, List<String> goals, File buildFolder) {
+        Collection<String> start = !goals.isEmpty() ? goals : !graph.defaults.isEmpty() ? graph.defaults : graph.rules.keySet();
+        Set<String> reached = new HashSet<>();
+        Deque<String> pending = new ArrayDeque<>();
+        for ( String goal : start ) {
+            if ( !graph.rules.containsKey(goal) )
+                return true;
+            if ( reached.add(goal) )
+                pending.add(goal);
+        }
+        Map<String, Boolean> outOfDate = new HashMap<>();
+        while ( !pending.isEmpty() ) {
+            String target = pending.poll();
+            Rule rule = graph.rules.get(target);
+            if ( rule == null )
+                continue;
+            // the commands of make's phony targets are cmake's own bookkeeping and recursive makes
+            if ( rule.command && !graph.phony.contains(target) && isOutOfDate(target, graph, buildFolder, outOfDate) )
+                return true;
+            for ( List<String> inputs : Arrays.asList(rule.inputs, rule.orderOnly) ) {
+                for ( String input : inputs ) {
+                    if ( reached.add(input) )
+                        pending.add(input);
+                }
+            }
+        }
+        return false;
+    }
+
+    // out of date without a changed file: the target never exists, or depends on a target remade on every run
+    private static boolean isOutOfDate(String target, BuildGraph graph, File buildFolder, Map<String, Boolean> known) {
+        Boolean result = known.get(target);
+        if ( result != null )
+            return result;
+        known.put(target, Boolean.FALSE); // cycles
+        Rule rule = graph.rules.get(target);
+        boolean outOfDate;
+        if ( graph.phony.contains(target) )
+            outOfDate = true;
+        else if ( rule == null )
+            outOfDate = false; // a source, changes are found by the snapshot
+        else {
+            File file = new File(target);
+            boolean missing = !(file.isAbsolute() ? file : new File(buildFolder, target)).exists();
+            // ninja's phony statement with inputs, or a make rule without recipe, only stands for its inputs
+            outOfDate = missing && (rule.command || rule.inputs.isEmpty());
+            for ( int i = 0; !outOfDate && i < rule.inputs.size(); i++ )
+                outOfDate = isOutOfDate(rule.inputs.get(i), graph, buildFolder, known);
+        }
+        known.put(target, outOfDate);
+        return outOfDate;
+    }
+
+    /**
+     * The build and default statements: "build out1 | implicit-out: rule in1 | implicit || order-only |@ validation".
+     */
+    static void parseNinja(String content, BuildGraph graph) {
+        StringBuilder line = new StringBuilder();
+        int length = content.length();
+        for ( int i = 0; i <= length; i++ ) {
+            char c = i < length ? content.charAt(i) : '\n';
+            if ( c == '$' && i + 1 < length && content.charAt(i + 1) == '\n' ) {
+                // continued on the next line, without its indentation
+                i += 2;
+                while ( i < length && content.charAt(i) == ' ' )
+                    i++;
+                i--;
+                continue;
+            }
+            if ( c == '$' && i + 1 < length ) {
+                line.append(c).append(content.charAt(++i));
+                continue;
+            }
+            if ( c != '\n' ) {
+                line.append(c);
+                continue;
+            }
+            if ( line.length() > 6 && line.substring(0, 6).equals("build ") )
+                parseNinjaBuild(line.substring(6), graph);
+            else if ( line.length() > 8 && line.substring(0, 8).equals("default ") )
+                graph.defaults.addAll(Arrays.asList(line.substring(8).trim().split(" +")));
+            line.setLength(0);
+        }
+    }
+
+    private static void parseNinjaBuild(String statement, BuildGraph graph) {
+        List<String> outputs = new ArrayList<>();
+        List<String> rest = new ArrayList<>();
+        List<String> words = outputs;
+        StringBuilder token = new StringBuilder();
+        boolean variable = false;
+        int length = statement.length();
+        for ( int i = 0; i <= length; i++ ) {
+            char c = i < length ? statement.charAt(i) : ' ';
+            if ( c == '$' && i + 1 < length ) {
+                char next = statement.charAt(++i);
+                if ( next == ' ' || next == ':' || next == '$' )
+                    token.append(next);
+                else
+                    variable = true;
+                continue;
+            }
+            if ( c != ' ' && !(c == ':' && words == outputs) ) {
+                token.append(c);
+                continue;
+            }
+            // paths using variables can't be resolved here
+            if ( token.length() > 0 )
+                words.add(variable ? null : token.toString());
+            token.setLength(0);
+            variable = false;
+            if ( c == ':' )
+                words = rest;
+        }
+        if ( rest.isEmpty() || rest.get(0) == null )
+            return;
+
+        Rule rule = new Rule();
+        rule.command = !rest.get(0).equals("phony");
+        List<String> inputs = rule.inputs;
+        for ( String word : rest.subList(1, rest.size()) ) {
+            if ( "||".equals(word) || "|@".equals(word) )
+                inputs = rule.orderOnly; // validations are built as well
+            else if ( "|".equals(word) )
+                inputs = rule.inputs;
+            else if ( word != null ) {
+                inputs.add(word);
+                graph.paths.add(word);
+            }
+        }
+        for ( String output : outputs ) {
+            if ( output != null && !output.equals("|") ) {
+                graph.add(output, rule);
+                graph.paths.add(output);
+            }
+        }
+    }
+
+    /**
+     * Make rules "target: dep1 dep2 \", also those of the dependency files written by the compilers, and their recipes.
+     */
+    static void parseMake(String content, BuildGraph graph) {
+        StringBuilder logical = new StringBuilder();
+        List<String> recipeTargets = new ArrayList<>();
+        for ( String line : content.split("\r?\n") ) {
+            if ( line.endsWith("\\") && !line.endsWith("\\\\") ) {
+                logical.append(line, 0, line.length() - 1).append(' ');
+                continue;
+            }
+            logical.append(line);
+            String rule = logical.toString();
+            logical.setLength(0);
+            if ( rule.startsWith("\t") ) {
+                int make = rule.indexOf("$(MAKE)");
+                List<String> words = new ArrayList<>();
+                if ( make >= 0 )
+                    splitMakeWords(rule.substring(make), words);
+                for ( String target : recipeTargets ) {
+                    Rule targetRule = graph.rules.get(target);
+                    targetRule.command = true;
+                    // the goal of a recursive make
+                    String goal = words.isEmpty() ? null : words.get(words.size() - 1);
+                    if ( goal != null && !goal.startsWith("-") && !goal.startsWith("$") )
+                        targetRule.orderOnly.add(goal);
+                }
+                continue;
+            }
+            recipeTargets.clear();
+            // comments and variable assignments
+            if ( rule.isEmpty() || rule.charAt(0) == '#' )
+                continue;
+            int colon = findRuleColon(rule);
+            if ( colon < 0 )
+                continue;
+            List<String> targets = new ArrayList<>();
+            List<String> prerequisites = new ArrayList<>();
+            splitMakeWords(rule.substring(0, colon), targets);
+            splitMakeWords(rule.substring(colon + 1), prerequisites);
+            if ( targets.size() == 1 && targets.get(0).equals(".PHONY") ) {
+                graph.phony.addAll(prerequisites);
+                continue;
+            }
+            Rule targetRule = new Rule();
+            List<String> inputs = targetRule.inputs;
+            for ( String prerequisite : prerequisites ) {
+                if ( prerequisite.equals("|") )
+                    inputs = targetRule.orderOnly;
+                else {
+                    inputs.add(prerequisite);
+                    graph.paths.add(prerequisite);
+                }
+            }
+            for ( String target : targets ) {
+                graph.add(target, targetRule);
+                graph.paths.add(target);
+            }
+            recipeTargets.addAll(targets);
+        }
+    }
+
+    // the colon after the targets, not the one of a drive letter, an escaped one or one of :=
+    private static int findRuleColon(String rule) {
+        for ( int i = 0; i < rule.length(); i++ ) {
+            char c = rule.charAt(i);
+            if ( c == '=' )
+                return -1;
+            if ( c == ':' && (i == 0 || rule.charAt(i - 1) != '\\') ) {
+                if ( i + 1 == rule.length() || rule.charAt(i + 1) == ' ' || rule.charAt(i + 1) == '\t' )
+                    return i;
+                if ( rule.charAt(i + 1) == '=' || rule.charAt(i + 1) == ':' )
+                    return -1;
+            }
+        }
+        return -1;
+    }
+
+    private static void splitMakeWords(String words, List<String> paths) {
+        StringBuilder word = new StringBuilder();
+        for ( int i = 0; i <= words.length(); i++ ) {
+            char c = i < words.length() ? words.charAt(i) : ' ';
+            if ( c == '\\' && i + 1 < words.length() && (words.charAt(i + 1) == ' ' || words.charAt(i + 1) == ':' || words.charAt(i + 1) == '#') ) {
+                word.append(words.charAt(++i));
+            }
+            else if ( c == '$' && i + 1 < words.length() && words.charAt(i + 1) == '$' ) {
+                word.append(words.charAt(++i));
+            }
+            else if ( c == ' ' || c == '\t' ) {
+                if ( word.length() > 0 )
+                    paths.add(word.toString());
+                word.setLength(0);
+            }
+            else {
+                word.append(c);
+            }
+        }
+    }
+
+    /**
+     * The paths of the binary .ninja_deps (format version 3 and 4): the headers ninja recorded for each compiled file.
+     */
+    static void readNinjaDeps(Path depsLog, List<String> paths) throws IOException {
+        if ( !Files.isRegularFile(depsLog) )
+            return;
+        try ( FileChannel channel = FileChannel.open(depsLog, StandardOpenOption.READ) ) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            byte[] header = "# ninjadeps\n".getBytes(StandardCharsets.US_ASCII);
+            if ( buffer.remaining() < header.length + 4 )
+                return;
+            byte[] read = new byte[header.length];
+            buffer.get(read);
+            int version = buffer.getInt();
+            if ( !Arrays.equals(read, header) || (version != 3 && version != 4) )
+                return;
+            while ( buffer.remaining() >= 4 ) {
+                int size = buffer.getInt();
+                boolean deps = (size & 0x80000000) != 0;
+                size &= 0x7fffffff;
+                if ( size > buffer.remaining() )
+                    break; // truncated by an interrupted build
+                if ( deps ) {
+                    // output id and mtime, the ids of the inputs refer to paths recorded before
+                    buffer.position(buffer.position() + size);
+                    continue;
+                }
+                byte[] path = new byte[size - 4];
+                buffer.get(path);
+                buffer.getInt(); // checksum
+                int end = path.length;
+                while ( end > 0 && path[end - 1] == 0 )
+                    end--;
+                paths.add(new String(path, 0, end, StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    private static byte[] hash(Path file) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] buffer = new byte[64 * 1024];
+            try ( InputStream in = Files.newInputStream(file) ) {
+                for ( int n; (n = in.read(buffer)) > 0; )
+                    digest.update(buffer, 0, n);
+            }
+            return digest.digest();
+        }
+        catch ( NoSuchAlgorithmException e ) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the time the snapshot was recorded, or -1 if it was recorded for another key
+     */
+    private static long read(File snapshot, String key, Map<String, Entry> entries) throws IOException {
+        try ( FileChannel channel = FileChannel.open(snapshot.toPath(), StandardOpenOption.READ) ) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if ( buffer.getInt() != MAGIC || buffer.getInt() != VERSION )
+                return -1;
+            long recorded = buffer.getLong();
+            byte[] keyBytes = new byte[buffer.getInt()];
+            buffer.get(keyBytes);
+            if ( !key.equals(new String(keyBytes, StandardCharsets.UTF_8)) )
+                return -1;
+            int count = buffer.getInt();
+            // sorted paths, each stored as the length of the prefix shared with the previous path and the rest
+            byte[] previous = new byte[0];
+            for ( int i = 0; i < count; i++ ) {
+                int shared = buffer.getShort() & 0xffff;
+                byte[] path = Arrays.copyOf(previous, shared + (buffer.getShort() & 0xffff));
+                buffer.get(path, shared, path.length - shared);
+                long size = buffer.getLong();
+                long modified = buffer.getLong();
+                byte[] hash = new byte[HASH_BYTES];
+                buffer.get(hash);
+                String name = new String(path, StandardCharsets.UTF_8);
+                entries.put(name, new Entry(name, size, modified, hash));
+                previous = path;
+            }
+            return recorded;
+        }
+    }
+
+    private static void write(File snapshot, String key, List<Entry> entries) throws IOException {
+        write(snapshot, key, entries, System.currentTimeMillis());
+    }
+
+    private static void write(File snapshot, String key, List<Entry> entries, long recorded) throws IOException {
+        entries.sort((a, b) -> a.path.compareTo(b.path));
+        Path tmp = snapshot.toPath().resolveSibling(snapshot.getName() + ".tmp");
+        Files.createDirectories(tmp.getParent());
+        try ( DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp))) ) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(recorded);
+            byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(keyBytes.length);
+            out.write(keyBytes);
+            out.writeInt(entries.size());
+            byte[] previous = new byte[0];
+            for ( Entry entry : entries ) {
+                byte[] path = entry.path.getBytes(StandardCharsets.UTF_8);
+                int shared = 0;
+                while ( shared < previous.length && shared < path.length && shared < 0xffff && previous[shared] == path[shared] )
+                    shared++;
+                out.writeShort(shared);
+                out.writeShort(path.length - shared);
+                out.write(path, shared, path.length - shared);
+                out.writeLong(entry.size);
+                out.writeLong(entry.modified);
+                out.write(entry.hash);
+                previous = path;
+            }
+        }
+        Files.move(tmp, snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -1,41 +1,136 @@
 package net.freudasoft;
 
 import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.ConfigurableFileCollection;
 import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFile;
+import org.gradle.api.file.RegularFileProperty;
 import org.gradle.api.provider.MapProperty;
 import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.CacheableTask;
 import org.gradle.api.tasks.Input;
-import org.gradle.api.tasks.InputDirectory;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.OutputFiles;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
 import org.gradle.api.tasks.TaskAction;
+import org.gradle.workers.WorkerExecutor;
 
+import javax.inject.Inject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+@CacheableTask
+public abstract class CMakeBuildTask extends DefaultTask {
+    private static final Pattern COMPILER_IDENTITY = Pattern.compile("set\\((CMAKE_\\w+_COMPILER_(?:ID|VERSION|ARCHITECTURE_ID))\\s+\"([^\"]*)\"\\)");
+    private static final List<String> BUILD_SYSTEM_FILES = Arrays.asList("build.ninja", "Makefile", "CMakeFiles/Makefile2");
 
-public class CMakeBuildTask extends DefaultTask {
     private final Property<String> executable;
     private final DirectoryProperty workingFolder;
+    private final DirectoryProperty sourceFolder;
+    private final ConfigurableFileCollection sourceFiles;
+    private final ConfigurableFileCollection artifacts;
+    private final DirectoryProperty installFolder;
     private final Property<String> buildConfig;
     private final Property<String> buildTarget;
+    private final Property<String> targetTaskSuffix;
     private final Property<Boolean> buildClean;
+    private final Property<Integer> parallelJobs;
+    private final Property<CMakeJobTokenService> jobTokens;
+    private final Property<CMakeMetricsService> metrics;
+    private final Property<String> compilerLauncher;
+    private final Property<String> compilerCacheDir;
+    private final Property<String> compilerCacheSize;
+    private final RegularFileProperty ninjaReport;
+    private final RegularFileProperty diagnosticsReport;
+    private final Property<Boolean> skipUnchanged;
+    private final Property<CMakeCapabilitiesService> capabilities;
+    // captured at configuration time, the project is not available when the task runs from the configuration cache
+    private final String projectPath;
 
     public CMakeBuildTask() {
         setGroup("cmake");
         setDescription("Build a configured Build with CMake");
+        projectPath = getProject().getPath();
         executable = getProject().getObjects().property(String.class);
         workingFolder = getProject().getObjects().directoryProperty();
+        sourceFolder = getProject().getObjects().directoryProperty();
+        sourceFiles = getProject().getObjects().fileCollection().from(getProject().getObjects().fileTree().from(sourceFolder));
+        artifacts = getProject().getObjects().fileCollection();
+        installFolder = getProject().getObjects().directoryProperty();
         buildConfig = getProject().getObjects().property(String.class);
         buildTarget = getProject().getObjects().property(String.class);
+        targetTaskSuffix = getProject().getObjects().property(String.class);
         buildClean = getProject().getObjects().property(Boolean.class);
+        parallelJobs = getProject().getObjects().property(Integer.class);
+        jobTokens = getProject().getObjects().property(CMakeJobTokenService.class);
+        metrics = getProject().getObjects().property(CMakeMetricsService.class);
+        compilerLauncher = getProject().getObjects().property(String.class);
+        compilerCacheDir = getProject().getObjects().property(String.class);
+        compilerCacheSize = getProject().getObjects().property(String.class);
+        ninjaReport = getProject().getObjects().fileProperty();
+        diagnosticsReport = getProject().getObjects().fileProperty();
+        skipUnchanged = getProject().getObjects().property(Boolean.class);
+        capabilities = getProject().getObjects().property(CMakeCapabilitiesService.class);
+
+        // default values
+        parallelJobs.convention(getProject().getGradle().getStartParameter().getMaxWorkerCount());
+        ninjaReport.convention(getProject().getLayout().getBuildDirectory().file("reports/cmake/" + getName() + "-ninja.json"));
+        diagnosticsReport.convention(getProject().getLayout().getBuildDirectory().file("reports/cmake/" + getName() + "-diagnostics.json"));
+        skipUnchanged.convention(getProject().getProviders().gradleProperty("cmake.skipUnchangedBuilds").map(Boolean::valueOf).orElse(Boolean.TRUE));
+        Provider<CMakeJobTokenService> tokenService = CMakeJobTokenService.register(getProject());
+        jobTokens.set(tokenService);
+        usesService(tokenService);
+        Provider<CMakeMetricsService> metricsService = CMakeMetricsService.register(getProject());
+        metrics.set(metricsService);
+        usesService(metricsService);
+        Provider<CMakeCapabilitiesService> capabilitiesService = CMakeCapabilitiesService.register(getProject());
+        capabilities.set(capabilitiesService);
+        usesService(capabilitiesService);
+
+        // the build stamp alone says nothing about the build results
+        getOutputs().upToDateWhen(task -> !artifacts.isEmpty() || installFolder.isPresent());
+        getOutputs().cacheIf("artifacts or an installFolder are declared", task -> !artifacts.isEmpty() || installFolder.isPresent());
     }
 
+    /**
+     * Copies the settings of the project's cmake extension. Must be called while configuring, not from a task action.
+     */
     public void configureFromProject() {
         CMakePluginExtension ext = (CMakePluginExtension)getProject().getExtensions().getByName("cmake");
         executable.set( ext.getExecutable() );
         workingFolder.set( ext.getWorkingFolder() );
+        sourceFolder.set( ext.getSourceFolder() );
+        artifacts.setFrom( ext.getArtifacts() );
+        installFolder.set( ext.getInstallFolder() );
         buildConfig.set( ext.getBuildConfig() );
         buildTarget.set( ext.getBuildTarget() );
         buildClean.set( ext.getBuildClean() );
+        parallelJobs.set( ext.getParallelJobs() );
+        compilerLauncher.set( ext.getCompilerLauncher() );
+        compilerCacheDir.set( ext.getCompilerCacheDir() );
+        compilerCacheSize.set( ext.getCompilerCacheSize() );
     }
 
 
@@ -46,11 +141,139 @@ public class CMakeBuildTask extends DefaultTask {
         return executable;
     }
 
-    @InputDirectory
+    @Internal("the configure result is tracked by getConfigureResult()")
     public DirectoryProperty getWorkingFolder() {
         return workingFolder;
     }
 
+    @Internal("tracked by getSourceFiles()")
+    public DirectoryProperty getSourceFolder() {
+        return sourceFolder;
+    }
+
+    /**
+     * The files the build depends on. Default is everything below the source folder.
+     */
+    @InputFiles
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public ConfigurableFileCollection getSourceFiles() {
+        return sourceFiles;
+    }
+
+    /**
+     * The entries of CMakeCache.txt, with the absolute paths of the working and source folder replaced by placeholders,
+     * so the cache key does not depend on where the project is checked out.
+     */
+    @Input
+    public SortedMap<String, String> getConfigureResult() {
+        SortedMap<String, String> entries = new TreeMap<>();
+        File cache = workingFolder.file("CMakeCache.txt").get().getAsFile();
+        if ( !cache.isFile() )
+            return entries;
+        try {
+            for ( String line : Files.readAllLines(cache.toPath(), StandardCharsets.UTF_8) ) {
+                if ( line.isEmpty() || line.startsWith("#") || line.startsWith("//") )
+                    continue;
+                int eq = line.indexOf('=');
+                if ( eq <= 0 )
+                    continue;
+                entries.put(line.substring(0, eq), relocatable(line.substring(eq + 1)));
+            }
+        }
+        catch ( IOException e ) {
+            throw new GradleException( "Could not read " + cache, e );
+        }
+        return entries;
+    }
+
+    /**
+     * The compiler ids and versions cmake detected, from CMakeFiles/&lt;version&gt;/CMake&lt;LANG&gt;Compiler.cmake.
+     * They are not in CMakeCache.txt, a compiler updated in place would otherwise go unnoticed.
+     */
+    @Input
+    public SortedMap<String, String> getCompilerIdentity() {
+        SortedMap<String, String> identity = new TreeMap<>();
+        Path cmakeFiles = workingFolder.dir("CMakeFiles").get().getAsFile().toPath();
+        if ( !Files.isDirectory(cmakeFiles) )
+            return identity;
+        try ( Stream<Path> versions = Files.list(cmakeFiles) ) {
+            for ( Path version : versions.filter(Files::isDirectory).collect(Collectors.toList()) ) {
+                try ( Stream<Path> files = Files.list(version) ) {
+                    for ( Path file : files.filter(f -> f.getFileName().toString().matches("CMake\\w+Compiler\\.cmake")).collect(Collectors.toList()) ) {
+                        Matcher matcher = COMPILER_IDENTITY.matcher(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+                        while ( matcher.find() )
+                            identity.put(version.getFileName() + "/" + matcher.group(1), matcher.group(2));
+                    }
+                }
+            }
+        }
+        catch ( IOException e ) {
+            throw new GradleException( "Could not read the compiler identity in " + cmakeFiles, e );
+        }
+        return identity;
+    }
+
+    /**
+     * Hashes of the build system generated by cmake, build.ninja or the Makefiles, with the absolute paths of the working
+     * and source folder replaced like in {@link #getConfigureResult()}.
+     */
+    @Input
+    public SortedMap<String, String> getBuildSystem() {
+        SortedMap<String, String> hashes = new TreeMap<>();
+        for ( String name : BUILD_SYSTEM_FILES ) {
+            File file = workingFolder.file(name).get().getAsFile();
+            if ( !file.isFile() )
+                continue;
+            try {
+                byte[] digest = MessageDigest.getInstance("SHA-1").digest(relocatable(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8)).getBytes(StandardCharsets.UTF_8));
+                StringBuilder hex = new StringBuilder();
+                for ( byte b : digest )
+                    hex.append(String.format("%02x", b));
+                hashes.put(name, hex.toString());
+            }
+            catch ( IOException e ) {
+                throw new GradleException( "Could not read " + file, e );
+            }
+            catch ( NoSuchAlgorithmException e ) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return hashes;
+    }
+
+    private String relocatable(String value) {
+        value = value.replace(workingFolder.getAsFile().get().getAbsolutePath(), "${BUILD}");
+        if ( sourceFolder.isPresent() )
+            value = value.replace(sourceFolder.getAsFile().get().getAbsolutePath(), "${SOURCE}");
+        return value;
+    }
+
+    /**
+     * Written by each build, so a cleaned working folder is built again even if only an installFolder is declared.
+     */
+    @OutputFile
+    public Provider<RegularFile> getBuildStamp() {
+        return workingFolder.file("CMakeFiles/gradle-build-" + getName() + ".stamp");
+    }
+
+    /**
+     * Files produced by the build, for example the libraries of the selected buildTarget.
+     * Declaring them makes the task up-to-date checkable and lets its result come from the build cache.
+     */
+    @OutputFiles
+    public ConfigurableFileCollection getArtifacts() {
+        return artifacts;
+    }
+
+    /**
+     * The install tree, when building the install target.
+     */
+    @OutputDirectory
+    @Optional
+    public DirectoryProperty getInstallFolder() {
+        return installFolder;
+    }
+
     @Input
     @Optional
     public Property<String> getBuildConfig() {
@@ -63,41 +286,216 @@ public class CMakeBuildTask extends DefaultTask {
         return buildTarget;
     }
 
+    /**
+     * For a cmakeBuild&lt;Target&gt; task requested before cmakeConfigure wrote a File API reply: the task name suffix of
+     * the target, which is looked up in the reply when the task runs. Not used if buildTarget is set.
+     */
+    @Input
+    @Optional
+    public Property<String> getTargetTaskSuffix() {
+        return targetTaskSuffix;
+    }
+
     @Input
     @Optional
     public Property<Boolean> getBuildClean() {
         return buildClean;
     }
+
+    @Internal("the job count does not change the build result")
+    public Property<Integer> getParallelJobs() {
+        return parallelJobs;
+    }
+
+    @Internal("the launcher does not change the build result")
+    public Property<String> getCompilerLauncher() {
+        return compilerLauncher;
+    }
+
+    @Internal("the compiler cache does not change the build result")
+    public Property<String> getCompilerCacheDir() {
+        return compilerCacheDir;
+    }
+
+    @Internal("the compiler cache does not change the build result")
+    public Property<String> getCompilerCacheSize() {
+        return compilerCacheSize;
+    }
+
+    /**
+     * Report of the slowest translation units, the critical path and the achieved parallelism,
+     * written after each build with a Ninja generator.
+     */
+    @Internal("a report about the last run, not a build result")
+    public RegularFileProperty getNinjaReport() {
+        return ninjaReport;
+    }
+
+    /**
+     * The compiler warnings and errors of the last build, grouped by file and warning id.
+     */
+    @Internal("a report about the last run, not a build result")
+    public RegularFileProperty getDiagnosticsReport() {
+        return diagnosticsReport;
+    }
+
+    /**
+     * If true (default), the native build is not started when no file it read or wrote changed since its last successful run.
+     * Works with the Ninja and Makefile generators, not for builds with an installFolder or with commands that run every time,
+     * like custom targets. Default is the gradle property cmake.skipUnchangedBuilds.
+     */
+    @Internal("only decides whether an unchanged build is started")
+    public Property<Boolean> getSkipUnchanged() {
+        return skipUnchanged;
+    }
+
+    @Internal
+    public Property<CMakeJobTokenService> getJobTokens() {
+        return jobTokens;
+    }
+
+    @Internal
+    public Property<CMakeMetricsService> getMetrics() {
+        return metrics;
+    }
+
+    @Internal
+    public Property<CMakeCapabilitiesService> getCapabilities() {
+        return capabilities;
+    }
     /// endregion
 
-    private List<String> buildCmdLine() {
+    private List<String> buildCmdLine(String target) {
         List<String> parameters = new ArrayList<>();
+        String cmake = executable.getOrElse("cmake");
 
-        parameters.add(executable.getOrElse("cmake"));
+        parameters.add(cmake);
         parameters.add("--build");
         parameters.add("." ); // working folder will be executable working dir --- workingFolder.getAsFile().get().getAbsolutePath()
 
-        if ( ! buildConfig.isPresent() ) {
+        if ( buildConfig.isPresent() && !buildConfig.get().isEmpty() ) {
             parameters.add("--config");
             parameters.add(buildConfig.get());
         }
 
-        if ( ! buildTarget.isPresent() ) {
+        if ( target != null && !target.isEmpty() ) {
             parameters.add("--target");
-            parameters.add(buildTarget.get());
+            parameters.add(target);
         }
 
         if ( buildClean.getOrElse(Boolean.FALSE).booleanValue() )
             parameters.add( "--clean-first" );
 
+        // the actual job count is filled in by the worker, once it got its tokens from the job token pool.
+        // also for one job, otherwise the build would run without a token and ninja with one job per core
+        if ( capabilities.get().get(cmake).supportsParallelBuild() ) {
+            parameters.add("--parallel");
+            parameters.add(CMakeExecWork.JOBS);
+        }
+        else {
+            // older cmake: pass the job count to the native build tool
+            parameters.add("--");
+            parameters.add( isVisualStudio() ? "/m:" + CMakeExecWork.JOBS : "-j" + CMakeExecWork.JOBS );
+        }
+
         return parameters;
     }
 
+    private String resolveBuildTarget() {
+        if ( buildTarget.isPresent() || !targetTaskSuffix.isPresent() )
+            return buildTarget.getOrNull();
+        File buildFolder = workingFolder.getAsFile().get();
+        CMakeCodeModel model;
+        try {
+            model = CMakeFileApi.readCodeModel(buildFolder);
+        }
+        catch ( IOException e ) {
+            throw new GradleException( "Could not read the cmake File API reply in " + buildFolder, e );
+        }
+        if ( model == null )
+            throw new GradleException( "No cmake File API reply in " + buildFolder + " to find the target of " + getName() + ", cmake 3.14 or newer is required." );
+        String config = model.getConfigurations().size() == 1 ? null : buildConfig.getOrNull();
+        List<String> names = new ArrayList<>();
+        for ( CMakeCodeModel.Target target : model.getTargets(config) ) {
+            if ( CMakePlugin.taskSuffix(target.getName()).equals(targetTaskSuffix.get()) )
+                return target.getName();
+            names.add(target.getName());
+        }
+        throw new GradleException( "No cmake target for " + getName() + ", the targets are " + names );
+    }
+
+    private int getJobCount() {
+        int jobs = parallelJobs.getOrElse(0);
+        return jobs > 0 ? jobs : Runtime.getRuntime().availableProcessors();
+    }
+
+    private boolean isVisualStudio() {
+        File cache = new File(workingFolder.getAsFile().get(), "CMakeCache.txt");
+        if ( !cache.isFile() )
+            return false;
+        try {
+            for ( String line : Files.readAllLines(cache.toPath(), StandardCharsets.UTF_8) ) {
+                if ( line.startsWith("CMAKE_GENERATOR:") )
+                    return line.substring(line.indexOf('=') + 1).startsWith("Visual Studio");
+            }
+        }
+        catch ( IOException e ) {
+            getLogger().info("Could not read " + cache + ": " + e.getMessage());
+        }
+        return false;
+    }
+
+    @Inject
+    protected abstract WorkerExecutor getWorkerExecutor();
 
     @TaskAction
     public void build() {
-        CMakeExecutor executor = new CMakeExecutor(getLogger(), getName());
-        executor.exec(buildCmdLine(), workingFolder.getAsFile().get());
+        String target = resolveBuildTarget();
+        List<String> cmdLine = buildCmdLine(target);
+        File stamp = getBuildStamp().get().getAsFile();
+        try {
+            Files.write(stamp.toPath(), new byte[0]);
+        }
+        catch ( IOException e ) {
+            throw new GradleException( "Could not write " + stamp, e );
+        }
+        // one per task, the tasks of the targets share the working folder
+        File snapshot = new File(workingFolder.getAsFile().get(), "CMakeFiles/gradle-build-snapshot-" + getName() + ".bin");
+        String snapshotKey = String.join("\n", cmdLine);
+        // the install tree is outside of the build folder, the snapshot would not see it changed or deleted
+        boolean useSnapshot = skipUnchanged.get() && !buildClean.getOrElse(Boolean.FALSE) && !installFolder.isPresent();
+        boolean artifactsExist = artifacts.getFiles().stream().allMatch(File::exists);
+        if ( useSnapshot && artifactsExist && CMakeBuildSnapshot.isUnchanged(snapshot, snapshotKey, getLogger()) ) {
+            getLogger().lifecycle("  CMakePlugin.task " + getName() + " - nothing changed since the last build, not started");
+            return;
+        }
+        // recorded again after a successful build
+        snapshot.delete();
+
+        getWorkerExecutor().noIsolation().submit(CMakeExecWork.class, params -> {
+            params.getTaskName().set(getName());
+            params.getProjectPath().set(projectPath);
+            params.getPhase().set("build");
+            params.getMetrics().set(metrics);
+            params.getCommandLine().set(cmdLine);
+            params.getWorkingFolder().set(workingFolder);
+            params.getJobs().set(getJobCount());
+            params.getJobTokens().set(jobTokens);
+            params.getNinjaReport().set(ninjaReport);
+            params.getDiagnosticsReport().set(diagnosticsReport);
+            if ( useSnapshot ) {
+                params.getBuildSnapshot().set(snapshot);
+                params.getBuildSnapshotKey().set(snapshotKey);
+                params.getBuildSnapshotTarget().set(target);
+            }
+            String launcher = CMakeCompilerLauncher.resolve(compilerLauncher.getOrNull());
+            if ( launcher != null ) {
+                File statsLog = new File(workingFolder.getAsFile().get(), "CMakeFiles/compiler-launcher-stats.log");
+                params.getEnvironment().set(CMakeCompilerLauncher.environment(launcher, compilerCacheDir.getOrNull(), compilerCacheSize.getOrNull(), statsLog));
+                params.getCompilerLauncher().set(launcher);
+                params.getCompilerStatsLog().set(statsLog);
+            }
+        });
     }
 
 }
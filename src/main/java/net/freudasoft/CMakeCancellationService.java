@@ -0,0 +1,34 @@
+package net.freudasoft;
+
+import org.gradle.api.provider.Property;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+import org.gradle.tooling.events.FinishEvent;
+import org.gradle.tooling.events.OperationCompletionListener;
+import org.gradle.tooling.events.task.TaskFailureResult;
+
+/**
+ * Listens for task results. When a task fails and the build does not run with --continue,
+ * all running cmake/make/ninja process trees are killed, so a doomed build doesn't keep the cores busy.
+ * When the build ends, processes left over by a cancelled build are killed and the shutdown hook of
+ * {@link CMakeExecutor} is removed from the daemon.
+ */
+public abstract class CMakeCancellationService implements BuildService<CMakeCancellationService.Params>, OperationCompletionListener, AutoCloseable {
+    public static final String NAME = "cmakeCancellation";
+
+    public interface Params extends BuildServiceParameters {
+        Property<Boolean> getContinueOnFailure();
+    }
+
+    @Override
+    public void onFinish(FinishEvent event) {
+        if ( event.getResult() instanceof TaskFailureResult && !getParameters().getContinueOnFailure().getOrElse(Boolean.FALSE) )
+            CMakeExecutor.destroyAll();
+    }
+
+    @Override
+    public void close() {
+        CMakeExecutor.destroyAll();
+        CMakeExecutor.removeReaper();
+    }
+}
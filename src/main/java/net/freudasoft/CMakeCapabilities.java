@@ -0,0 +1,295 @@
+package net.freudasoft;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What a cmake executable supports, as reported by {@code cmake -E capabilities} (cmake >= 3.7):
+ * version, generators and features like the File API.
+ */
+public class CMakeCapabilities {
+    public static class Generator {
+        private final String name;
+        private final boolean platformSupport;
+        private final boolean toolsetSupport;
+        private final List<String> extraGenerators;
+
+        Generator(String name, boolean platformSupport, boolean toolsetSupport, List<String> extraGenerators) {
+            this.name = name;
+            this.platformSupport = platformSupport;
+            this.toolsetSupport = toolsetSupport;
+            this.extraGenerators = extraGenerators;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        // -A is supported
+        public boolean isPlatformSupport() {
+            return platformSupport;
+        }
+
+        // -T is supported
+        public boolean isToolsetSupport() {
+            return toolsetSupport;
+        }
+
+        // like "CodeBlocks" for "CodeBlocks - Ninja"
+        public List<String> getExtraGenerators() {
+            return extraGenerators;
+        }
+    }
+
+    private final int major;
+    private final int minor;
+    private final int patch;
+    private final String version;
+    private final List<Generator> generators;
+    private final Map<String, List<Integer>> fileApiKinds;
+    private final Map<String, Boolean> features;
+
+    private CMakeCapabilities(int major, int minor, int patch, String version, List<Generator> generators,
+                              Map<String, List<Integer>> fileApiKinds, Map<String, Boolean> features) {
+        this.major = major;
+        this.minor = minor;
+        this.patch = patch;
+        this.version = version;
+        this.generators = generators;
+        this.fileApiKinds = fileApiKinds;
+        this.features = features;
+    }
+
+    /**
+     * For cmake older than 3.7, which only tells its version.
+     */
+    static CMakeCapabilities ofVersion(int major, int minor, int patch) {
+        return new CMakeCapabilities(major, minor, patch, major + "." + minor + "." + patch,
+                Collections.emptyList(), Collections.emptyMap(), Collections.emptyMap());
+    }
+
+    /**
+     * Parses the output of {@code cmake -E capabilities}.
+     */
+    static CMakeCapabilities parse(String json) throws IOException {
+        int major = 0;
+        int minor = 0;
+        int patch = 0;
+        String version = "";
+        List<Generator> generators = new ArrayList<>();
+        Map<String, List<Integer>> fileApiKinds = new LinkedHashMap<>();
+        Map<String, Boolean> features = new LinkedHashMap<>();
+        try ( CMakeJsonReader reader = new CMakeJsonReader(new StringReader(json)) ) {
+            reader.beginObject();
+            while ( reader.hasNext() ) {
+                String name = reader.nextName();
+                switch ( name ) {
+                    case "version":
+                        reader.beginObject();
+                        while ( reader.hasNext() ) {
+                            switch ( reader.nextName() ) {
+                                case "major": major = reader.nextInt(); break;
+                                case "minor": minor = reader.nextInt(); break;
+                                case "patch": patch = reader.nextInt(); break;
+                                case "string": version = reader.nextString(); break;
+                                default: reader.skipValue(); break;
+                            }
+                        }
+                        reader.endObject();
+                        break;
+                    case "generators":
+                        reader.beginArray();
+                        while ( reader.hasNext() )
+                            generators.add(readGenerator(reader));
+                        reader.endArray();
+                        break;
+                    case "fileApi":
+                        readFileApi(reader, fileApiKinds);
+                        break;
+                    default:
+                        // flags like serverMode, tls or debugger
+                        if ( reader.peek() == CMakeJsonReader.Token.BOOLEAN )
+                            features.put(name, reader.nextBoolean());
+                        else
+                            reader.skipValue();
+                        break;
+                }
+            }
+            reader.endObject();
+        }
+        if ( major == 0 )
+            throw new IOException("No version in cmake capabilities");
+        return new CMakeCapabilities(major, minor, patch, version, generators, fileApiKinds, features);
+    }
+
+    private static Generator readGenerator(CMakeJsonReader reader) throws IOException {
+        String name = null;
+        boolean platformSupport = false;
+        boolean toolsetSupport = false;
+        List<String> extraGenerators = new ArrayList<>();
+        reader.beginObject();
+        while ( reader.hasNext() ) {
+            switch ( reader.nextName() ) {
+                case "name":
+                    name = reader.nextString();
+                    break;
+                case "platformSupport":
+                    platformSupport = reader.nextBoolean();
+                    break;
+                case "toolsetSupport":
+                    toolsetSupport = reader.nextBoolean();
+                    break;
+                case "extraGenerators":
+                    reader.beginArray();
+                    while ( reader.hasNext() )
+                        extraGenerators.add(reader.nextString());
+                    reader.endArray();
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+        return new Generator(name, platformSupport, toolsetSupport, extraGenerators);
+    }
+
+    private static void readFileApi(CMakeJsonReader reader, Map<String, List<Integer>> fileApiKinds) throws IOException {
+        reader.beginObject();
+        while ( reader.hasNext() ) {
+            if ( !reader.nextName().equals("requests") ) {
+                reader.skipValue();
+                continue;
+            }
+            reader.beginArray();
+            while ( reader.hasNext() ) {
+                String kind = null;
+                List<Integer> majorVersions = new ArrayList<>();
+                reader.beginObject();
+                while ( reader.hasNext() ) {
+                    String name = reader.nextName();
+                    if ( name.equals("kind") )
+                        kind = reader.nextString();
+                    else if ( name.equals("version") ) {
+                        reader.beginArray();
+                        while ( reader.hasNext() ) {
+                            reader.beginObject();
+                            while ( reader.hasNext() ) {
+                                if ( reader.nextName().equals("major") )
+                                    majorVersions.add(reader.nextInt());
+                                else
+                                    reader.skipValue();
+                            }
+                            reader.endObject();
+                        }
+                        reader.endArray();
+                    }
+                    else
+                        reader.skipValue();
+                }
+                reader.endObject();
+                if ( kind != null )
+                    fileApiKinds.put(kind, majorVersions);
+            }
+            reader.endArray();
+        }
+        reader.endObject();
+    }
+
+    /**
+     * The capabilities in the format of {@code cmake -E capabilities}, as far as they are known.
+     */
+    void write(CMakeJsonWriter json) throws IOException {
+        json.beginObject();
+        json.name("version").beginObject();
+        json.name("major").value(major);
+        json.name("minor").value(minor);
+        json.name("patch").value(patch);
+        json.name("string").value(version);
+        json.endObject();
+        json.name("generators").beginArray();
+        for ( Generator generator : generators ) {
+            json.beginObject();
+            json.name("name").value(generator.name);
+            json.name("platformSupport").value(generator.platformSupport);
+            json.name("toolsetSupport").value(generator.toolsetSupport);
+            json.name("extraGenerators").beginArray();
+            for ( String extra : generator.extraGenerators )
+                json.value(extra);
+            json.endArray();
+            json.endObject();
+        }
+        json.endArray();
+        json.name("fileApi").beginObject();
+        json.name("requests").beginArray();
+        for ( Map.Entry<String, List<Integer>> entry : fileApiKinds.entrySet() ) {
+            json.beginObject();
+            json.name("kind").value(entry.getKey());
+            json.name("version").beginArray();
+            for ( Integer v : entry.getValue() )
+                json.beginObject().name("major").value(v.longValue()).endObject();
+            json.endArray();
+            json.endObject();
+        }
+        json.endArray();
+        json.endObject();
+        for ( Map.Entry<String, Boolean> entry : features.entrySet() )
+            json.name(entry.getKey()).value(entry.getValue().booleanValue());
+        json.endObject();
+    }
+
+    /// region getters
+    public int getMajor() {
+        return major;
+    }
+
+    public int getMinor() {
+        return minor;
+    }
+
+    public int getPatch() {
+        return patch;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public List<Generator> getGenerators() {
+        return generators;
+    }
+
+    public Map<String, Boolean> getFeatures() {
+        return features;
+    }
+    /// endregion
+
+    public boolean isAtLeast(int major, int minor) {
+        return this.major > major || ( this.major == major && this.minor >= minor );
+    }
+
+    public boolean hasGenerator(String name) {
+        for ( Generator generator : generators ) {
+            if ( generator.name.equals(name) )
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the File API answers queries of this kind, like "codemodel"
+     */
+    public boolean supportsFileApi(String kind) {
+        return fileApiKinds.containsKey(kind);
+    }
+
+    // cmake --build --parallel
+    public boolean supportsParallelBuild() {
+        return isAtLeast(3, 12);
+    }
+}
@@ -0,0 +1,165 @@
+package net.freudasoft;
+
+import org.gradle.api.GradleException;
+import org.gradle.api.Project;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Build wide cache of the {@link CMakeCapabilities} of the cmake executables in use.
+ *
+ * cmake is asked once per executable with {@code cmake -E capabilities}. The result is kept in memory and persisted
+ * below the gradle user home, keyed on path, size and modification time of the executable, so later builds
+ * don't start cmake at all until cmake is updated.
+ */
+public abstract class CMakeCapabilitiesService implements BuildService<CMakeCapabilitiesService.Params> {
+    public static final String NAME = "cmakeCapabilities";
+
+    public interface Params extends BuildServiceParameters {
+        DirectoryProperty getCacheFolder();
+    }
+
+    private static final Logger logger = Logging.getLogger(CMakeCapabilitiesService.class);
+    private static final Pattern VERSION_PATTERN = Pattern.compile("cmake version (\\d+)\\.(\\d+)\\.(\\d+).*");
+
+    private final Map<String, CMakeCapabilities> capabilities = new ConcurrentHashMap<>();
+
+    static Provider<CMakeCapabilitiesService> register(Project project) {
+        return project.getGradle().getSharedServices().registerIfAbsent(NAME, CMakeCapabilitiesService.class, spec ->
+                spec.getParameters().getCacheFolder().set(new File(project.getGradle().getGradleUserHomeDir(), "caches/cmake-plugin/capabilities")));
+    }
+
+    /**
+     * @param executable the configured cmake executable, or null for cmake on the PATH
+     */
+    public CMakeCapabilities get(String executable) {
+        String cmake = executable != null ? executable : "cmake";
+        File resolved = resolveExecutable(cmake);
+        String key = resolved != null ? resolved.getAbsolutePath() + "|" + resolved.length() + "|" + resolved.lastModified() : cmake;
+        return capabilities.computeIfAbsent(key, k -> load(cmake, resolved != null ? cacheFile(k) : null));
+    }
+
+    private CMakeCapabilities load(String cmake, File cacheFile) {
+        if ( cacheFile != null && cacheFile.isFile() ) {
+            try {
+                return CMakeCapabilities.parse(new String(Files.readAllBytes(cacheFile.toPath()), StandardCharsets.UTF_8));
+            }
+            catch ( IOException e ) {
+                logger.info("Ignoring unreadable cmake capabilities cache " + cacheFile + ": " + e.getMessage());
+            }
+        }
+
+        CMakeCapabilities result = probe(cmake);
+        if ( cacheFile != null )
+            store(result, cacheFile);
+        return result;
+    }
+
+    private static CMakeCapabilities probe(String cmake) {
+        logger.info("Probing capabilities of " + cmake);
+        String output = run(cmake, "-E", "capabilities");
+        if ( output != null && output.trim().startsWith("{") ) {
+            try {
+                return CMakeCapabilities.parse(output);
+            }
+            catch ( IOException e ) {
+                logger.info("Could not parse the capabilities of " + cmake + ": " + e.getMessage());
+            }
+        }
+
+        // cmake < 3.7 has no capabilities command
+        output = run(cmake, "--version");
+        if ( output != null ) {
+            for ( String line : output.split("\\R") ) {
+                Matcher m = VERSION_PATTERN.matcher(line.trim());
+                if ( m.matches() )
+                    return CMakeCapabilities.ofVersion(Integer.parseInt(m.group(1)), Integer.parseInt(m.group(2)), Integer.parseInt(m.group(3)));
+            }
+        }
+        throw new GradleException( "Could not determine the version of " + cmake + "." );
+    }
+
+    // returns stdout, or null if cmake failed
+    private static String run(String cmake, String... args) {
+        String[] cmdLine = new String[args.length + 1];
+        cmdLine[0] = cmake;
+        System.arraycopy(args, 0, cmdLine, 1, args.length);
+        ProcessBuilder pb = new ProcessBuilder(cmdLine);
+        pb.redirectError(ProcessBuilder.Redirect.DISCARD);
+        try {
+            Process process = pb.start();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try ( InputStream in = process.getInputStream() ) {
+                byte[] buffer = new byte[8192];
+                int n;
+                while ( (n = in.read(buffer)) > 0 )
+                    out.write(buffer, 0, n);
+            }
+            return process.waitFor() == 0 ? new String(out.toByteArray(), StandardCharsets.UTF_8) : null;
+        }
+        catch ( IOException e ) {
+            throw new GradleException( cmake + " " + String.join(" ", args) + " failed.", e );
+        }
+        catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new GradleException( cmake + " " + String.join(" ", args) + " failed.", e );
+        }
+    }
+
+    private static void store(CMakeCapabilities result, File cacheFile) {
+        try {
+            Files.createDirectories(cacheFile.getParentFile().toPath());
+            // write to a temporary file first, so concurrent builds never read a partial file
+            File tmp = File.createTempFile(cacheFile.getName(), ".tmp", cacheFile.getParentFile());
+            try ( CMakeJsonWriter json = new CMakeJsonWriter(new OutputStreamWriter(Files.newOutputStream(tmp.toPath()), StandardCharsets.UTF_8)) ) {
+                result.write(json);
+            }
+            Files.move(tmp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch ( IOException e ) {
+            logger.info("Could not persist cmake capabilities to " + cacheFile + ": " + e.getMessage());
+        }
+    }
+
+    private File cacheFile(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            StringBuilder sb = new StringBuilder();
+            for ( byte b : digest.digest(key.getBytes(StandardCharsets.UTF_8)) )
+                sb.append(String.format("%02x", b));
+            return new File(getParameters().getCacheFolder().getAsFile().get(), sb + ".json");
+        }
+        catch ( NoSuchAlgorithmException e ) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the executable file, looked up on the PATH if the name has no folder, or null if not found
+     */
+    static File resolveExecutable(String cmake) {
+        File file = new File(cmake);
+        if ( file.isAbsolute() || cmake.contains("/") || cmake.contains(File.separator) )
+            return file.isFile() ? file.getAbsoluteFile() : null;
+        return CMakeCompilerLauncher.findOnPath(cmake);
+    }
+}
@@ -0,0 +1,159 @@
+package net.freudasoft;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.api.tasks.options.Option;
+import org.gradle.workers.WorkerExecutor;
+
+import javax.inject.Inject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.List;
+
+public abstract class CMakeCleanTask extends DefaultTask {
+    public enum Mode {
+        /** delete the whole working folder, the next configure starts from scratch */
+        ALL,
+        /** run the clean target of the native build tool, keeps the configuration */
+        BUILD,
+        /** delete object files and precompiled headers only, keeps the configuration and the dependency information */
+        OBJECTS
+    }
+
+    private static final List<String> OBJECT_EXTENSIONS = Arrays.asList(".o", ".obj", ".gch", ".pch");
+
+    private final Property<String> executable;
+    private final DirectoryProperty workingFolder;
+    private final Property<Mode> mode;
+    private final Property<CMakeDeleteService> deleteService;
+    private final Property<CMakeMetricsService> metrics;
+    private final String projectPath;
+
+    public CMakeCleanTask() {
+        setGroup("cmake");
+        setDescription("Clean CMake configuration");
+        projectPath = getProject().getPath();
+        executable = getProject().getObjects().property(String.class);
+        workingFolder = getProject().getObjects().directoryProperty();
+        mode = getProject().getObjects().property(Mode.class);
+        deleteService = getProject().getObjects().property(CMakeDeleteService.class);
+        metrics = getProject().getObjects().property(CMakeMetricsService.class);
+
+        // default values
+        mode.convention(Mode.ALL);
+        Provider<CMakeDeleteService> deleteProvider = CMakeDeleteService.register(getProject());
+        deleteService.set(deleteProvider);
+        usesService(deleteProvider);
+        Provider<CMakeMetricsService> metricsProvider = CMakeMetricsService.register(getProject());
+        metrics.set(metricsProvider);
+        usesService(metricsProvider);
+    }
+
+    /// region getters
+    @Internal
+    public Property<String> getExecutable() {
+        return executable;
+    }
+
+    @Internal
+    public DirectoryProperty getWorkingFolder() {
+        return workingFolder;
+    }
+
+    @Internal
+    @Option(option = "mode", description = "What to clean: ALL (the whole working folder), BUILD (cmake --build --target clean) or OBJECTS (object files only).")
+    public Property<Mode> getMode() {
+        return mode;
+    }
+
+    @Internal
+    public Property<CMakeDeleteService> getDeleteService() {
+        return deleteService;
+    }
+
+    @Internal
+    public Property<CMakeMetricsService> getMetrics() {
+        return metrics;
+    }
+    /// endregion
+
+    @Inject
+    protected abstract WorkerExecutor getWorkerExecutor();
+
+    @TaskAction
+    public void clean() {
+        File folder = workingFolder.getAsFile().get().getAbsoluteFile();
+        try {
+            // the cmakeBuild tasks are not up-to-date without them, see CMakeBuildTask.getBuildStamp()
+            if ( mode.get() != Mode.ALL )
+                deleteBuildStamps(folder.toPath().resolve("CMakeFiles"));
+            switch ( mode.get() ) {
+                case ALL:
+                    // the folder is renamed right away and deleted in the background, the next configure can start immediately
+                    getLogger().info("Deleting folder " + folder);
+                    deleteService.get().delete(folder);
+                    break;
+                case BUILD:
+                    if ( !new File(folder, "CMakeCache.txt").isFile() )
+                        return;
+                    getWorkerExecutor().noIsolation().submit(CMakeExecWork.class, params -> {
+                        params.getTaskName().set(getName());
+                        params.getProjectPath().set(projectPath);
+                        params.getPhase().set("clean");
+                        params.getMetrics().set(metrics);
+                        params.getCommandLine().set(Arrays.asList(executable.getOrElse("cmake"), "--build", ".", "--target", "clean"));
+                        params.getWorkingFolder().set(workingFolder);
+                    });
+                    break;
+                case OBJECTS:
+                    if ( folder.isDirectory() )
+                        getLogger().info("Deleted " + deleteObjectFiles(folder.toPath()) + " object file(s) in " + folder);
+                    break;
+            }
+        }
+        catch ( IOException e ) {
+            throw new GradleException( "Could not clean working folder " + folder, e );
+        }
+    }
+
+    private static void deleteBuildStamps(Path folder) throws IOException {
+        if ( !Files.isDirectory(folder) )
+            return;
+        try ( DirectoryStream<Path> stamps = Files.newDirectoryStream(folder, "gradle-build-*.stamp") ) {
+            for ( Path stamp : stamps )
+                Files.delete(stamp);
+        }
+    }
+
+    private static int deleteObjectFiles(Path folder) throws IOException {
+        int[] count = { 0 };
+        Files.walkFileTree(folder, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                String name = file.getFileName().toString();
+                for ( String extension : OBJECT_EXTENSIONS ) {
+                    if ( name.endsWith(extension) ) {
+                        Files.delete(file);
+                        count[0]++;
+                        break;
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return count[0];
+    }
+}
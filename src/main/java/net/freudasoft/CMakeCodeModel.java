@@ -0,0 +1,107 @@
+package net.freudasoft;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory view of cmake's File API codemodel: the targets of each configuration,
+ * with their artifacts, source files and dependencies.
+ */
+public class CMakeCodeModel {
+    public static class Target {
+        private final String id;
+        private final String name;
+        private final String type;
+        private final List<File> artifacts;
+        private final List<File> sources;
+        private final List<String> dependencies;
+
+        Target(String id, String name, String type, List<File> artifacts, List<File> sources, List<String> dependencies) {
+            this.id = id;
+            this.name = name;
+            this.type = type;
+            this.artifacts = Collections.unmodifiableList(artifacts);
+            this.sources = Collections.unmodifiableList(sources);
+            this.dependencies = Collections.unmodifiableList(dependencies);
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the cmake target type, for example EXECUTABLE, STATIC_LIBRARY, SHARED_LIBRARY or UTILITY.
+         */
+        public String getType() {
+            return type;
+        }
+
+        public List<File> getArtifacts() {
+            return artifacts;
+        }
+
+        public List<File> getSources() {
+            return sources;
+        }
+
+        /**
+         * @return the ids of the targets this target depends on.
+         */
+        public List<String> getDependencies() {
+            return dependencies;
+        }
+    }
+
+    private final File sourceFolder;
+    private final File buildFolder;
+    private final Map<String, List<Target>> targetsByConfiguration;
+
+    CMakeCodeModel(File sourceFolder, File buildFolder, Map<String, List<Target>> targetsByConfiguration) {
+        this.sourceFolder = sourceFolder;
+        this.buildFolder = buildFolder;
+        this.targetsByConfiguration = Collections.unmodifiableMap(new LinkedHashMap<>(targetsByConfiguration));
+    }
+
+    public File getSourceFolder() {
+        return sourceFolder;
+    }
+
+    public File getBuildFolder() {
+        return buildFolder;
+    }
+
+    /**
+     * @return the configuration names. Single-config generators report one configuration, which may be named "".
+     */
+    public List<String> getConfigurations() {
+        return new ArrayList<>(targetsByConfiguration.keySet());
+    }
+
+    /**
+     * @param configuration the configuration name, or null for the first (or only) configuration.
+     */
+    public List<Target> getTargets(String configuration) {
+        if ( configuration == null || !targetsByConfiguration.containsKey(configuration) ) {
+            if ( configuration != null || targetsByConfiguration.isEmpty() )
+                return Collections.emptyList();
+            return targetsByConfiguration.values().iterator().next();
+        }
+        return targetsByConfiguration.get(configuration);
+    }
+
+    public Target findTarget(String configuration, String name) {
+        for ( Target target : getTargets(configuration) ) {
+            if ( target.getName().equals(name) )
+                return target;
+        }
+        return null;
+    }
+}
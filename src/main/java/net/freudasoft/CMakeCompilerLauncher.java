@@ -0,0 +1,217 @@
+package net.freudasoft;
+
+import org.gradle.api.logging.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Support for compiler launchers (ccache, sccache): detection, environment and per-build statistics.
+ */
+class CMakeCompilerLauncher {
+    static final String AUTO = "auto";
+    static final String NONE = "none";
+    static final String[] LANGUAGES = { "C", "CXX", "CUDA" };
+
+    private static final String[] AUTO_DETECT = { "ccache", "sccache" };
+
+    static class Stats {
+        final long hits;
+        final long misses;
+        final long cacheSizeBytes; // -1 if unknown
+
+        Stats(long hits, long misses, long cacheSizeBytes) {
+            this.hits = hits;
+            this.misses = misses;
+            this.cacheSizeBytes = cacheSizeBytes;
+        }
+    }
+
+    private CMakeCompilerLauncher() {
+    }
+
+    /**
+     * @param setting "auto", "none", a program name or a path
+     * @return the launcher to use, or null for none
+     */
+    static String resolve(String setting) {
+        if ( setting == null || setting.isEmpty() || NONE.equals(setting) )
+            return null;
+        if ( !AUTO.equals(setting) )
+            return setting;
+        for ( String candidate : AUTO_DETECT ) {
+            File found = findOnPath(candidate);
+            if ( found != null )
+                return found.getAbsolutePath();
+        }
+        return null;
+    }
+
+    static boolean isSccache(String launcher) {
+        return new File(launcher).getName().startsWith("sccache");
+    }
+
+    /**
+     * @param statsLog ccache only: file that records the result of every compilation of this build
+     */
+    static Map<String, String> environment(String launcher, String cacheDir, String cacheSize, File statsLog) {
+        Map<String, String> env = new HashMap<>();
+        boolean sccache = isSccache(launcher);
+        if ( cacheDir != null && !cacheDir.isEmpty() )
+            env.put(sccache ? "SCCACHE_DIR" : "CCACHE_DIR", cacheDir);
+        if ( cacheSize != null && !cacheSize.isEmpty() )
+            env.put(sccache ? "SCCACHE_CACHE_SIZE" : "CCACHE_MAXSIZE", cacheSize);
+        if ( !sccache && statsLog != null )
+            env.put("CCACHE_STATSLOG", statsLog.getAbsolutePath());
+        return env;
+    }
+
+    /**
+     * Reads the cache statistics. For ccache the hits and misses are counted from the stats log of this build,
+     * sccache only has server wide counters, so the caller must subtract the statistics taken before the build.
+     * @return the statistics, or null if they are not available
+     */
+    static Stats readStats(String launcher, Map<String, String> env, File statsLog, Logger logger) {
+        try {
+            if ( isSccache(launcher) )
+                return readSccacheStats(launcher, env);
+            return readCcacheStats(launcher, env, statsLog);
+        }
+        catch ( IOException e ) {
+            logger.info("Could not read " + launcher + " statistics: " + e.getMessage());
+            return null;
+        }
+    }
+
+    static String format(String launcher, Stats before, Stats after) {
+        long hits = after.hits - ( before != null ? before.hits : 0 );
+        long misses = after.misses - ( before != null ? before.misses : 0 );
+        long total = hits + misses;
+        StringBuilder sb = new StringBuilder(new File(launcher).getName()).append(": ");
+        sb.append(hits).append(" hits, ").append(misses).append(" misses");
+        if ( total > 0 )
+            sb.append(String.format(" (hit rate %.1f%%)", 100.0 * hits / total));
+        if ( after.cacheSizeBytes >= 0 )
+            sb.append(String.format(", cache size %.1f MB", after.cacheSizeBytes / (1024.0 * 1024.0)));
+        return sb.toString();
+    }
+
+    private static Stats readCcacheStats(String launcher, Map<String, String> env, File statsLog) throws IOException {
+        long hits = 0;
+        long misses = 0;
+        if ( statsLog != null && statsLog.isFile() ) {
+            for ( String line : Files.readAllLines(statsLog.toPath(), StandardCharsets.UTF_8) ) {
+                line = line.trim();
+                if ( line.equals("direct_cache_hit") || line.equals("preprocessed_cache_hit") )
+                    hits++;
+                else if ( line.equals("cache_miss") )
+                    misses++;
+            }
+        }
+        long size = -1;
+        // tab separated "key value" lines, ccache >= 4
+        for ( String line : run(Arrays.asList(launcher, "--print-stats"), env).split("\n") ) {
+            String[] kv = line.trim().split("\t");
+            if ( kv.length == 2 && kv[0].equals("cache_size_kibibyte") )
+                size = Long.parseLong(kv[1].trim()) * 1024L;
+        }
+        return new Stats(hits, misses, size);
+    }
+
+    private static Stats readSccacheStats(String launcher, Map<String, String> env) throws IOException {
+        String json = run(Arrays.asList(launcher, "--show-stats", "--stats-format=json"), env);
+        long hits = 0;
+        long misses = 0;
+        long size = -1;
+        try ( CMakeJsonReader reader = new CMakeJsonReader(new StringReader(json)) ) {
+            reader.beginObject();
+            while ( reader.hasNext() ) {
+                String name = reader.nextName();
+                if ( name.equals("stats") ) {
+                    reader.beginObject();
+                    while ( reader.hasNext() ) {
+                        String stat = reader.nextName();
+                        if ( stat.equals("cache_hits") )
+                            hits = sumCounts(reader);
+                        else if ( stat.equals("cache_misses") )
+                            misses = sumCounts(reader);
+                        else
+                            reader.skipValue();
+                    }
+                    reader.endObject();
+                }
+                else if ( name.equals("cache_size") && reader.peek() == CMakeJsonReader.Token.NUMBER )
+                    size = reader.nextLong();
+                else
+                    reader.skipValue();
+            }
+            reader.endObject();
+        }
+        return new Stats(hits, misses, size);
+    }
+
+    // sums the values of a {"counts": {"C/C++": 1, "CUDA": 2}, ...} object
+    private static long sumCounts(CMakeJsonReader reader) throws IOException {
+        long sum = 0;
+        reader.beginObject();
+        while ( reader.hasNext() ) {
+            if ( reader.nextName().equals("counts") ) {
+                reader.beginObject();
+                while ( reader.hasNext() ) {
+                    reader.nextName();
+                    sum += reader.nextLong();
+                }
+                reader.endObject();
+            }
+            else
+                reader.skipValue();
+        }
+        reader.endObject();
+        return sum;
+    }
+
+    private static String run(List<String> cmdLine, Map<String, String> env) throws IOException {
+        ProcessBuilder pb = new ProcessBuilder(cmdLine);
+        pb.environment().putAll(env);
+        pb.redirectErrorStream(true);
+        Process process = pb.start();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try ( InputStream in = process.getInputStream() ) {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ( (n = in.read(buffer)) > 0 )
+                out.write(buffer, 0, n);
+        }
+        try {
+            if ( process.waitFor() != 0 )
+                throw new IOException(String.join(" ", cmdLine) + " failed");
+        }
+        catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new IOException(String.join(" ", cmdLine) + " was interrupted", e);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    static File findOnPath(String program) {
+        String path = System.getenv("PATH");
+        if ( path == null )
+            return null;
+        boolean windows = File.separatorChar == '\\';
+        for ( String dir : path.split(File.pathSeparator) ) {
+            File f = new File(dir, windows ? program + ".exe" : program);
+            if ( f.isFile() && f.canExecute() )
+                return f;
+        }
+        return null;
+    }
+}
@@ -1,62 +1,160 @@
 package net.freudasoft;
 
 import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.ConfigurableFileTree;
 import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.file.RegularFileProperty;
 import org.gradle.api.provider.MapProperty;
 import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
 import org.gradle.api.tasks.*;
+import org.gradle.workers.WorkerExecutor;
+
+import javax.inject.Inject;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+
+public abstract class CMakeConfigureTask extends DefaultTask {
+    static final String AUTO = "auto";
 
-public class CMakeConfigureTask extends DefaultTask {
     private final Property<String> executable;
     private final DirectoryProperty workingFolder;
     private final DirectoryProperty sourceFolder;
     private final Property<String> configurationTypes;
+    private final Property<String> buildType;
     private final Property<String> installPrefix;
     private final Property<String> generator; // for example: "Visual Studio 16 2019"
     private final Property<String> platform ; // for example "x64" or "Win32" or "ARM" or "ARM64", supported on vs > 8.0
     private final Property<String> toolset; // for example "v142", supported on vs > 10.0
+    private final RegularFileProperty toolchainFile;
     private final Property<Boolean> buildSharedLibs;
     private final Property<Boolean> buildStaticLibs;
     private final MapProperty<String,String> def;
+    private final Property<CMakeJobTokenService> jobTokens;
+    private final Property<CMakeMetricsService> metrics;
+    private final Property<Boolean> profileConfigure;
+    private final Property<Boolean> shareInitialCache;
+    private final DirectoryProperty initialCacheFolder;
+    private final Property<String> fetchContentCacheDir;
+    private final Property<String> fetchContentCacheSize;
+    private final Property<Boolean> offline;
+    private final Property<CMakeFetchContentCache> fetchContentCache;
+    private final Property<CMakeCapabilitiesService> capabilities;
+    private final RegularFileProperty unitySettings;
+    private final Property<String> compilerLauncher;
+    private final Property<String> compilerCacheDir;
+    private final Property<String> compilerCacheSize;
+    private final ConfigurableFileTree configureInputs;
+    private final ConfigurableFileCollection toolchainInputs;
+    private final ConfigurableFileTree generatedFiles;
+    private final String projectPath;
+    private final File rootDir;
+
+    // files that affect the result of a configure run. Changing any other source does not need a re-configure.
+    private static final String[] CONFIGURE_INPUT_PATTERNS = { "**/CMakeLists.txt", "**/*.cmake", "**/*.cmake.in", "CMakePresets.json", "CMakeUserPresets.json" };
+    // files written by a configure run: the cache and the generated build system, but not the build products.
+    private static final String[] GENERATED_FILE_PATTERNS = { "CMakeCache.txt", "**/cmake_install.cmake", "**/Makefile", "CMakeFiles/Makefile2", "CMakeFiles/Makefile.cmake",
+            "**/build.make", "**/flags.make", "**/link.txt", "*.ninja", "CMakeFiles/*.ninja", "**/*.sln", "**/*.vcxproj", "**/*.vcxproj.filters", "**/*.xcodeproj/**", ".cmake/api/v1/**" };
 
     public CMakeConfigureTask() {
         setGroup("cmake");
         setDescription("Configure a Build with CMake");
+        projectPath = getProject().getPath();
+        rootDir = getProject().getRootDir();
         executable = getProject().getObjects().property(String.class);
         workingFolder = getProject().getObjects().directoryProperty();
         sourceFolder = getProject().getObjects().directoryProperty();
         configurationTypes = getProject().getObjects().property(String.class);
+        buildType = getProject().getObjects().property(String.class);
         installPrefix = getProject().getObjects().property(String.class);
         generator = getProject().getObjects().property(String.class);
         platform = getProject().getObjects().property(String.class);
         toolset = getProject().getObjects().property(String.class);
+        toolchainFile = getProject().getObjects().fileProperty();
         buildSharedLibs = getProject().getObjects().property(Boolean.class);
         buildStaticLibs = getProject().getObjects().property(Boolean.class);
         def = getProject().getObjects().mapProperty(String.class, String.class);
+        jobTokens = getProject().getObjects().property(CMakeJobTokenService.class);
+        metrics = getProject().getObjects().property(CMakeMetricsService.class);
+        profileConfigure = getProject().getObjects().property(Boolean.class);
+        shareInitialCache = getProject().getObjects().property(Boolean.class);
+        initialCacheFolder = getProject().getObjects().directoryProperty();
+        fetchContentCacheDir = getProject().getObjects().property(String.class);
+        fetchContentCacheSize = getProject().getObjects().property(String.class);
+        offline = getProject().getObjects().property(Boolean.class);
+        fetchContentCache = getProject().getObjects().property(CMakeFetchContentCache.class);
+        capabilities = getProject().getObjects().property(CMakeCapabilitiesService.class);
+        unitySettings = getProject().getObjects().fileProperty();
+        compilerLauncher = getProject().getObjects().property(String.class);
+        compilerCacheDir = getProject().getObjects().property(String.class);
+        compilerCacheSize = getProject().getObjects().property(String.class);
+        configureInputs = getProject().getObjects().fileTree().from(sourceFolder);
+        configureInputs.include(CONFIGURE_INPUT_PATTERNS);
+        toolchainInputs = getProject().getObjects().fileCollection().from(
+                toolchainFile.map(Collections::singletonList).orElse(Collections.emptyList()),
+                def.map(d -> d.containsKey("CMAKE_TOOLCHAIN_FILE") ? Collections.singletonList(d.get("CMAKE_TOOLCHAIN_FILE")) : Collections.emptyList()));
+        generatedFiles = getProject().getObjects().fileTree().from(workingFolder);
+        generatedFiles.include(GENERATED_FILE_PATTERNS);
 
         // default values
-        workingFolder.set(new File(getProject().getBuildDir(), "cmake"));
-        sourceFolder.set(new File(getProject().getBuildDir(), "src" + File.separator + "main" + File.separator + "cpp"));
+        workingFolder.set(getProject().getLayout().getBuildDirectory().dir("cmake"));
+        sourceFolder.set(getProject().getLayout().getBuildDirectory().dir("src/main/cpp"));
+        initialCacheFolder.convention(getProject().getRootProject().getLayout().getBuildDirectory().dir("cmake-initial-cache"));
+        Provider<CMakeJobTokenService> tokenService = CMakeJobTokenService.register(getProject());
+        jobTokens.set(tokenService);
+        usesService(tokenService);
+        Provider<CMakeMetricsService> metricsService = CMakeMetricsService.register(getProject());
+        metrics.set(metricsService);
+        usesService(metricsService);
+        offline.convention(getProject().getGradle().getStartParameter().isOffline());
+        Provider<CMakeFetchContentCache> fetchContentService = CMakeFetchContentCache.register(getProject());
+        fetchContentCache.set(fetchContentService);
+        usesService(fetchContentService);
+        Provider<CMakeCapabilitiesService> capabilitiesService = CMakeCapabilitiesService.register(getProject());
+        capabilities.set(capabilitiesService);
+        usesService(capabilitiesService);
+
+        // no input changes when another build evicts a dependency, but the build files still point to its sources
+        getOutputs().upToDateWhen(task -> hasFetchContentEntries());
     }
 
+    /**
+     * Copies the settings of the project's cmake extension. Must be called while configuring, not from a task action.
+     */
     public void configureFromProject() {
         CMakePluginExtension ext = (CMakePluginExtension)getProject().getExtensions().getByName("cmake");
         executable.set( ext.getExecutable() );
         workingFolder.set( ext.getWorkingFolder() );
         sourceFolder.set( ext.getSourceFolder() );
         configurationTypes.set( ext.getConfigurationTypes() );
+        buildType.set( ext.getBuildType() );
         installPrefix.set( ext.getInstallPrefix() );
         generator.set( ext.getGenerator() );
         platform.set( ext.getPlatform() );
         toolset.set( ext.getToolset() );
+        toolchainFile.set( ext.getToolchainFile() );
         buildSharedLibs.set( ext.getBuildSharedLibs() );
         buildStaticLibs.set( ext.getBuildStaticLibs() );
         def.set( ext.getDef() );
+        compilerLauncher.set( ext.getCompilerLauncher() );
+        compilerCacheDir.set( ext.getCompilerCacheDir() );
+        compilerCacheSize.set( ext.getCompilerCacheSize() );
+        profileConfigure.set( ext.getProfileConfigure() );
+        shareInitialCache.set( ext.getShareInitialCache() );
+        fetchContentCacheDir.set( ext.getFetchContentCacheDir() );
+        fetchContentCacheSize.set( ext.getFetchContentCacheSize() );
+        unitySettings.set( ext.getUnitySettingsFile() );
     }
 
     /// region getters
@@ -66,28 +164,54 @@ public class CMakeConfigureTask extends DefaultTask {
         return executable;
     }
 
-    @OutputDirectory
+    @Internal("the generated build system is tracked by getGeneratedFiles()")
     public DirectoryProperty getWorkingFolder() {
         return workingFolder;
     }
 
-    @InputDirectory
+    @Internal("only the configure relevant files are tracked by getConfigureInputs()")
     public DirectoryProperty getSourceFolder() {
         return sourceFolder;
     }
 
+    @InputFiles
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public FileCollection getConfigureInputs() {
+        return configureInputs;
+    }
+
+    @InputFiles
+    @PathSensitive(PathSensitivity.NAME_ONLY)
+    public FileCollection getToolchainInputs() {
+        return toolchainInputs;
+    }
+
+    @OutputFiles
+    public FileCollection getGeneratedFiles() {
+        return generatedFiles;
+    }
+
     @Input
     @Optional
     public Property<String> getConfigurationTypes() {
         return configurationTypes;
     }
 
+    @Input
+    @Optional
+    public Property<String> getBuildType() {
+        return buildType;
+    }
+
     @Input
     @Optional
     public Property<String> getInstallPrefix() {
         return installPrefix;
     }
 
+    /**
+     * The cmake generator, or {@code auto} for Ninja (Ninja Multi-Config with several configuration types) if ninja is installed.
+     */
     @Input
     @Optional
     public Property<String> getGenerator() {
@@ -106,6 +230,11 @@ public class CMakeConfigureTask extends DefaultTask {
         return toolset;
     }
 
+    @Internal("tracked by getToolchainInputs()")
+    public RegularFileProperty getToolchainFile() {
+        return toolchainFile;
+    }
+
     @Input
     @Optional
     public Property<Boolean> getBuildSharedLibs() {
@@ -123,16 +252,142 @@ public class CMakeConfigureTask extends DefaultTask {
     public MapProperty<String, String> getDef() {
         return def;
     }
+
+    @Input
+    @Optional
+    public Property<String> getCompilerLauncher() {
+        return compilerLauncher;
+    }
+
+    /**
+     * The compiler launcher {@code auto} or a tool name resolves to, so configure runs again when another one is found.
+     */
+    @Input
+    @Optional
+    public String getResolvedCompilerLauncher() {
+        return CMakeCompilerLauncher.resolve(compilerLauncher.getOrNull());
+    }
+
+    /**
+     * The Ninja generator {@code auto} stands for on this machine, empty if ninja is not found. Null without {@code auto}.
+     */
+    @Input
+    @Optional
+    public String getAutoGenerator() {
+        if ( !AUTO.equals(generator.getOrNull()) )
+            return null;
+        String ninja = autoGenerator(capabilities.get().get(executable.getOrNull()), configurationTypes.getOrNull(),
+                def.getOrElse(Collections.emptyMap()).get("CMAKE_MAKE_PROGRAM"));
+        return ninja != null ? ninja : "";
+    }
+
+    /**
+     * The compile and link job pools passed as CMAKE_JOB_POOLS, they change with cmake.maxJobs, cmake.compileJobMemoryMb,
+     * cmake.linkJobMemoryMb and the physical memory.
+     */
+    @Input
+    @Optional
+    public String getJobPools() {
+        return jobPools(selectGenerator());
+    }
+
+    @Internal("the compiler cache does not change the build result")
+    public Property<String> getCompilerCacheDir() {
+        return compilerCacheDir;
+    }
+
+    @Internal("the compiler cache does not change the build result")
+    public Property<String> getCompilerCacheSize() {
+        return compilerCacheSize;
+    }
+
+    @Internal("the job pools are tracked by getJobPools()")
+    public Property<CMakeJobTokenService> getJobTokens() {
+        return jobTokens;
+    }
+
+    @Internal
+    public Property<CMakeMetricsService> getMetrics() {
+        return metrics;
+    }
+
+    @Internal("profiling does not change the configure result")
+    public Property<Boolean> getProfileConfigure() {
+        return profileConfigure;
+    }
+
+    @Internal("the shared probe results are the same cmake would find")
+    public Property<Boolean> getShareInitialCache() {
+        return shareInitialCache;
+    }
+
+    /**
+     * Where the initial cache scripts shared by the projects are kept, one per toolchain. Default is build/cmake-initial-cache of the root project.
+     */
+    @Internal
+    public DirectoryProperty getInitialCacheFolder() {
+        return initialCacheFolder;
+    }
+
+    /**
+     * Folder of the FetchContent source cache shared by all projects (requires cmake 3.24), relative to the root project.
+     * Sources are not shared if not set.
+     */
+    @Input
+    @Optional
+    public Property<String> getFetchContentCacheDir() {
+        return fetchContentCacheDir;
+    }
+
+    @Internal("the cache size does not change the configure result")
+    public Property<String> getFetchContentCacheSize() {
+        return fetchContentCacheSize;
+    }
+
+    /**
+     * If true, FetchContent does not download or update dependencies (FETCHCONTENT_FULLY_DISCONNECTED). Default is gradle's --offline.
+     */
+    @Input
+    @Optional
+    public Property<Boolean> getOffline() {
+        return offline;
+    }
+
+    @Internal
+    public Property<CMakeFetchContentCache> getFetchContentCache() {
+        return fetchContentCache;
+    }
+
+    @Internal
+    public Property<CMakeCapabilitiesService> getCapabilities() {
+        return capabilities;
+    }
+
+    /**
+     * Unity build settings written by cmakeTuneUnity, one NAME=VALUE per line. Used if the file exists, def takes precedence.
+     */
+    @InputFiles
+    @Optional
+    @PathSensitive(PathSensitivity.NONE)
+    public RegularFileProperty getUnitySettings() {
+        return unitySettings;
+    }
     /// endregion
 
-    private List<String> buildCmdLine() {
+    private List<String> buildCmdLine(String selectedGenerator, File initialCache, File fetchContentProvider) {
         List<String> parameters = new ArrayList<>();
 
         parameters.add(executable.getOrElse("cmake"));
 
-        if ( generator.isPresent() && !generator.get().isEmpty() ) {
+        // probe results of other projects with the same toolchain, only used when the cache is created
+        if ( initialCache != null ) {
+            parameters.add("-C");
+            parameters.add(initialCache.getAbsolutePath());
+        }
+
+        if ( selectedGenerator != null ) {
             parameters.add("-G");
-            parameters.add(generator.get());
+            parameters.add(selectedGenerator);
         }
 
         if ( platform.isPresent() && !platform.get().isEmpty() ) {
@@ -145,9 +400,15 @@ public class CMakeConfigureTask extends DefaultTask {
             parameters.add(toolset.get());
         }
 
+        if ( toolchainFile.isPresent() )
+            parameters.add("-DCMAKE_TOOLCHAIN_FILE=" + toolchainFile.getAsFile().get().getAbsolutePath());
+
         if ( configurationTypes.isPresent() && !configurationTypes.get().isEmpty() )
             parameters.add("-DCMAKE_CONFIGURATION_TYPES="+ configurationTypes.get());
 
+        if ( buildType.isPresent() && !buildType.get().isEmpty() )
+            parameters.add("-DCMAKE_BUILD_TYPE="+ buildType.get());
+
         if ( installPrefix.isPresent() && !installPrefix.get().isEmpty() )
             parameters.add("-DCMAKE_INSTALL_PREFIX="+installPrefix.get() );
 
@@ -159,20 +420,293 @@ public class CMakeConfigureTask extends DefaultTask {
             parameters.add("-DBUILD_STATIC_LIBS=" + (buildStaticLibs.get().booleanValue() ? "ON" : "OFF") );
 
 
+        // compiler launcher (ccache, sccache) for all languages, unless set explicitly by def
+        String launcher = CMakeCompilerLauncher.resolve(compilerLauncher.getOrNull());
+        if ( launcher != null || CMakeCompilerLauncher.NONE.equals(compilerLauncher.getOrNull()) ) {
+            Map<String,String> defs = def.getOrElse(Collections.emptyMap());
+            for ( String lang : CMakeCompilerLauncher.LANGUAGES ) {
+                if ( !defs.containsKey("CMAKE_" + lang + "_COMPILER_LAUNCHER") )
+                    parameters.add("-DCMAKE_" + lang + "_COMPILER_LAUNCHER=" + (launcher != null ? launcher : ""));
+            }
+        }
+
+        // memory weighted compile and link job pools (only the Ninja generators have pools, others would warn about unused variables)
+        String pools = jobPools(selectedGenerator);
+        if ( pools != null ) {
+            parameters.add("-DCMAKE_JOB_POOLS=" + pools);
+            if ( pools.contains("compile=") )
+                parameters.add("-DCMAKE_JOB_POOL_COMPILE=compile");
+            parameters.add("-DCMAKE_JOB_POOL_LINK=link");
+        }
+
+        // FetchContent: sources from the shared cache, no downloads when gradle is offline. The cache keeps the value,
+        // so it is switched off again explicitly after an offline run
+        Map<String,String> defs = def.getOrElse(Collections.emptyMap());
+        if ( fetchContentProvider != null )
+            parameters.add("-DCMAKE_PROJECT_TOP_LEVEL_INCLUDES=" + fetchContentProvider.getAbsolutePath().replace('\\', '/'));
+        if ( !defs.containsKey("FETCHCONTENT_FULLY_DISCONNECTED") ) {
+            if ( offline.getOrElse(Boolean.FALSE) )
+                parameters.add("-DFETCHCONTENT_FULLY_DISCONNECTED=ON");
+            else if ( isFullyDisconnected() )
+                parameters.add("-DFETCHCONTENT_FULLY_DISCONNECTED=OFF");
+        }
+
+        for ( Map.Entry<String,String> entry : readUnitySettings().entrySet() ) {
+            if ( !defs.containsKey(entry.getKey()) )
+                parameters.add("-D" + entry.getKey() + "=" + entry.getValue());
+        }
+
         if ( def.isPresent() ) {
             for ( Map.Entry<String,String> entry : def.get().entrySet() )
                 parameters.add("-D"+entry.getKey()+"="+entry.getValue());
         }
 
+        // cmake >= 3.18: trace of the configure step, readable with chrome://tracing or perfetto
+        if ( profileConfigure.getOrElse(Boolean.FALSE) ) {
+            parameters.add("--profiling-output=" + getProfilingOutput().getAbsolutePath());
+            parameters.add("--profiling-format=google-trace");
+        }
+
         parameters.add( sourceFolder.getAsFile().get().getAbsolutePath() );
 
         return parameters;
     }
 
+    private Map<String,String> readUnitySettings() {
+        Map<String,String> settings = new TreeMap<>();
+        if ( !unitySettings.isPresent() || !unitySettings.getAsFile().get().isFile() )
+            return settings;
+        File file = unitySettings.getAsFile().get();
+        try {
+            for ( String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8) ) {
+                int eq = line.indexOf('=');
+                if ( !line.startsWith("#") && eq > 0 )
+                    settings.put(line.substring(0, eq).trim(), line.substring(eq + 1).trim());
+            }
+        }
+        catch ( IOException e ) {
+            throw new GradleException( "Could not read the unity settings " + file, e );
+        }
+        return settings;
+    }
+
+    private boolean isFullyDisconnected() {
+        return "ON".equals(readCacheEntry("FETCHCONTENT_FULLY_DISCONNECTED"));
+    }
+
+    /**
+     * @return the value of an entry of the existing CMakeCache.txt, or null
+     */
+    private String readCacheEntry(String name) {
+        File cache = new File(workingFolder.getAsFile().get(), "CMakeCache.txt");
+        try {
+            if ( !cache.isFile() )
+                return null;
+            for ( String line : Files.readAllLines(cache.toPath(), StandardCharsets.UTF_8) ) {
+                int eq = line.indexOf('=');
+                if ( line.startsWith(name + ":") && eq > 0 )
+                    return line.substring(eq + 1);
+            }
+        }
+        catch ( IOException e ) {
+            // treated as not configured
+        }
+        return null;
+    }
+
+    /**
+     * @return the CMAKE_JOB_POOLS passed to cmake, from cmake.maxJobs, the job memory settings and the physical memory.
+     * null if no pools are passed
+     */
+    private String jobPools(String selectedGenerator) {
+        if ( !jobTokens.isPresent() || def.getOrElse(Collections.emptyMap()).containsKey("CMAKE_JOB_POOLS") )
+            return null;
+        CMakeJobTokenService tokens = jobTokens.get();
+        boolean ninja = isNinja(selectedGenerator);
+        int compileJobs = ninja ? tokens.getCompileJobs() : 0;
+        int linkJobs = ninja || tokens.isLinkJobMemorySet() ? tokens.getLinkJobs() : 0;
+        if ( compileJobs > 0 && linkJobs > 0 )
+            return "compile=" + compileJobs + ";link=" + linkJobs;
+        return linkJobs > 0 ? "link=" + linkJobs : null;
+    }
+
+    /**
+     * The generator to pass with -G. {@code auto} selects Ninja, or Ninja Multi-Config for several configuration types,
+     * if ninja is found. A configured build folder keeps its generator.
+     * @return the generator, or null for cmake's default
+     */
+    private String selectGenerator() {
+        String selected = generator.getOrElse("");
+        if ( !AUTO.equals(selected) )
+            return selected.isEmpty() ? null : selected;
+        String cached = readCacheEntry("CMAKE_GENERATOR");
+        if ( cached != null )
+            return cached;
+        if ( (platform.isPresent() && !platform.get().isEmpty()) || (toolset.isPresent() && !toolset.get().isEmpty()) ) {
+            getLogger().info("  CMakePlugin.task " + getName() + " - using cmake's default generator, Ninja supports no platform or toolset");
+            return null;
+        }
+        String ninja = autoGenerator(capabilities.get().get(executable.getOrNull()), configurationTypes.getOrNull(),
+                def.getOrElse(Collections.emptyMap()).get("CMAKE_MAKE_PROGRAM"));
+        if ( ninja == null )
+            getLogger().info("  CMakePlugin.task " + getName() + " - using cmake's default generator, ninja was not found");
+        return ninja;
+    }
+
+    /**
+     * @param configurationTypes CMAKE_CONFIGURATION_TYPES, several types select Ninja Multi-Config
+     * @param makeProgram CMAKE_MAKE_PROGRAM if set
+     * @return the Ninja generator {@code auto} stands for, or null if ninja is not found
+     */
+    static String autoGenerator(CMakeCapabilities caps, String configurationTypes, String makeProgram) {
+        if ( !hasNinja(makeProgram) )
+            return null;
+        boolean multiConfig = configurationTypes != null && configurationTypes.split(";").length > 1;
+        // Ninja Multi-Config exists since cmake 3.17
+        if ( multiConfig && caps.hasGenerator("Ninja Multi-Config") )
+            return "Ninja Multi-Config";
+        return caps.hasGenerator("Ninja") ? "Ninja" : null;
+    }
+
+    private static boolean hasNinja(String makeProgram) {
+        if ( makeProgram != null )
+            return new File(makeProgram).getName().startsWith("ninja");
+        // the names cmake looks for
+        return CMakeCompilerLauncher.findOnPath("ninja") != null || CMakeCompilerLauncher.findOnPath("ninja-build") != null;
+    }
+
+    // the generator the build folder ends up with, if it can be known before configuring
+    private boolean isNinja(String selectedGenerator) {
+        String effective = selectedGenerator;
+        if ( effective == null )
+            effective = readCacheEntry("CMAKE_GENERATOR");
+        if ( effective == null )
+            effective = System.getenv("CMAKE_GENERATOR");
+        return effective != null && effective.startsWith("Ninja");
+    }
+
+    /**
+     * @return false if a shared FetchContent cache entry used by the last configure was evicted since, by this or another build
+     */
+    private boolean hasFetchContentEntries() {
+        if ( !fetchContentCacheDir.isPresent() || fetchContentCacheDir.get().isEmpty() )
+            return true;
+        try {
+            List<String> missing = CMakeFetchContentCache.missingEntries(workingFolder.getAsFile().get());
+            if ( !missing.isEmpty() )
+                getLogger().info("  CMakePlugin.task " + getName() + " - evicted FetchContent cache entries " + missing + ", configuring again");
+            return missing.isEmpty();
+        }
+        catch ( IOException e ) {
+            getLogger().info("  CMakePlugin.task " + getName() + " - could not read the FetchContent cache entries: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Writes the dependency provider script of the shared FetchContent cache.
+     * @return the script, or null if the cache is not used
+     */
+    private File getFetchContentProvider(File buildFolder) {
+        if ( !fetchContentCacheDir.isPresent() || fetchContentCacheDir.get().isEmpty() )
+            return null;
+        if ( def.getOrElse(Collections.emptyMap()).containsKey("CMAKE_PROJECT_TOP_LEVEL_INCLUDES") ) {
+            getLogger().info("  CMakePlugin.task " + getName() + " - not using the shared FetchContent cache, CMAKE_PROJECT_TOP_LEVEL_INCLUDES is set by def");
+            return null;
+        }
+        // dependency providers exist since cmake 3.24
+        if ( !capabilities.get().get(executable.getOrNull()).isAtLeast(3, 24) ) {
+            getLogger().info("  CMakePlugin.task " + getName() + " - not using the shared FetchContent cache, requires cmake 3.24");
+            return null;
+        }
+        // relative to the root project, like the gradle.properties it is usually set in
+        File cacheFolder = rootDir.toPath().resolve(fetchContentCacheDir.get()).toFile();
+        try {
+            return fetchContentCache.get().writeProviderScript(buildFolder, cacheFolder, fetchContentCacheSize.getOrNull());
+        }
+        catch ( IOException e ) {
+            throw new GradleException( "Could not set up the FetchContent cache in " + cacheFolder, e );
+        }
+    }
+
+    private File getProfilingOutput() {
+        return new File(workingFolder.getAsFile().get(), "cmake-configure-trace.json");
+    }
+
+    /**
+     * The shared initial cache script for the toolchain of this task.
+     */
+    private File getInitialCacheScript(String selectedGenerator) {
+        List<String> settings = new ArrayList<>();
+        settings.add(executable.getOrElse("cmake"));
+        settings.add(selectedGenerator != null ? selectedGenerator : "");
+        settings.add(platform.getOrElse(""));
+        settings.add(toolset.getOrElse(""));
+        settings.add(buildType.getOrElse(""));
+        settings.add(configurationTypes.getOrElse(""));
+        Map<String,String> defs = new TreeMap<>(def.getOrElse(Collections.emptyMap()));
+        for ( Map.Entry<String,String> entry : defs.entrySet() ) {
+            // compilers, flags and other settings of cmake itself change the probe results. project options don't
+            if ( entry.getKey().startsWith("CMAKE_") )
+                settings.add(entry.getKey() + "=" + entry.getValue());
+        }
+        File toolchain = toolchainFile.isPresent() ? toolchainFile.getAsFile().get()
+                : defs.containsKey("CMAKE_TOOLCHAIN_FILE") ? new File(defs.get("CMAKE_TOOLCHAIN_FILE")) : null;
+        try {
+            return CMakeInitialCache.scriptFile(initialCacheFolder.getAsFile().get(), settings, toolchain);
+        }
+        catch ( IOException e ) {
+            throw new GradleException( "Could not read the toolchain file " + toolchain, e );
+        }
+    }
+
+    @Inject
+    protected abstract WorkerExecutor getWorkerExecutor();
+
     @TaskAction
     public void configure() {
-        CMakeExecutor executor = new CMakeExecutor(getLogger(), getName());
-        executor.exec(buildCmdLine(), workingFolder.getAsFile().get());
+        File buildFolder = workingFolder.getAsFile().get();
+        try {
+            // ask cmake to describe the configured project through the File API
+            CMakeFileApi.writeQuery(buildFolder);
+        }
+        catch ( IOException e ) {
+            throw new GradleException( "Could not write the cmake File API query in " + buildFolder, e );
+        }
+
+        String selectedGenerator = selectGenerator();
+        if ( AUTO.equals(generator.getOrNull()) )
+            getLogger().info("  CMakePlugin.task " + getName() + " - generator " + (selectedGenerator != null ? selectedGenerator : "cmake's default"));
+
+        File initialCacheScript = null;
+        boolean seed = false;
+        if ( shareInitialCache.getOrElse(Boolean.FALSE) ) {
+            initialCacheScript = getInitialCacheScript(selectedGenerator);
+            // -C only matters when the cache is created
+            seed = !new File(buildFolder, "CMakeCache.txt").isFile() && CMakeInitialCache.isUsable(initialCacheScript, getLogger());
+            if ( seed )
+                getLogger().info("  CMakePlugin.task " + getName() + " - seeding the cache with " + initialCacheScript);
+        }
+        File recordTo = initialCacheScript;
+        List<String> cmdLine = buildCmdLine(selectedGenerator, seed ? initialCacheScript : null, getFetchContentProvider(buildFolder));
+
+        getWorkerExecutor().noIsolation().submit(CMakeExecWork.class, params -> {
+            params.getTaskName().set(getName());
+            params.getProjectPath().set(projectPath);
+            params.getPhase().set("configure");
+            params.getMetrics().set(metrics);
+            params.getCommandLine().set(cmdLine);
+            params.getWorkingFolder().set(workingFolder);
+            params.getReadCodeModel().set(Boolean.TRUE);
+            if ( recordTo != null )
+                params.getInitialCacheScript().set(recordTo);
+            if ( profileConfigure.getOrElse(Boolean.FALSE) )
+                params.getProfilingOutput().set(getProfilingOutput());
+            // compiler checks during configure already go through the launcher
+            String launcher = CMakeCompilerLauncher.resolve(compilerLauncher.getOrNull());
+            if ( launcher != null )
+                params.getEnvironment().set(CMakeCompilerLauncher.environment(launcher, compilerCacheDir.getOrNull(), compilerCacheSize.getOrNull(), null));
+        });
     }
 
 }
@@ -0,0 +1,177 @@
+package net.freudasoft;
+
+import org.gradle.api.Project;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Deletes large folders in parallel and in the background.
+ *
+ * A folder is first renamed to a tombstone next to it, which is immediate, so the original path is free again right away.
+ * The tombstone is then deleted by a fork/join pool while the build goes on. The service waits for the
+ * deletions to finish when it is closed at the end of the build. Tombstones left behind by an interrupted build
+ * are removed by the next clean.
+ */
+public abstract class CMakeDeleteService implements BuildService<BuildServiceParameters.None>, AutoCloseable {
+    public static final String NAME = "cmakeDelete";
+    static final String TOMBSTONE = ".deleting-";
+
+    private static final Logger logger = Logging.getLogger(CMakeDeleteService.class);
+
+    // deleting is bound by file system latency rather than cpu, so use more threads than cores
+    private final ForkJoinPool pool = new ForkJoinPool(Math.max(4, 2 * Runtime.getRuntime().availableProcessors()));
+    private final List<DeleteTree> pending = new ArrayList<>();
+
+    static Provider<CMakeDeleteService> register(Project project) {
+        return project.getGradle().getSharedServices().registerIfAbsent(NAME, CMakeDeleteService.class, spec -> {});
+    }
+
+    /**
+     * Moves the folder out of the way and deletes it in the background, together with stale tombstones of earlier runs.
+     * If the folder can't be renamed (for example, because a file is open on Windows), it is deleted in place before returning.
+     */
+    public void delete(File folder) throws IOException {
+        Path path = folder.toPath().toAbsolutePath();
+        deleteStaleTombstones(path);
+        if ( !Files.exists(path, LinkOption.NOFOLLOW_LINKS) )
+            return;
+
+        Path tombstone = path.resolveSibling(path.getFileName() + TOMBSTONE + System.nanoTime());
+        try {
+            Files.move(path, tombstone, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch ( IOException e ) {
+            logger.info("Could not rename " + path + " (" + e.getMessage() + "), deleting it in place");
+            deleteNow(path);
+            return;
+        }
+        deleteInBackground(tombstone);
+    }
+
+    /**
+     * Deletes the folder in parallel and returns when it is gone.
+     */
+    public void deleteNow(File folder) throws IOException {
+        deleteNow(folder.toPath().toAbsolutePath());
+    }
+
+    private void deleteNow(Path path) throws IOException {
+        try {
+            pool.invoke(new DeleteTree(path));
+        }
+        catch ( RuntimeException e ) {
+            throw new IOException("Could not delete " + path + ": " + e.getMessage(), e);
+        }
+    }
+
+    private void deleteStaleTombstones(Path path) throws IOException {
+        Path parent = path.getParent();
+        if ( parent == null || !Files.isDirectory(parent) )
+            return;
+        String prefix = path.getFileName() + TOMBSTONE;
+        try ( DirectoryStream<Path> siblings = Files.newDirectoryStream(parent, p -> p.getFileName().toString().startsWith(prefix)) ) {
+            for ( Path stale : siblings )
+                deleteInBackground(stale);
+        }
+    }
+
+    private void deleteInBackground(Path path) {
+        synchronized ( pending ) {
+            if ( pending.stream().anyMatch(task -> task.root.equals(path)) )
+                return;
+            DeleteTree task = new DeleteTree(path);
+            pool.execute(task);
+            pending.add(task);
+        }
+    }
+
+    @Override
+    public void close() {
+        List<DeleteTree> tasks;
+        synchronized ( pending ) {
+            tasks = new ArrayList<>(pending);
+            pending.clear();
+        }
+        for ( DeleteTree task : tasks ) {
+            try {
+                task.join();
+            }
+            catch ( RuntimeException e ) {
+                logger.warn("Could not delete " + task.root + ": " + e.getMessage());
+            }
+        }
+        pool.shutdown();
+    }
+
+    /**
+     * Deletes the files of a folder, forks a task per sub folder and deletes the folder when they are done.
+     */
+    private static class DeleteTree extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final Path root;
+
+        DeleteTree(Path root) {
+            this.root = root;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                if ( !Files.isDirectory(root, LinkOption.NOFOLLOW_LINKS) ) {
+                    deleteFile(root);
+                    return;
+                }
+                List<DeleteTree> subFolders = new ArrayList<>();
+                try ( DirectoryStream<Path> entries = Files.newDirectoryStream(root) ) {
+                    for ( Path entry : entries ) {
+                        // symbolic links are deleted, never followed
+                        if ( Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS) )
+                            subFolders.add(new DeleteTree(entry));
+                        else
+                            deleteFile(entry);
+                    }
+                }
+                invokeAll(subFolders);
+                deleteFile(root);
+            }
+            catch ( NoSuchFileException e ) {
+                // already gone
+            }
+            catch ( IOException e ) {
+                // compute() can't throw checked exceptions
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private static void deleteFile(Path path) throws IOException {
+            try {
+                Files.deleteIfExists(path);
+            }
+            catch ( AccessDeniedException e ) {
+                // read-only files can't be deleted on Windows
+                if ( !path.toFile().setWritable(true) )
+                    throw e;
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package net.freudasoft;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compiler diagnostics found in the output of a cmake invocation, in the formats of GCC, Clang and MSVC.
+ *
+ * A diagnostic is logged the first time it is seen. Repeats of it, for example a warning in a header that is
+ * included by many translation units, are counted but not logged again, together with their source excerpt and
+ * the include chain printed before them. At the end, the diagnostics are summarized grouped by file and warning id.
+ */
+class CMakeDiagnostics {
+    private static final int LOCATIONS_PER_GROUP = 20;
+    private static final int SUMMARY_GROUPS = 5;
+
+    // file:line:column: warning: message [-Wid]
+    private static final Pattern GCC = Pattern.compile("(.+?):(\\d+):(?:(\\d+):)? (warning|error|fatal error|note): (.*?)(?: \\[(-W[^\\]]+)\\])?");
+    // file(line,column): warning C4996: message
+    private static final Pattern MSVC = Pattern.compile("\\s*(.+?)\\((\\d+)(?:,(\\d+))?\\)\\s?: (warning|error|fatal error) ([A-Z]+\\d+): (.*)");
+    // lines GCC and Clang print before a diagnostic to say where it comes from
+    private static final Pattern CONTEXT = Pattern.compile("In file included from .*|\\s+from .*[,:]|.*: (In (member |static member |lambda )?function|In constructor|In destructor|In instantiation of|In substitution of|At global scope|required from|required by).*");
+
+    static class Diagnostic {
+        final String file;
+        final int line;
+        final int column;
+        final String severity; // "warning", "error" or "note"
+        final String id;       // -Wunused-variable or C4996, null if the compiler did not print one
+        final String message;
+
+        Diagnostic(String file, int line, int column, String severity, String id, String message) {
+            this.file = file;
+            this.line = line;
+            this.column = column;
+            this.severity = severity.equals("fatal error") ? "error" : severity;
+            this.id = id;
+            this.message = message;
+        }
+
+        String key() {
+            return file + ":" + line + ":" + column + ":" + severity + ":" + id + ":" + message;
+        }
+
+        String group() {
+            return id != null ? id : severity + ": " + message;
+        }
+    }
+
+    private static class Group {
+        final String file;
+        final String name;
+        final String severity;
+        final List<Diagnostic> locations = new ArrayList<>();
+        int count;
+        int unique;
+
+        Group(String file, String name, String severity) {
+            this.file = file;
+            this.name = name;
+            this.severity = severity;
+        }
+    }
+
+    private final Set<String> seen = new HashSet<>();
+    // diagnostic lines already parsed, a repeated line is recognized without the regular expressions
+    private final Map<String, Diagnostic> parsed = new HashMap<>();
+    private final Map<String, Group> groups = new LinkedHashMap<>();
+    private int warnings;
+    private int errors;
+    private int repeated;
+
+    static Diagnostic parse(String line) {
+        // most lines are no diagnostics, skip the regular expressions for them
+        if ( line.indexOf("warning") < 0 && line.indexOf("error") < 0 && line.indexOf("note:") < 0 )
+            return null;
+        Matcher m = GCC.matcher(line);
+        if ( m.matches() )
+            return new Diagnostic(m.group(1), Integer.parseInt(m.group(2)), m.group(3) != null ? Integer.parseInt(m.group(3)) : 0, m.group(4), m.group(6), m.group(5));
+        m = MSVC.matcher(line);
+        if ( m.matches() )
+            return new Diagnostic(m.group(1), Integer.parseInt(m.group(2)), m.group(3) != null ? Integer.parseInt(m.group(3)) : 0, m.group(4), m.group(5), m.group(6));
+        return null;
+    }
+
+    private synchronized Diagnostic parseCached(String line) {
+        Diagnostic diagnostic = parsed.get(line);
+        if ( diagnostic == null ) {
+            diagnostic = parse(line);
+            if ( diagnostic != null )
+                parsed.put(line, diagnostic);
+        }
+        return diagnostic;
+    }
+
+    private static boolean isContext(String line) {
+        if ( line.startsWith("In file included from ") )
+            return true;
+        // cheap checks first, most lines are not context
+        if ( !(line.contains(": In ") || line.contains(": At global scope") || line.contains("required ") || line.trim().startsWith("from ")) )
+            return false;
+        return CONTEXT.matcher(line).matches();
+    }
+
+    /**
+     * @return true if the diagnostic is seen for the first time
+     */
+    synchronized boolean record(Diagnostic diagnostic) {
+        if ( diagnostic.severity.equals("note") )
+            return true;
+        if ( diagnostic.severity.equals("error") )
+            errors++;
+        else
+            warnings++;
+        Group group = groups.computeIfAbsent(diagnostic.file + "|" + diagnostic.group(), k -> new Group(diagnostic.file, diagnostic.group(), diagnostic.severity));
+        group.count++;
+        if ( !seen.add(diagnostic.key()) ) {
+            repeated++;
+            return false;
+        }
+        group.unique++;
+        if ( group.locations.size() < LOCATIONS_PER_GROUP )
+            group.locations.add(diagnostic);
+        return true;
+    }
+
+    synchronized boolean isEmpty() {
+        return warnings == 0 && errors == 0;
+    }
+
+    /**
+     * A filter for the lines of one output stream, passing on everything but repeated diagnostics. Not thread safe.
+     */
+    Filter filter(Consumer<String> out) {
+        return new Filter(out);
+    }
+
+    class Filter {
+        private final Consumer<String> out;
+        private final List<String> context = new ArrayList<>();
+        private boolean suppressing;
+
+        private Filter(Consumer<String> out) {
+            this.out = out;
+        }
+
+        void accept(String line) {
+            if ( isContext(line) ) {
+                // held back until it is known whether the diagnostic it belongs to is a repeat
+                context.add(line);
+                suppressing = false;
+                return;
+            }
+            Diagnostic diagnostic = parseCached(line);
+            if ( diagnostic != null ) {
+                // notes belong to the diagnostic before them
+                boolean show = diagnostic.severity.equals("note") ? !suppressing : record(diagnostic);
+                if ( show ) {
+                    flushContext();
+                    out.accept(line);
+                }
+                context.clear();
+                suppressing = !show;
+                return;
+            }
+            // source excerpt and caret of a repeated diagnostic
+            if ( suppressing && !line.isEmpty() && Character.isWhitespace(line.charAt(0)) )
+                return;
+            suppressing = false;
+            flushContext();
+            out.accept(line);
+        }
+
+        void close() {
+            flushContext();
+        }
+
+        private void flushContext() {
+            for ( String line : context )
+                out.accept(line);
+            context.clear();
+        }
+    }
+
+    synchronized String summary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("diagnostics: ").append(warnings).append(" warning(s), ").append(errors).append(" error(s) in ")
+                .append(countFiles()).append(" file(s)");
+        if ( repeated > 0 )
+            sb.append(", ").append(repeated).append(" repeat(s) not shown");
+        for ( Group group : sortedGroups().subList(0, Math.min(SUMMARY_GROUPS, groups.size())) )
+            sb.append(System.lineSeparator()).append("    ").append(group.file).append(" ").append(group.name).append(": ").append(group.count);
+        return sb.toString();
+    }
+
+    synchronized void writeReport(File report) throws IOException {
+        Map<String, List<Group>> byFile = new LinkedHashMap<>();
+        for ( Group group : sortedGroups() )
+            byFile.computeIfAbsent(group.file, k -> new ArrayList<>()).add(group);
+
+        Files.createDirectories(report.getParentFile().toPath());
+        try ( CMakeJsonWriter json = new CMakeJsonWriter(new OutputStreamWriter(Files.newOutputStream(report.toPath()), StandardCharsets.UTF_8)) ) {
+            json.beginObject();
+            json.name("warnings").value(warnings);
+            json.name("errors").value(errors);
+            json.name("repeated").value(repeated);
+            json.name("files").beginArray();
+            for ( Map.Entry<String, List<Group>> file : byFile.entrySet() ) {
+                json.beginObject();
+                json.name("file").value(file.getKey());
+                json.name("groups").beginArray();
+                for ( Group group : file.getValue() ) {
+                    json.beginObject();
+                    json.name("id").value(group.name);
+                    json.name("severity").value(group.severity);
+                    json.name("count").value(group.count);
+                    json.name("unique").value(group.unique);
+                    json.name("locations").beginArray();
+                    for ( Diagnostic diagnostic : group.locations ) {
+                        json.beginObject();
+                        json.name("line").value(diagnostic.line);
+                        json.name("column").value(diagnostic.column);
+                        json.name("message").value(diagnostic.message);
+                        json.endObject();
+                    }
+                    json.endArray();
+                    json.endObject();
+                }
+                json.endArray();
+                json.endObject();
+            }
+            json.endArray();
+            json.endObject();
+        }
+    }
+
+    private int countFiles() {
+        Set<String> files = new HashSet<>();
+        for ( Group group : groups.values() )
+            files.add(group.file);
+        return files.size();
+    }
+
+    // errors first, then the most frequent
+    private List<Group> sortedGroups() {
+        List<Group> sorted = new ArrayList<>(groups.values());
+        sorted.sort(Comparator.comparing((Group g) -> !g.severity.equals("error")).thenComparing(Comparator.comparingInt((Group g) -> g.count).reversed()));
+        return sorted;
+    }
+}
@@ -0,0 +1,230 @@
+package net.freudasoft;
+
+import org.gradle.api.GradleException;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.MapProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs one cmake invocation as a gradle work item (no isolation), so gradle can schedule it
+ * together with other work while the submitting task has already returned.
+ */
+public abstract class CMakeExecWork implements WorkAction<CMakeExecWork.Parameters> {
+    /**
+     * Placeholder in the command line for the number of jobs granted by the job token pool.
+     */
+    static final String JOBS = "{jobs}";
+
+    public interface Parameters extends WorkParameters {
+        Property<String> getTaskName();
+        ListProperty<String> getCommandLine();
+        DirectoryProperty getWorkingFolder();
+        // number of jobs wanted, only used if the command line contains the JOBS placeholder
+        Property<Integer> getJobs();
+        Property<CMakeJobTokenService> getJobTokens();
+        // log a summary of the File API reply after the run (used by configure)
+        Property<Boolean> getReadCodeModel();
+        MapProperty<String, String> getEnvironment();
+        Property<String> getProjectPath();
+        Property<String> getPhase();
+        Property<CMakeMetricsService> getMetrics();
+        RegularFileProperty getProfilingOutput();
+        // resolved compiler launcher (ccache, sccache). If set together with the stats log, cache statistics are reported after the run
+        Property<String> getCompilerLauncher();
+        RegularFileProperty getCompilerStatsLog();
+        // if set and the build folder uses ninja, the new entries of the .ninja_log are analysed into this report
+        RegularFileProperty getNinjaReport();
+        // if set, the JUnit file written by ctest is converted into the test report, also when tests failed
+        RegularFileProperty getJUnitOutput();
+        RegularFileProperty getTestReport();
+        // if set, the compiler diagnostics are summarized into this file, also when the build failed
+        RegularFileProperty getDiagnosticsReport();
+        // if set, the probe results of the configured cache are merged into this shared initial cache script
+        RegularFileProperty getInitialCacheScript();
+        // if set, the files of the build are recorded into this snapshot after a successful run
+        RegularFileProperty getBuildSnapshot();
+        Property<String> getBuildSnapshotKey();
+        Property<String> getBuildSnapshotTarget();
+    }
+
+    private static final Logger logger = Logging.getLogger(CMakeExecWork.class);
+
+    @Override
+    public void execute() {
+        Parameters params = getParameters();
+        String taskName = params.getTaskName().get();
+        File workingFolder = params.getWorkingFolder().getAsFile().get();
+        List<String> cmdLine = params.getCommandLine().get();
+        Map<String, String> env = params.getEnvironment().getOrElse(Collections.emptyMap());
+        CMakeExecutor executor = new CMakeExecutor(logger, taskName);
+        CMakeDiagnostics diagnostics = new CMakeDiagnostics();
+        executor.setDiagnostics(diagnostics);
+        executor.setMetricsSink(metrics -> {
+            metrics.projectPath = params.getProjectPath().getOrNull();
+            metrics.phase = params.getPhase().getOrElse("exec");
+            if ( params.getProfilingOutput().isPresent() )
+                metrics.profilingOutput = params.getProfilingOutput().getAsFile().get().getAbsolutePath();
+            logger.info("  CMakePlugin.task " + taskName + " - " + metrics.summary());
+            if ( params.getMetrics().isPresent() )
+                params.getMetrics().get().record(metrics);
+        });
+
+        String launcher = params.getCompilerLauncher().getOrNull();
+        File statsLog = params.getCompilerStatsLog().isPresent() ? params.getCompilerStatsLog().getAsFile().get() : null;
+        CMakeCompilerLauncher.Stats statsBefore = null;
+        if ( launcher != null && statsLog != null ) {
+            statsLog.delete();
+            statsLog.getParentFile().mkdirs();
+            if ( CMakeCompilerLauncher.isSccache(launcher) )
+                statsBefore = CMakeCompilerLauncher.readStats(launcher, env, statsLog, logger);
+        }
+
+        CMakeNinjaLog.Mark ninjaLogMark = CMakeNinjaLog.mark(workingFolder);
+        long buildStart = System.currentTimeMillis();
+        int jobs = params.getJobs().getOrElse(1);
+        if ( params.getJUnitOutput().isPresent() )
+            params.getJUnitOutput().getAsFile().get().delete();
+        try {
+            if ( cmdLine.stream().noneMatch(s -> s.contains(JOBS)) ) {
+                executor.exec(cmdLine, workingFolder, env);
+            }
+            else if ( !params.getJobTokens().isPresent() ) {
+                executor.exec(withJobs(cmdLine, jobs), workingFolder, env);
+            }
+            else {
+                // draw the job count from the build wide token pool, so parallel native builds don't oversubscribe the machine
+                CMakeJobTokenService tokens = params.getJobTokens().get();
+                int granted;
+                try {
+                    granted = tokens.acquire(jobs);
+                }
+                catch ( InterruptedException e ) {
+                    Thread.currentThread().interrupt();
+                    throw new GradleException( "Interrupted while waiting for a cmake job token.", e );
+                }
+                jobs = granted;
+                try {
+                    logger.info("  CMakePlugin.task " + taskName + " - running with " + granted + " job(s)");
+                    executor.exec(withJobs(cmdLine, granted), workingFolder, env);
+                }
+                finally {
+                    tokens.release(granted);
+                }
+            }
+        }
+        finally {
+            if ( params.getDiagnosticsReport().isPresent() )
+                reportDiagnostics(taskName, diagnostics, params.getDiagnosticsReport().getAsFile().get());
+            if ( params.getJUnitOutput().isPresent() && params.getTestReport().isPresent() )
+                reportTests(taskName, params.getJUnitOutput().getAsFile().get(), params.getTestReport().getAsFile().get());
+        }
+
+        if ( launcher != null && statsLog != null ) {
+            CMakeCompilerLauncher.Stats statsAfter = CMakeCompilerLauncher.readStats(launcher, env, statsLog, logger);
+            if ( statsAfter != null )
+                logger.lifecycle("  CMakePlugin.task " + taskName + " - " + CMakeCompilerLauncher.format(launcher, statsBefore, statsAfter));
+        }
+
+        if ( params.getInitialCacheScript().isPresent() ) {
+            File script = params.getInitialCacheScript().getAsFile().get();
+            try {
+                CMakeInitialCache.record(workingFolder, script);
+            }
+            catch ( IOException e ) {
+                logger.warn("  CMakePlugin.task " + taskName + " - could not update the shared initial cache " + script + ": " + e.getMessage());
+            }
+        }
+
+        if ( params.getBuildSnapshot().isPresent() ) {
+            File snapshot = params.getBuildSnapshot().getAsFile().get();
+            try {
+                long start = System.nanoTime();
+                if ( CMakeBuildSnapshot.record(workingFolder, snapshot, params.getBuildSnapshotKey().get(), params.getBuildSnapshotTarget().getOrNull(), buildStart) )
+                    logger.info("  CMakePlugin.task " + taskName + " - build snapshot recorded in " + (System.nanoTime() - start) / 1000000L + " ms");
+                else
+                    logger.info("  CMakePlugin.task " + taskName + " - no build snapshot, the build runs commands every time, its generator is not supported or a source changed while it ran");
+            }
+            catch ( IOException e ) {
+                logger.warn("  CMakePlugin.task " + taskName + " - could not record the build snapshot " + snapshot + ": " + e.getMessage());
+            }
+        }
+
+        if ( params.getNinjaReport().isPresent() )
+            reportNinjaLog(taskName, workingFolder, ninjaLogMark, jobs, params.getNinjaReport().getAsFile().get());
+
+        if ( params.getReadCodeModel().getOrElse(Boolean.FALSE) )
+            logCodeModel(taskName, workingFolder);
+    }
+
+    private static List<String> withJobs(List<String> cmdLine, int jobs) {
+        List<String> result = new ArrayList<>(cmdLine.size());
+        for ( String s : cmdLine )
+            result.add(s.replace(JOBS, String.valueOf(jobs)));
+        return result;
+    }
+
+    private static void reportNinjaLog(String taskName, File workingFolder, CMakeNinjaLog.Mark before, int jobs, File report) {
+        try {
+            List<CMakeNinjaLog.Edge> edges = CMakeNinjaLog.readNewEdges(workingFolder, before);
+            if ( edges.isEmpty() )
+                return;
+            logger.lifecycle("  CMakePlugin.task " + taskName + " - " + CMakeNinjaLog.writeReport(edges, jobs, report));
+            logger.info("  CMakePlugin.task " + taskName + " - ninja profile written to " + report);
+        }
+        catch ( IOException e ) {
+            logger.warn("  CMakePlugin.task " + taskName + " - could not analyse " + CMakeNinjaLog.LOG_FILE + ": " + e.getMessage());
+        }
+    }
+
+    private static void reportDiagnostics(String taskName, CMakeDiagnostics diagnostics, File report) {
+        try {
+            diagnostics.writeReport(report);
+            if ( !diagnostics.isEmpty() ) {
+                logger.lifecycle("  CMakePlugin.task " + taskName + " - " + diagnostics.summary());
+                logger.info("  CMakePlugin.task " + taskName + " - diagnostics written to " + report);
+            }
+        }
+        catch ( IOException e ) {
+            logger.warn("  CMakePlugin.task " + taskName + " - could not write the diagnostics report " + report + ": " + e.getMessage());
+        }
+    }
+
+    private static void reportTests(String taskName, File junitOutput, File report) {
+        if ( !junitOutput.isFile() )
+            return;
+        try {
+            CMakeJUnitReport.Summary summary = CMakeJUnitReport.convert(junitOutput, report, taskName);
+            logger.lifecycle("  CMakePlugin.task " + taskName + " - " + summary);
+            logger.info("  CMakePlugin.task " + taskName + " - test report written to " + report);
+        }
+        catch ( IOException e ) {
+            logger.warn("  CMakePlugin.task " + taskName + " - could not convert " + junitOutput + ": " + e.getMessage());
+        }
+    }
+
+    private static void logCodeModel(String taskName, File workingFolder) {
+        try {
+            CMakeCodeModel model = CMakeFileApi.readCodeModel(workingFolder);
+            if ( model == null )
+                logger.info("  CMakePlugin.task " + taskName + " - no File API reply (requires cmake 3.14)");
+            else for ( String config : model.getConfigurations() )
+                logger.info("  CMakePlugin.task " + taskName + " - configuration '" + config + "': " + model.getTargets(config).size() + " target(s)");
+        }
+        catch ( IOException e ) {
+            logger.warn("  CMakePlugin.task " + taskName + " - could not read the File API reply: " + e.getMessage());
+        }
+    }
+}
@@ -4,22 +4,60 @@ import org.gradle.api.GradleException;
 import org.gradle.api.GradleScriptException;
 import org.gradle.api.logging.Logger;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class CMakeExecutor {
+    private static final int TAIL_LINES = 50;
+    // "-- Configuring done (1.2s)" and "-- Generating done (0.3s)", the durations are printed since cmake 3.25
+    private static final Pattern PHASE_DONE = Pattern.compile("-- (Configuring|Generating) done(?: \\(([0-9.]+)s\\))?.*");
+
+    // running child processes, so they can be killed when the build fails or the JVM goes down
+    private static final Set<Process> running = ConcurrentHashMap.newKeySet();
+    private static final Set<Process> destroyed = ConcurrentHashMap.newKeySet();
+
+    // added while processes may run, removed by CMakeCancellationService when the build ends. A hook left in the daemon
+    // would keep the plugin's class loader alive
+    private static Thread reaper;
+
     private Logger logger;
     private String taskName;
+    private Consumer<CMakeInvocationMetrics> metricsSink;
+    private CMakeDiagnostics diagnostics;
 
     CMakeExecutor( Logger logger, String taskName ) {
         this.logger = logger;
         this.taskName = taskName;
     }
 
+    /**
+     * @param metricsSink receives the timing and resource usage of every invocation, also of failed ones
+     */
+    void setMetricsSink(Consumer<CMakeInvocationMetrics> metricsSink) {
+        this.metricsSink = metricsSink;
+    }
+
+    /**
+     * @param diagnostics collects the compiler diagnostics of the output. Repeated diagnostics are not logged in any case
+     */
+    void setDiagnostics(CMakeDiagnostics diagnostics) {
+        this.diagnostics = diagnostics;
+    }
+
     protected void exec(List<String> cmdLine, File workingFolder) throws GradleException {
+        exec(cmdLine, workingFolder, Collections.emptyMap());
+    }
+
+    protected void exec(List<String> cmdLine, File workingFolder, Map<String, String> environment) throws GradleException {
         // log command line parameters
         StringBuilder sb = new StringBuilder("  CMakePlugin.task "+taskName+" - exec: ");
         for ( String s : cmdLine ) {
@@ -30,6 +68,7 @@ public class CMakeExecutor {
         // build process
         ProcessBuilder pb = new ProcessBuilder(cmdLine);
         pb.directory( workingFolder );
+        pb.environment().putAll( environment );
 
 
         try {
@@ -37,34 +76,161 @@ public class CMakeExecutor {
             workingFolder.mkdirs();
 
             // start
-            Process process = pb.start();
-
-            BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-            BufferedReader errorReader = new BufferedReader(new InputStreamReader(process.getErrorStream()));
-            String line;
-            while ((line = reader.readLine()) != null) {
-                logger.info( line );
+            CMakeInvocationMetrics metrics = new CMakeInvocationMetrics();
+            metrics.taskName = taskName;
+            metrics.workingFolder = workingFolder.getAbsolutePath();
+            metrics.startEpochMillis = System.currentTimeMillis();
+            long start = System.nanoTime();
+            addReaper();
+            CMakeProcessMonitor monitor = new CMakeProcessMonitor();
+            Process process;
+            try {
+                process = pb.start();
             }
-            if ( null != (line = errorReader.readLine()) ) {
-                logger.error( "  CMakePlugin.cmakeConfigure - ERRORS: " );
-                do {
-                    logger.error(line);
-                } while ((line = errorReader.readLine()) != null);
+            catch ( IOException e ) {
+                stopMonitor(monitor, metrics);
+                throw e;
+            }
+            running.add(process);
+            monitor.start(process, "cmake-"+taskName+"-monitor");
+            try {
+                waitFor(process, metrics);
+            }
+            catch ( InterruptedException e ) {
+                destroyTree(process);
+                Thread.currentThread().interrupt();
+                throw new GradleException("["+taskName+"] cmake was cancelled.", e);
+            }
+            finally {
+                running.remove(process);
+                destroyed.remove(process);
+                metrics.wallMillis = (System.nanoTime() - start) / 1000000L;
+                stopMonitor(monitor, metrics);
+                if ( metricsSink != null )
+                    metricsSink.accept(metrics);
             }
-
-
-            int retCode = process.waitFor();
-            if ( retCode != 0 )
-                throw new GradleException("["+taskName+"]Error: CMAKE returned "+retCode );
         }
         catch ( IOException e ) {
             throw new GradleScriptException( "CMakeExecutor["+taskName+"].", e );
         }
+    }
+
+    private void stopMonitor(CMakeProcessMonitor monitor, CMakeInvocationMetrics metrics) {
+        try {
+            monitor.stop();
+        }
         catch ( InterruptedException e ) {
-            throw new GradleScriptException( "CMakeExecutor["+taskName+"].", e );
+            Thread.currentThread().interrupt();
         }
+        metrics.cpuMillis = monitor.getCpuMillis();
+        metrics.peakRssBytes = monitor.getPeakRssBytes();
     }
 
+    private void waitFor(Process process, CMakeInvocationMetrics metrics) throws IOException, InterruptedException {
+        CMakeDiagnostics diagnostics = this.diagnostics != null ? this.diagnostics : new CMakeDiagnostics();
+        // the output is logged in batches, verbose compiler output would otherwise make logging itself a cost
+        CMakeLogBatcher infoLog = new CMakeLogBatcher(logger::info);
+        CMakeLogBatcher errorLog = new CMakeLogBatcher(logger::error);
+        boolean info = logger.isInfoEnabled();
+        CMakeDiagnostics.Filter stdoutFilter = diagnostics.filter(line -> {
+            if ( info )
+                infoLog.add(line);
+        });
+        CMakeDiagnostics.Filter stderrFilter = diagnostics.filter(new Consumer<String>() {
+            private boolean first = true;
+            @Override
+            public void accept(String line) {
+                if ( first ) {
+                    errorLog.add( "  CMakePlugin.task "+taskName+" - ERRORS: " );
+                    first = false;
+                }
+                errorLog.add(line);
+            }
+        });
+
+        // drain stdout and stderr concurrently, so neither pipe can fill up and block the child
+        CMakeOutputPump stdout = new CMakeOutputPump(process.getInputStream(), line -> {
+            stdoutFilter.accept(line);
+            if ( line.startsWith("-- ") ) {
+                Matcher m = PHASE_DONE.matcher(line);
+                if ( m.matches() && m.group(2) != null )
+                    metrics.subPhaseMillis.put(m.group(1).equals("Configuring") ? "configure" : "generate", (long)(Double.parseDouble(m.group(2)) * 1000));
+            }
+        }, TAIL_LINES);
+        CMakeOutputPump stderr = new CMakeOutputPump(process.getErrorStream(), stderrFilter::accept, TAIL_LINES);
+        int retCode;
+        try {
+            stdout.start("cmake-"+taskName+"-stdout");
+            stderr.start("cmake-"+taskName+"-stderr");
+
+            retCode = process.waitFor();
+            stdout.join();
+            stderr.join();
+            stdoutFilter.close();
+            stderrFilter.close();
+        }
+        finally {
+            infoLog.close();
+            errorLog.close();
+        }
+        metrics.exitCode = retCode;
+        if ( destroyed.contains(process) )
+            throw new GradleException("["+taskName+"] cmake was cancelled because the build failed.");
+        if ( retCode != 0 )
+            throw new GradleException("["+taskName+"]Error: CMAKE returned "+retCode
+                    + formatTail("stdout", stdout.getTail())
+                    + formatTail("stderr", stderr.getTail()) );
+    }
+
+    /**
+     * Kills all running cmake processes including their children (make, ninja, compilers).
+     */
+    static void destroyAll() {
+        for ( Process process : new ArrayList<>(running) )
+            destroyTree(process);
+    }
+
+    private static synchronized void addReaper() {
+        if ( reaper != null )
+            return;
+        reaper = new Thread(CMakeExecutor::destroyAll, "cmake-process-reaper");
+        Runtime.getRuntime().addShutdownHook(reaper);
+    }
+
+    /**
+     * Removes the shutdown hook that kills running processes when the JVM goes down.
+     */
+    static synchronized void removeReaper() {
+        if ( reaper == null )
+            return;
+        try {
+            Runtime.getRuntime().removeShutdownHook(reaper);
+        }
+        catch ( IllegalStateException e ) {
+            // the JVM is shutting down, the hook runs
+        }
+        reaper = null;
+    }
+
+    private static void destroyTree(Process process) {
+        destroyed.add(process);
+        // collect the children first, they are re-parented once their parent is gone
+        List<ProcessHandle> children = new ArrayList<>();
+        process.descendants().forEach(children::add);
+        process.destroyForcibly();
+        for ( ProcessHandle child : children )
+            child.destroyForcibly();
+    }
+
+    private static String formatTail(String streamName, List<String> tail) {
+        if ( tail.isEmpty() )
+            return "";
+        StringBuilder sb = new StringBuilder();
+        sb.append(System.lineSeparator()).append("  last ").append(tail.size()).append(" lines of ").append(streamName).append(":");
+        for ( String line : tail )
+            sb.append(System.lineSeparator()).append("    ").append(line);
+        return sb.toString();
+    }
 
 }
 
@@ -0,0 +1,246 @@
+package net.freudasoft;
+
+import org.gradle.api.Project;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Cache of FetchContent dependency sources shared by all projects and builds.
+ *
+ * The configure tasks include a dependency provider script (cmake >= 3.24), which populates dependencies pinned
+ * to their content (URL_HASH or a git commit) once into {@code <cache>/<hash of the declaration>/src}, guarded by
+ * {@code <cache>/<hash>.lock}. When the build finishes, the least recently used entries are evicted until the cache
+ * fits into its size limit again. Entries used by the finishing build and entries locked by a configure running
+ * in another build are kept. Entries still used by other build folders may be evicted: the script lists the entries
+ * a configure used in the build folder, and the configure task is not up-to-date when one of them is missing.
+ */
+public abstract class CMakeFetchContentCache implements BuildService<BuildServiceParameters.None>, AutoCloseable {
+    public static final String NAME = "cmakeFetchContentCache";
+    static final String DEFAULT_SIZE = "10G";
+
+    private static final Logger logger = Logging.getLogger(CMakeFetchContentCache.class);
+    private static final String SCRIPT_RESOURCE = "fetchcontent-provider.cmake";
+    private static final String COMPLETE = ".complete";
+    private static final String USED = ".used";
+    private static final String SIZE = ".size";
+    private static final String ENTRIES_FILE = "gradle-fetchcontent-entries.txt";
+
+    // cache folder -> size limit in bytes
+    private final Map<File, Long> used = new ConcurrentHashMap<>();
+    private final long buildStarted = System.currentTimeMillis();
+
+    static Provider<CMakeFetchContentCache> register(Project project) {
+        return project.getGradle().getSharedServices().registerIfAbsent(NAME, CMakeFetchContentCache.class, spec -> {});
+    }
+
+    /**
+     * Writes the dependency provider script for the cache folder into the working folder.
+     * @return the script, to be passed as CMAKE_PROJECT_TOP_LEVEL_INCLUDES
+     */
+    public File writeProviderScript(File workingFolder, File cacheFolder, String maxSize) throws IOException {
+        used.merge(cacheFolder.getAbsoluteFile(), parseSize(maxSize), Math::min);
+        Files.createDirectories(cacheFolder.toPath());
+
+        String script;
+        try ( InputStream in = CMakeFetchContentCache.class.getResourceAsStream(SCRIPT_RESOURCE) ) {
+            if ( in == null )
+                throw new IOException("Missing resource " + SCRIPT_RESOURCE);
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            byte[] chunk = new byte[8192];
+            for ( int n; (n = in.read(chunk)) > 0; )
+                buffer.write(chunk, 0, n);
+            script = buffer.toString(StandardCharsets.UTF_8.name());
+        }
+        // cmake paths use forward slashes on all platforms
+        script = script.replace("@CACHE_DIR@", cacheFolder.getAbsolutePath().replace('\\', '/'));
+        script = script.replace("@ENTRIES_FILE@", ENTRIES_FILE);
+
+        File file = new File(workingFolder, "gradle-fetchcontent-provider.cmake");
+        byte[] content = script.getBytes(StandardCharsets.UTF_8);
+        if ( file.isFile() && Arrays.equals(Files.readAllBytes(file.toPath()), content) )
+            return file;
+        Files.createDirectories(workingFolder.toPath());
+        Files.write(file.toPath(), content);
+        return file;
+    }
+
+    /**
+     * @return the cache entries the last configure of the build folder used that no longer exist, because they were evicted
+     */
+    static List<String> missingEntries(File workingFolder) throws IOException {
+        File list = new File(workingFolder, ENTRIES_FILE);
+        List<String> missing = new ArrayList<>();
+        if ( !list.isFile() )
+            return missing;
+        for ( String entry : Files.readAllLines(list.toPath(), StandardCharsets.UTF_8) ) {
+            if ( !entry.isEmpty() && !new File(entry, COMPLETE).isFile() )
+                missing.add(new File(entry).getName());
+        }
+        return missing;
+    }
+
+    /**
+     * @param size a size like "500M" or "10G" (binary units), or a number of bytes. null for the default size
+     */
+    static long parseSize(String size) {
+        String value = size != null && !size.trim().isEmpty() ? size.trim().toUpperCase(Locale.ROOT) : DEFAULT_SIZE;
+        if ( value.endsWith("B") )
+            value = value.substring(0, value.length() - 1);
+        long unit = 1;
+        switch ( value.isEmpty() ? ' ' : value.charAt(value.length() - 1) ) {
+            case 'K': unit = 1L << 10; break;
+            case 'M': unit = 1L << 20; break;
+            case 'G': unit = 1L << 30; break;
+            case 'T': unit = 1L << 40; break;
+            default: break;
+        }
+        if ( unit > 1 )
+            value = value.substring(0, value.length() - 1);
+        try {
+            return (long)(Double.parseDouble(value.trim()) * unit);
+        }
+        catch ( NumberFormatException e ) {
+            throw new IllegalArgumentException("Invalid FetchContent cache size '" + size + "', expected a size like 500M or 10G");
+        }
+    }
+
+    @Override
+    public void close() {
+        for ( Map.Entry<File, Long> cache : used.entrySet() ) {
+            try {
+                evict(cache.getKey().toPath(), cache.getValue());
+            }
+            catch ( IOException | UncheckedIOException | OverlappingFileLockException e ) {
+                logger.warn("Could not clean up the FetchContent cache " + cache.getKey() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void evict(Path cache, long maxSize) throws IOException {
+        if ( !Files.isDirectory(cache) )
+            return;
+        // one build at a time evicts, the others skip it
+        try ( FileChannel channel = FileChannel.open(cache.resolve(".evict.lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+              FileLock evicting = channel.tryLock() ) {
+            if ( evicting == null )
+                return;
+
+            List<Entry> entries = new ArrayList<>();
+            long total = 0;
+            try ( DirectoryStream<Path> folders = Files.newDirectoryStream(cache, Files::isDirectory) ) {
+                for ( Path folder : folders ) {
+                    if ( folder.getFileName().toString().contains(CMakeDeleteService.TOMBSTONE) ) {
+                        deleteTree(folder);
+                        continue;
+                    }
+                    Entry entry = new Entry(folder);
+                    entries.add(entry);
+                    total += entry.size;
+                }
+            }
+            if ( total <= maxSize )
+                return;
+
+            entries.sort(Comparator.comparingLong(e -> e.lastUsed));
+            long before = total;
+            int evicted = 0;
+            for ( Entry entry : entries ) {
+                if ( total <= maxSize )
+                    break;
+                if ( entry.lastUsed >= buildStarted )
+                    continue;
+                if ( entry.delete() ) {
+                    total -= entry.size;
+                    evicted++;
+                }
+            }
+            logger.info("Evicted " + evicted + " FetchContent cache entries from " + cache + ", " + (before >> 20) + " MB -> " + (total >> 20) + " MB");
+        }
+    }
+
+    private static void deleteTree(Path root) throws IOException {
+        try ( Stream<Path> paths = Files.walk(root) ) {
+            for ( Path path : (Iterable<Path>)paths.sorted(Comparator.reverseOrder())::iterator )
+                Files.deleteIfExists(path);
+        }
+    }
+
+    private static class Entry {
+        final Path folder;
+        final long lastUsed;
+        final long size;
+
+        Entry(Path folder) throws IOException {
+            this.folder = folder;
+            Path usedMarker = folder.resolve(USED);
+            lastUsed = Files.exists(usedMarker) ? Files.getLastModifiedTime(usedMarker).toMillis() : Files.getLastModifiedTime(folder).toMillis();
+            size = size(folder);
+        }
+
+        // entries don't change once complete, so their size is only computed once. an incomplete entry may be populated
+        // right now, it is not counted but still evicted if it was left over by an interrupted configure
+        private static long size(Path folder) throws IOException {
+            if ( !Files.exists(folder.resolve(COMPLETE)) )
+                return 0;
+            Path sizeFile = folder.resolve(SIZE);
+            if ( Files.exists(sizeFile) ) {
+                try {
+                    return Long.parseLong(new String(Files.readAllBytes(sizeFile), StandardCharsets.UTF_8).trim());
+                }
+                catch ( NumberFormatException e ) {
+                    // computed again below
+                }
+            }
+            long size;
+            try ( Stream<Path> files = Files.walk(folder) ) {
+                size = files.filter(Files::isRegularFile).mapToLong(f -> f.toFile().length()).sum();
+            }
+            Files.write(sizeFile, Long.toString(size).getBytes(StandardCharsets.UTF_8));
+            return size;
+        }
+
+        /**
+         * @return false if a configure is populating the entry right now
+         */
+        boolean delete() throws IOException {
+            Path lockFile = folder.resolveSibling(folder.getFileName() + ".lock");
+            Path tombstone;
+            try ( FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                  FileLock lock = channel.tryLock() ) {
+                if ( lock == null )
+                    return false;
+                // once moved away under the lock, a configure finds the entry missing and populates it again
+                tombstone = folder.resolveSibling(folder.getFileName() + CMakeDeleteService.TOMBSTONE + System.nanoTime());
+                Files.move(folder, tombstone, StandardCopyOption.ATOMIC_MOVE);
+            }
+            deleteTree(tombstone);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package net.freudasoft;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Access to the cmake File API (cmake >= 3.14): writes the codemodel query before configure
+ * and reads the reply into a {@link CMakeCodeModel} afterwards.
+ *
+ * Parsed models are cached per build folder and keyed on the reply index file, which cmake rewrites
+ * on every configure. Tasks running later in the same build (or daemon) reuse the parsed model.
+ */
+public class CMakeFileApi {
+    private static final String CODEMODEL = "codemodel-v2";
+
+    private static final Map<File, CachedModel> cache = new ConcurrentHashMap<>();
+
+    private static class CachedModel {
+        final File indexFile;
+        final long lastModified;
+        final CMakeCodeModel model;
+
+        CachedModel(File indexFile, long lastModified, CMakeCodeModel model) {
+            this.indexFile = indexFile;
+            this.lastModified = lastModified;
+            this.model = model;
+        }
+    }
+
+    private CMakeFileApi() {
+    }
+
+    /**
+     * Writes the shared stateless codemodel query into the build folder.
+     */
+    static void writeQuery(File buildFolder) throws IOException {
+        File query = new File(buildFolder, ".cmake/api/v1/query/" + CODEMODEL);
+        if ( query.isFile() )
+            return;
+        Files.createDirectories(query.getParentFile().toPath());
+        Files.write(query.toPath(), new byte[0]);
+    }
+
+    /**
+     * @return the latest reply index file, or null if cmake did not write a reply (yet).
+     */
+    static File findIndexFile(File buildFolder) {
+        File[] indexFiles = new File(buildFolder, ".cmake/api/v1/reply").listFiles((dir, name) -> name.startsWith("index-") && name.endsWith(".json"));
+        if ( indexFiles == null || indexFiles.length == 0 )
+            return null;
+        File latest = indexFiles[0];
+        for ( File f : indexFiles ) {
+            // index file names contain a timestamp, so the lexicographically last one is the newest
+            if ( f.getName().compareTo(latest.getName()) > 0 )
+                latest = f;
+        }
+        return latest;
+    }
+
+    /**
+     * @return the code model of the configured build folder, or null if there is no File API reply.
+     */
+    public static CMakeCodeModel readCodeModel(File buildFolder) throws IOException {
+        File key = buildFolder.getAbsoluteFile();
+        File indexFile = findIndexFile(key);
+        if ( indexFile == null )
+            return null;
+        long lastModified = indexFile.lastModified();
+        CachedModel cached = cache.get(key);
+        if ( cached != null && cached.indexFile.equals(indexFile) && cached.lastModified == lastModified )
+            return cached.model;
+
+        CMakeCodeModel model = parse(indexFile);
+        cache.put(key, new CachedModel(indexFile, lastModified, model));
+        return model;
+    }
+
+    private static CMakeCodeModel parse(File indexFile) throws IOException {
+        File replyFolder = indexFile.getParentFile();
+        String codemodelFile = null;
+        try ( CMakeJsonReader reader = open(indexFile) ) {
+            reader.beginObject();
+            while ( reader.hasNext() ) {
+                if ( !reader.nextName().equals("reply") ) {
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginObject();
+                while ( reader.hasNext() ) {
+                    if ( reader.nextName().equals(CODEMODEL) )
+                        codemodelFile = readJsonFile(reader);
+                    else
+                        reader.skipValue();
+                }
+                reader.endObject();
+            }
+            reader.endObject();
+        }
+        if ( codemodelFile == null )
+            throw new IOException("No " + CODEMODEL + " reply in " + indexFile);
+
+        File sourceFolder = null;
+        File buildFolder = null;
+        Map<String, List<String>> targetFilesByConfiguration = new LinkedHashMap<>();
+        try ( CMakeJsonReader reader = open(new File(replyFolder, codemodelFile)) ) {
+            reader.beginObject();
+            while ( reader.hasNext() ) {
+                switch ( reader.nextName() ) {
+                    case "paths":
+                        reader.beginObject();
+                        while ( reader.hasNext() ) {
+                            String name = reader.nextName();
+                            if ( name.equals("source") )
+                                sourceFolder = new File(reader.nextString());
+                            else if ( name.equals("build") )
+                                buildFolder = new File(reader.nextString());
+                            else
+                                reader.skipValue();
+                        }
+                        reader.endObject();
+                        break;
+                    case "configurations":
+                        reader.beginArray();
+                        while ( reader.hasNext() )
+                            readConfiguration(reader, targetFilesByConfiguration);
+                        reader.endArray();
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
+                }
+            }
+            reader.endObject();
+        }
+        if ( sourceFolder == null || buildFolder == null )
+            throw new IOException("No paths in codemodel reply " + codemodelFile);
+
+        Map<String, List<CMakeCodeModel.Target>> targetsByConfiguration = new LinkedHashMap<>();
+        for ( Map.Entry<String, List<String>> entry : targetFilesByConfiguration.entrySet() ) {
+            List<CMakeCodeModel.Target> targets = new ArrayList<>();
+            for ( String targetFile : entry.getValue() )
+                targets.add(readTarget(new File(replyFolder, targetFile), sourceFolder, buildFolder));
+            targetsByConfiguration.put(entry.getKey(), targets);
+        }
+        return new CMakeCodeModel(sourceFolder, buildFolder, targetsByConfiguration);
+    }
+
+    private static void readConfiguration(CMakeJsonReader reader, Map<String, List<String>> targetFilesByConfiguration) throws IOException {
+        String name = "";
+        List<String> targetFiles = new ArrayList<>();
+        reader.beginObject();
+        while ( reader.hasNext() ) {
+            switch ( reader.nextName() ) {
+                case "name":
+                    name = reader.nextString();
+                    break;
+                case "targets":
+                    reader.beginArray();
+                    while ( reader.hasNext() ) {
+                        String jsonFile = readJsonFile(reader);
+                        if ( jsonFile != null )
+                            targetFiles.add(jsonFile);
+                    }
+                    reader.endArray();
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+        targetFilesByConfiguration.put(name, targetFiles);
+    }
+
+    private static CMakeCodeModel.Target readTarget(File targetFile, File sourceFolder, File buildFolder) throws IOException {
+        String id = null;
+        String name = null;
+        String type = null;
+        List<File> artifacts = new ArrayList<>();
+        List<File> sources = new ArrayList<>();
+        List<String> dependencies = new ArrayList<>();
+        try ( CMakeJsonReader reader = open(targetFile) ) {
+            reader.beginObject();
+            while ( reader.hasNext() ) {
+                switch ( reader.nextName() ) {
+                    case "id":
+                        id = reader.nextString();
+                        break;
+                    case "name":
+                        name = reader.nextString();
+                        break;
+                    case "type":
+                        type = reader.nextString();
+                        break;
+                    case "artifacts":
+                        readPaths(reader, "path", buildFolder, artifacts);
+                        break;
+                    case "sources":
+                        readPaths(reader, "path", sourceFolder, sources);
+                        break;
+                    case "dependencies":
+                        reader.beginArray();
+                        while ( reader.hasNext() ) {
+                            reader.beginObject();
+                            while ( reader.hasNext() ) {
+                                if ( reader.nextName().equals("id") )
+                                    dependencies.add(reader.nextString());
+                                else
+                                    reader.skipValue();
+                            }
+                            reader.endObject();
+                        }
+                        reader.endArray();
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
+                }
+            }
+            reader.endObject();
+        }
+        if ( id == null || name == null )
+            throw new IOException("Incomplete target reply " + targetFile);
+        return new CMakeCodeModel.Target(id, name, type, artifacts, sources, dependencies);
+    }
+
+    // reads an array of objects and collects the given path member, resolved against baseFolder
+    private static void readPaths(CMakeJsonReader reader, String member, File baseFolder, List<File> paths) throws IOException {
+        reader.beginArray();
+        while ( reader.hasNext() ) {
+            reader.beginObject();
+            while ( reader.hasNext() ) {
+                if ( reader.nextName().equals(member) ) {
+                    File f = new File(reader.nextString());
+                    paths.add(f.isAbsolute() ? f : new File(baseFolder, f.getPath()));
+                }
+                else
+                    reader.skipValue();
+            }
+            reader.endObject();
+        }
+        reader.endArray();
+    }
+
+    // reads an object and returns its jsonFile member
+    private static String readJsonFile(CMakeJsonReader reader) throws IOException {
+        String jsonFile = null;
+        reader.beginObject();
+        while ( reader.hasNext() ) {
+            if ( reader.nextName().equals("jsonFile") )
+                jsonFile = reader.nextString();
+            else
+                reader.skipValue();
+        }
+        reader.endObject();
+        return jsonFile;
+    }
+
+    private static CMakeJsonReader open(File file) throws IOException {
+        return new CMakeJsonReader(new InputStreamReader(Files.newInputStream(file.toPath()), StandardCharsets.UTF_8));
+    }
+}
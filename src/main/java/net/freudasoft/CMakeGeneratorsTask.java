@@ -0,0 +1,114 @@
+package net.freudasoft;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.logging.LogLevel;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.TaskAction;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lists the cmake version and the available generators. The generators with their descriptions and the default
+ * generator (marked with *) come from {@code cmake --help}, the -A/-T support from the cached {@code cmake -E capabilities}.
+ */
+public class CMakeGeneratorsTask extends DefaultTask {
+    private final Property<String> executable;
+    private final Property<CMakeCapabilitiesService> capabilities;
+
+    public CMakeGeneratorsTask() {
+        setGroup("cmake");
+        setDescription("List available CMake generators");
+        executable = getProject().getObjects().property(String.class);
+        capabilities = getProject().getObjects().property(CMakeCapabilitiesService.class);
+
+        // default values
+        Provider<CMakeCapabilitiesService> capabilitiesService = CMakeCapabilitiesService.register(getProject());
+        capabilities.set(capabilitiesService);
+        usesService(capabilitiesService);
+    }
+
+    /// region getters
+    @Internal
+    public Property<String> getExecutable() {
+        return executable;
+    }
+
+    @Internal
+    public Property<CMakeCapabilitiesService> getCapabilities() {
+        return capabilities;
+    }
+    /// endregion
+
+    @TaskAction
+    public void listGenerators() {
+        CMakeCapabilities caps = capabilities.get().get(executable.getOrNull());
+        getLogger().log(LogLevel.QUIET, "cmake version " + caps.getVersion());
+        List<String> help = helpGenerators();
+        if ( help.isEmpty() ) {
+            // no help output, list the generators without descriptions
+            getLogger().log(LogLevel.QUIET, "Generators");
+            for ( CMakeCapabilities.Generator generator : caps.getGenerators() ) {
+                getLogger().log(LogLevel.QUIET, "  " + generator.getName() + markers(generator));
+                for ( String extra : generator.getExtraGenerators() )
+                    getLogger().log(LogLevel.QUIET, "  " + extra + " - " + generator.getName());
+            }
+            return;
+        }
+        for ( String line : help ) {
+            // "* Ninja                        = Generates build.ninja files."
+            int eq = line.indexOf('=');
+            CMakeCapabilities.Generator generator = null;
+            if ( eq > 2 && ( line.startsWith("  ") || line.startsWith("* ") ) )
+                generator = find(caps, line.substring(2, eq).trim());
+            getLogger().log(LogLevel.QUIET, generator != null ? line + markers(generator) : line);
+        }
+    }
+
+    // the Generators section of cmake --help, empty if it could not be read
+    private List<String> helpGenerators() {
+        List<String> lines = new ArrayList<>();
+        ProcessBuilder pb = new ProcessBuilder(executable.getOrElse("cmake"), "--help");
+        pb.redirectErrorStream(true);
+        try {
+            Process process = pb.start();
+            try ( BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream())) ) {
+                String line;
+                boolean foundGenerators = false;
+                while ( (line = reader.readLine()) != null ) {
+                    if ( line.equals("Generators") )
+                        foundGenerators = true;
+                    if ( foundGenerators )
+                        lines.add(line);
+                }
+            }
+            process.waitFor();
+        }
+        catch ( IOException e ) {
+            getLogger().info("  CMakePlugin.task " + getName() + " - cmake --help failed: " + e.getMessage());
+            lines.clear();
+        }
+        catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            lines.clear();
+        }
+        return lines;
+    }
+
+    private static CMakeCapabilities.Generator find(CMakeCapabilities caps, String name) {
+        for ( CMakeCapabilities.Generator generator : caps.getGenerators() ) {
+            if ( generator.getName().equals(name) )
+                return generator;
+        }
+        return null;
+    }
+
+    private static String markers(CMakeCapabilities.Generator generator) {
+        return (generator.isPlatformSupport() ? " [platform -A]" : "") + (generator.isToolsetSupport() ? " [toolset -T]" : "");
+    }
+}
@@ -0,0 +1,188 @@
+package net.freudasoft;
+
+import org.gradle.api.logging.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Initial cache scripts (cmake -C) shared by the projects of a build that use the same toolchain.
+ *
+ * After a configure, the cached results of the probes whose variable name tells what was checked (INTERNAL entries
+ * like HAVE_UNISTD_H from check_include_file, SIZEOF_VOID_P from check_type_size or CMAKE_HAVE_LIBC_PTHREAD from
+ * FindThreads, holding a boolean or a number) are merged into the script of the toolchain. Other results, like those of
+ * check_cxx_source_compiles, depend on the project's test code and are not shared. Failed probes are not shared either.
+ * The next first-time configure of another project is seeded with the script, so cmake finds the results
+ * in the cache and skips the probes. Compiler identification is not cached by cmake and still runs.
+ *
+ * The script is selected by a hash of everything that changes the probe results before cmake runs
+ * (toolchain file contents, generator, CMAKE_* definitions, compiler environment variables). It also records size and
+ * modification time of the compilers cmake found, and is discarded when one of them changes.
+ */
+class CMakeInitialCache {
+    private static final String HEADER = "# initial cache shared by the cmake gradle plugin, do not edit";
+    private static final String COMPILER = "# compiler ";
+    private static final String[] ENVIRONMENT = { "CC", "CXX", "CUDACXX", "FC", "CFLAGS", "CXXFLAGS", "CUDAFLAGS", "FFLAGS", "LDFLAGS", "SDKROOT" };
+
+    private static final Pattern ENTRY = Pattern.compile("([A-Za-z0-9_.+-]+):([A-Z]+)=(.*)");
+    private static final Pattern PROBE_NAME = Pattern.compile("CMAKE_HAVE_[A-Z0-9_]+|(HAVE_)?SIZEOF_[A-Z0-9_]+|HAVE_[A-Z0-9_]+_H");
+    private static final Pattern PROBE_RESULT = Pattern.compile("0|1|TRUE|FALSE|ON|OFF|YES|NO|-?\\d+", Pattern.CASE_INSENSITIVE);
+    private static final Pattern COMPILER_ENTRY = Pattern.compile("CMAKE_[A-Z]+_COMPILER");
+    private static final Pattern SET = Pattern.compile("set\\(([^ ]+) \"(.*)\" CACHE INTERNAL \"\"\\)");
+
+    private CMakeInitialCache() {
+    }
+
+    /**
+     * @param settings generator, platform, toolset, build type and CMAKE_* definitions of the configure task
+     * @param toolchainFile the toolchain file, or null
+     * @return the script for this toolchain in the given folder
+     */
+    static File scriptFile(File folder, List<String> settings, File toolchainFile) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            for ( String setting : settings )
+                digest.update((setting + "\n").getBytes(StandardCharsets.UTF_8));
+            for ( String name : ENVIRONMENT ) {
+                String value = System.getenv(name);
+                if ( value != null )
+                    digest.update((name + "=" + value + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+            if ( toolchainFile != null && toolchainFile.isFile() )
+                digest.update(Files.readAllBytes(toolchainFile.toPath()));
+            StringBuilder sb = new StringBuilder();
+            byte[] hash = digest.digest();
+            for ( int i = 0; i < 8; i++ )
+                sb.append(String.format("%02x", hash[i]));
+            return new File(folder, sb + ".cmake");
+        }
+        catch ( NoSuchAlgorithmException e ) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return true if the script exists and the compilers it was recorded with did not change. An outdated script is deleted.
+     */
+    static synchronized boolean isUsable(File script, Logger logger) {
+        if ( !script.isFile() )
+            return false;
+        try {
+            for ( String line : Files.readAllLines(script.toPath(), StandardCharsets.UTF_8) ) {
+                if ( !line.startsWith(COMPILER) )
+                    continue;
+                String recorded = line.substring(COMPILER.length());
+                if ( !recorded.equals(fingerprint(pathOf(recorded))) ) {
+                    logger.info("The compiler changed, discarding the shared initial cache " + script);
+                    Files.delete(script.toPath());
+                    return false;
+                }
+            }
+            return true;
+        }
+        catch ( IOException | RuntimeException e ) {
+            logger.info("Could not read the shared initial cache " + script + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Merges the probe results of a configured build folder into the script. Results already in the script are kept.
+     */
+    static synchronized void record(File buildFolder, File script) throws IOException {
+        File cache = new File(buildFolder, "CMakeCache.txt");
+        if ( !cache.isFile() )
+            return;
+
+        Map<String, String> results = new TreeMap<>();
+        List<String> compilers = new ArrayList<>();
+        for ( String line : Files.readAllLines(cache.toPath(), StandardCharsets.UTF_8) ) {
+            Matcher m = ENTRY.matcher(line);
+            if ( !m.matches() )
+                continue;
+            String name = m.group(1);
+            String type = m.group(2);
+            String value = m.group(3);
+            if ( COMPILER_ENTRY.matcher(name).matches() && !value.isEmpty() ) {
+                File compiler = resolve(value);
+                if ( compiler != null )
+                    compilers.add(fingerprint(compiler.getAbsolutePath()));
+            }
+            else if ( type.equals("INTERNAL") && isProbeResult(name, value) )
+                results.put(name, value);
+        }
+        if ( compilers.isEmpty() )
+            return;
+
+        List<String> existing = script.isFile() ? Files.readAllLines(script.toPath(), StandardCharsets.UTF_8) : new ArrayList<>();
+        List<String> existingCompilers = new ArrayList<>();
+        for ( String line : existing ) {
+            if ( line.startsWith(COMPILER) )
+                existingCompilers.add(line.substring(COMPILER.length()));
+        }
+        // projects may enable different languages, so the compilers are merged as well. a changed compiler replaces the script
+        Map<String, String> merged = new TreeMap<>();
+        boolean changed = !existing.isEmpty() && existingCompilers.stream().anyMatch(c -> !c.equals(fingerprint(pathOf(c))));
+        if ( !changed ) {
+            Matcher set = SET.matcher("");
+            for ( String line : existing ) {
+                if ( set.reset(line).matches() )
+                    merged.put(set.group(1), set.group(2));
+            }
+            for ( String compiler : existingCompilers ) {
+                if ( !compilers.contains(compiler) )
+                    compilers.add(compiler);
+            }
+        }
+        int before = merged.size();
+        for ( Map.Entry<String, String> entry : results.entrySet() )
+            merged.putIfAbsent(entry.getKey(), entry.getValue());
+        if ( !changed && merged.size() == before && existingCompilers.containsAll(compilers) && script.isFile() )
+            return;
+
+        List<String> lines = new ArrayList<>();
+        lines.add(HEADER);
+        for ( String compiler : compilers )
+            lines.add(COMPILER + compiler);
+        for ( Map.Entry<String, String> entry : merged.entrySet() )
+            lines.add("set(" + entry.getKey() + " \"" + entry.getValue() + "\" CACHE INTERNAL \"\")");
+
+        Files.createDirectories(script.getParentFile().toPath());
+        File tmp = File.createTempFile(script.getName(), ".tmp", script.getParentFile());
+        Files.write(tmp.toPath(), lines, StandardCharsets.UTF_8);
+        Files.move(tmp.toPath(), script.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static boolean isProbeResult(String name, String value) {
+        return PROBE_NAME.matcher(name).matches() && PROBE_RESULT.matcher(value).matches();
+    }
+
+    // path, size and modification time
+    private static String fingerprint(String path) {
+        File file = new File(path);
+        return path + " " + file.length() + " " + file.lastModified();
+    }
+
+    // the path may contain spaces, size and modification time don't
+    private static String pathOf(String fingerprint) {
+        return fingerprint.substring(0, fingerprint.lastIndexOf(' ', fingerprint.lastIndexOf(' ') - 1));
+    }
+
+    private static File resolve(String compiler) {
+        File file = new File(compiler);
+        if ( file.isAbsolute() )
+            return file.isFile() ? file : null;
+        return CMakeCompilerLauncher.findOnPath(compiler);
+    }
+}
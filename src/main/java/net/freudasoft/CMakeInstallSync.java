@@ -0,0 +1,254 @@
+package net.freudasoft;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Updates an output folder from a cmake install tree, touching only the files whose content changed.
+ *
+ * cmake installs into a staging folder, where it skips files with unchanged timestamps. The content of each installed file
+ * is hashed (size and modification time unchanged since the last run means the recorded hash is still valid) and compared with
+ * the last run. A changed file is copied once into a content addressed store and hard linked from there into the output folder,
+ * replacing the old file atomically. Files with the same content share one copy. The output files are never links to the
+ * staging folder, as cmake rewrites installed files in place.
+ */
+class CMakeInstallSync {
+    private static final String STATE_FILE = "install-state.txt";
+    private static final String OBJECTS = "objects";
+    private static final String SYMLINK = "symlink:";
+
+    static class Result {
+        int unchanged;
+        int updated;
+        int shared; // updated from content already in the store
+        int removed;
+
+        @Override
+        public String toString() {
+            return "install: " + updated + " file(s) updated (" + shared + " from the store), " + unchanged + " unchanged, " + removed + " removed";
+        }
+    }
+
+    // hash or symlink target, with size and modification time of the staged file it was computed from
+    private static class State {
+        final String content;
+        final long size;
+        final long modified;
+
+        State(String content, long size, long modified) {
+            this.content = content;
+            this.size = size;
+            this.modified = modified;
+        }
+    }
+
+    private CMakeInstallSync() {
+    }
+
+    /**
+     * @param manifests the install_manifest files cmake wrote, or an empty list to take all files of the staging folder
+     * @param stateFolder keeps the hashes of the last run and the store, must be on the same file system as the output for hard links
+     */
+    static Result sync(Path staging, List<Path> manifests, Path output, Path stateFolder) throws IOException {
+        Result result = new Result();
+        Map<String, State> previous = readState(stateFolder.resolve(STATE_FILE));
+        Map<String, State> current = new TreeMap<>();
+        Path objects = stateFolder.resolve(OBJECTS);
+        Files.createDirectories(objects);
+        Files.createDirectories(output);
+
+        for ( Path file : installedFiles(staging, manifests) ) {
+            String relative = staging.relativize(file).toString().replace('\\', '/');
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            State before = previous.get(relative);
+            String content;
+            if ( attrs.isSymbolicLink() )
+                content = SYMLINK + Files.readSymbolicLink(file);
+            else if ( before != null && before.size == attrs.size() && before.modified == attrs.lastModifiedTime().toMillis() )
+                content = before.content;
+            else
+                content = hash(file);
+            current.put(relative, new State(content, attrs.size(), attrs.lastModifiedTime().toMillis()));
+
+            Path target = output.resolve(relative);
+            if ( before != null && before.content.equals(content) && isInPlace(target, content, attrs.size()) ) {
+                result.unchanged++;
+                continue;
+            }
+            Files.createDirectories(target.getParent());
+            if ( content.startsWith(SYMLINK) ) {
+                Path tmp = temporary(target);
+                Files.createSymbolicLink(tmp, Files.readSymbolicLink(file));
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            else {
+                Path object = objects.resolve(content);
+                if ( Files.exists(object) ) {
+                    result.shared++;
+                }
+                else {
+                    Path tmp = temporary(object);
+                    Files.copy(file, tmp, StandardCopyOption.COPY_ATTRIBUTES);
+                    Files.move(tmp, object, StandardCopyOption.ATOMIC_MOVE);
+                }
+                place(object, target);
+            }
+            result.updated++;
+        }
+
+        result.removed = removeStale(output, current.keySet());
+        removeUnreferenced(objects, current);
+        writeState(stateFolder.resolve(STATE_FILE), current);
+        return result;
+    }
+
+    private static List<Path> installedFiles(Path staging, List<Path> manifests) throws IOException {
+        List<Path> files = new ArrayList<>();
+        if ( !manifests.isEmpty() ) {
+            Set<Path> unique = new HashSet<>();
+            for ( Path manifest : manifests ) {
+                for ( String line : Files.readAllLines(manifest, StandardCharsets.UTF_8) ) {
+                    Path file = new File(line.trim()).toPath();
+                    if ( !line.trim().isEmpty() && file.startsWith(staging) && Files.exists(file, LinkOption.NOFOLLOW_LINKS) && unique.add(file) )
+                        files.add(file);
+                }
+            }
+            return files;
+        }
+        if ( !Files.isDirectory(staging) )
+            return files;
+        Files.walkFileTree(staging, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                files.add(file);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return files;
+    }
+
+    // the output file still is the one placed by the last run
+    private static boolean isInPlace(Path target, String content, long size) throws IOException {
+        if ( content.startsWith(SYMLINK) )
+            return Files.isSymbolicLink(target) && Files.readSymbolicLink(target).toString().equals(content.substring(SYMLINK.length()));
+        return Files.isRegularFile(target, LinkOption.NOFOLLOW_LINKS) && Files.size(target) == size;
+    }
+
+    // hard link if the file system supports it, copy otherwise. either way the old file is replaced atomically
+    private static void place(Path object, Path target) throws IOException {
+        Path tmp = temporary(target);
+        try {
+            Files.createLink(tmp, object);
+        }
+        catch ( IOException | UnsupportedOperationException e ) {
+            Files.deleteIfExists(tmp);
+            Files.copy(object, tmp, StandardCopyOption.COPY_ATTRIBUTES);
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static Path temporary(Path target) {
+        return target.resolveSibling("." + target.getFileName() + ".tmp-" + System.nanoTime());
+    }
+
+    private static int removeStale(Path output, Set<String> installed) throws IOException {
+        int[] removed = { 0 };
+        Files.walkFileTree(output, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if ( !installed.contains(output.relativize(file).toString().replace('\\', '/')) ) {
+                    Files.delete(file);
+                    removed[0]++;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                if ( !dir.equals(output) ) {
+                    try ( java.util.stream.Stream<Path> entries = Files.list(dir) ) {
+                        if ( !entries.findAny().isPresent() )
+                            Files.delete(dir);
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return removed[0];
+    }
+
+    private static void removeUnreferenced(Path objects, Map<String, State> current) throws IOException {
+        Set<String> referenced = new HashSet<>();
+        for ( State state : current.values() )
+            referenced.add(state.content);
+        try ( java.util.stream.Stream<Path> entries = Files.list(objects) ) {
+            for ( Path object : (Iterable<Path>)entries::iterator ) {
+                if ( !referenced.contains(object.getFileName().toString()) )
+                    Files.delete(object);
+            }
+        }
+    }
+
+    private static String hash(Path file) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[64 * 1024];
+            try ( InputStream in = Files.newInputStream(file) ) {
+                for ( int n; (n = in.read(buffer)) > 0; )
+                    digest.update(buffer, 0, n);
+            }
+            StringBuilder sb = new StringBuilder();
+            for ( byte b : digest.digest() )
+                sb.append(String.format("%02x", b));
+            return sb.toString();
+        }
+        catch ( NoSuchAlgorithmException e ) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Map<String, State> readState(Path file) throws IOException {
+        Map<String, State> state = new HashMap<>();
+        if ( !Files.isRegularFile(file) )
+            return state;
+        for ( String line : Files.readAllLines(file, StandardCharsets.UTF_8) ) {
+            String[] fields = line.split("\t", 4);
+            if ( fields.length == 4 ) {
+                try {
+                    state.put(fields[3], new State(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2])));
+                }
+                catch ( NumberFormatException e ) {
+                    // hashed again
+                }
+            }
+        }
+        return state;
+    }
+
+    private static void writeState(Path file, Map<String, State> state) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for ( Map.Entry<String, State> entry : state.entrySet() )
+            lines.add(entry.getValue().content + "\t" + entry.getValue().size + "\t" + entry.getValue().modified + "\t" + entry.getKey());
+        Path tmp = temporary(file);
+        Files.write(tmp, lines, StandardCharsets.UTF_8);
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,235 @@
+package net.freudasoft;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.FileSystemOperations;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.workers.WorkerExecutor;
+
+import javax.inject.Inject;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Installs a build folder with cmake --install, one invocation per component, and updates the install folder from it.
+ *
+ * Only files whose content changed are replaced in the install folder, unchanged files keep their timestamps.
+ * See {@link CMakeInstallSync}. The install folder must not be the install tree of cmakeBuild (cmake { installFolder }):
+ * cmake rewrites installed files in place, which would change the hard linked files of the store.
+ */
+public abstract class CMakeInstallTask extends DefaultTask {
+    private final Property<String> executable;
+    private final DirectoryProperty workingFolder;
+    private final Property<String> buildConfig;
+    private final ListProperty<String> components;
+    private final ConfigurableFileCollection installInputs;
+    private final ConfigurableFileCollection installScripts;
+    private final DirectoryProperty installFolder;
+    private final DirectoryProperty buildInstallFolder;
+    private final Property<CMakeMetricsService> metrics;
+    private final Property<CMakeCapabilitiesService> capabilities;
+    private final String projectPath;
+
+    public CMakeInstallTask() {
+        setGroup("cmake");
+        setDescription("Install a CMake build and update the changed files of the install folder");
+        projectPath = getProject().getPath();
+        executable = getProject().getObjects().property(String.class);
+        workingFolder = getProject().getObjects().directoryProperty();
+        buildConfig = getProject().getObjects().property(String.class);
+        components = getProject().getObjects().listProperty(String.class);
+        installInputs = getProject().getObjects().fileCollection();
+        installScripts = getProject().getObjects().fileCollection();
+        installFolder = getProject().getObjects().directoryProperty();
+        buildInstallFolder = getProject().getObjects().directoryProperty();
+        metrics = getProject().getObjects().property(CMakeMetricsService.class);
+        capabilities = getProject().getObjects().property(CMakeCapabilitiesService.class);
+
+        // default values
+        installFolder.convention(getProject().getLayout().getBuildDirectory().dir("cmake-install"));
+        Provider<CMakeMetricsService> metricsService = CMakeMetricsService.register(getProject());
+        metrics.set(metricsService);
+        usesService(metricsService);
+        Provider<CMakeCapabilitiesService> capabilitiesService = CMakeCapabilitiesService.register(getProject());
+        capabilities.set(capabilitiesService);
+        usesService(capabilitiesService);
+
+        // without known artifacts a changed library would not be installed
+        getOutputs().upToDateWhen(task -> !installInputs.isEmpty());
+    }
+
+    /// region getters
+    @Input
+    @Optional
+    public Property<String> getExecutable() {
+        return executable;
+    }
+
+    @Internal("tracked by getInstallInputs() and getInstallScripts()")
+    public DirectoryProperty getWorkingFolder() {
+        return workingFolder;
+    }
+
+    @Input
+    @Optional
+    public Property<String> getBuildConfig() {
+        return buildConfig;
+    }
+
+    /**
+     * The install components to install, in this order. If empty, everything is installed with one invocation.
+     */
+    @Input
+    public ListProperty<String> getComponents() {
+        return components;
+    }
+
+    /**
+     * The built files that are installed.
+     */
+    @InputFiles
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public ConfigurableFileCollection getInstallInputs() {
+        return installInputs;
+    }
+
+    /**
+     * The cmake_install.cmake scripts of the build folder, they change with the install rules.
+     */
+    @InputFiles
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public ConfigurableFileCollection getInstallScripts() {
+        return installScripts;
+    }
+
+    @OutputDirectory
+    public DirectoryProperty getInstallFolder() {
+        return installFolder;
+    }
+
+    /**
+     * The install tree of the build tasks, only to check it is not the install folder.
+     */
+    @Internal("only checked against the install folder")
+    public DirectoryProperty getBuildInstallFolder() {
+        return buildInstallFolder;
+    }
+
+    @Internal
+    public Property<CMakeMetricsService> getMetrics() {
+        return metrics;
+    }
+
+    @Internal
+    public Property<CMakeCapabilitiesService> getCapabilities() {
+        return capabilities;
+    }
+    /// endregion
+
+    private List<String> buildCmdLine(File staging, String component, boolean installOption) {
+        List<String> parameters = new ArrayList<>();
+        String config = buildConfig.isPresent() && !buildConfig.get().isEmpty() ? buildConfig.get() : null;
+
+        parameters.add(executable.getOrElse("cmake"));
+        if ( installOption ) {
+            parameters.add("--install");
+            parameters.add(".");
+            parameters.add("--prefix");
+            parameters.add(staging.getAbsolutePath());
+            if ( config != null ) {
+                parameters.add("--config");
+                parameters.add(config);
+            }
+            if ( component != null ) {
+                parameters.add("--component");
+                parameters.add(component);
+            }
+        }
+        else {
+            // what the install target runs, before cmake 3.15 there is no --install
+            parameters.add("-DCMAKE_INSTALL_PREFIX=" + staging.getAbsolutePath());
+            if ( config != null )
+                parameters.add("-DBUILD_TYPE=" + config);
+            if ( component != null )
+                parameters.add("-DCOMPONENT=" + component);
+            parameters.add("-P");
+            parameters.add("cmake_install.cmake");
+        }
+        return parameters;
+    }
+
+    @Inject
+    protected abstract WorkerExecutor getWorkerExecutor();
+
+    @Inject
+    protected abstract FileSystemOperations getFileSystemOperations();
+
+    @TaskAction
+    public void install() {
+        File target = installFolder.getAsFile().get().getAbsoluteFile();
+        if ( buildInstallFolder.isPresent() && target.equals(buildInstallFolder.getAsFile().get().getAbsoluteFile()) )
+            throw new GradleException( "The install folder of " + getName() + " is the installFolder of the cmake build, " + target + ". Use another folder." );
+        File buildFolder = workingFolder.getAsFile().get();
+        File staging = new File(getTemporaryDir(), "staging");
+        boolean installOption = capabilities.get().get(executable.getOrNull()).isAtLeast(3, 15);
+
+        // staging is kept between runs, so cmake skips the files that are up to date
+        List<Path> manifests = runInstall(buildFolder, staging, installOption);
+        if ( !manifests.stream().allMatch(m -> m.toFile().isFile()) ) {
+            // all files of staging are taken, so files of earlier runs must not be there
+            getLogger().info("  CMakePlugin.task " + getName() + " - no install manifest, installing again into an empty " + staging);
+            getFileSystemOperations().delete(spec -> spec.delete(staging));
+            runInstall(buildFolder, staging, installOption);
+            manifests.clear();
+        }
+        try {
+            CMakeInstallSync.Result result = CMakeInstallSync.sync(staging.toPath().toAbsolutePath(), manifests,
+                    installFolder.getAsFile().get().toPath(), getTemporaryDir().toPath());
+            getLogger().lifecycle("  CMakePlugin.task " + getName() + " - " + result);
+        }
+        catch ( IOException e ) {
+            throw new GradleException( "Could not update install folder " + installFolder.getAsFile().get(), e );
+        }
+    }
+
+    private List<Path> runInstall(File buildFolder, File staging, boolean installOption) {
+        List<String> selected = components.get().isEmpty() ? Collections.singletonList(null) : components.get();
+        List<Path> manifests = new ArrayList<>();
+        for ( String component : selected ) {
+            // deleted first, so the manifest of an earlier run is not taken for this one
+            File manifest = new File(buildFolder, component == null ? "install_manifest.txt" : "install_manifest_" + component + ".txt");
+            manifest.delete();
+            manifests.add(manifest.toPath());
+
+            List<String> cmdLine = buildCmdLine(staging, component, installOption);
+            getWorkerExecutor().noIsolation().submit(CMakeExecWork.class, params -> {
+                params.getTaskName().set(getName());
+                params.getProjectPath().set(projectPath);
+                params.getPhase().set("install");
+                params.getMetrics().set(metrics);
+                params.getCommandLine().set(cmdLine);
+                params.getWorkingFolder().set(workingFolder);
+            });
+            // one component after the other, they may install the same files
+            getWorkerExecutor().await();
+        }
+        return manifests;
+    }
+}
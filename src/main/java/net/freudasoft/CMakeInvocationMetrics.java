@@ -0,0 +1,55 @@
+package net.freudasoft;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Timing and resource usage of one cmake invocation.
+ */
+class CMakeInvocationMetrics {
+    String projectPath;
+    String taskName;
+    String phase; // "configure", "build", ...
+    String workingFolder;
+    long startEpochMillis;
+    long wallMillis;
+    long cpuMillis = -1;
+    long peakRssBytes = -1;
+    int exitCode;
+    // durations cmake reports itself, like "configure" and "generate" of a configure run
+    final Map<String, Long> subPhaseMillis = new LinkedHashMap<>();
+    String profilingOutput;
+
+    String summary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("wall %.1fs", wallMillis / 1000.0));
+        if ( cpuMillis >= 0 )
+            sb.append(String.format(", cpu %.1fs", cpuMillis / 1000.0));
+        if ( peakRssBytes >= 0 )
+            sb.append(String.format(", peak rss %.0f MB", peakRssBytes / (1024.0 * 1024.0)));
+        for ( Map.Entry<String, Long> entry : subPhaseMillis.entrySet() )
+            sb.append(String.format(", %s %.1fs", entry.getKey(), entry.getValue() / 1000.0));
+        return sb.toString();
+    }
+
+    void write(CMakeJsonWriter json) throws IOException {
+        json.beginObject();
+        json.name("project").value(projectPath);
+        json.name("task").value(taskName);
+        json.name("phase").value(phase);
+        json.name("workingFolder").value(workingFolder);
+        json.name("startEpochMillis").value(startEpochMillis);
+        json.name("wallMillis").value(wallMillis);
+        json.name("cpuMillis").value(cpuMillis);
+        json.name("peakRssBytes").value(peakRssBytes);
+        json.name("exitCode").value(exitCode);
+        json.name("subPhases").beginObject();
+        for ( Map.Entry<String, Long> entry : subPhaseMillis.entrySet() )
+            json.name(entry.getKey()).value(entry.getValue().longValue());
+        json.endObject();
+        if ( profilingOutput != null )
+            json.name("profilingOutput").value(profilingOutput);
+        json.endObject();
+    }
+}
@@ -0,0 +1,180 @@
+package net.freudasoft;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Converts the JUnit file written by {@code ctest --output-junit} (ctest >= 3.21) into a report in the layout of
+ * gradle's test tasks (build/test-results/&lt;task&gt;/TEST-&lt;suite&gt;.xml), which CI servers pick up.
+ *
+ * The file is converted as a stream, element by element, so the output of large test suites is never held in memory.
+ */
+class CMakeJUnitReport {
+    static class Summary {
+        int tests;
+        int failures;
+        int skipped;
+        final List<String> failed = new ArrayList<>();
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(tests).append(" test(s), ").append(failures).append(" failed, ").append(skipped).append(" skipped");
+            if ( !failed.isEmpty() ) {
+                sb.append(": ");
+                // the full list is in the report
+                sb.append(String.join(", ", failed.subList(0, Math.min(10, failed.size()))));
+                if ( failed.size() > 10 )
+                    sb.append(", ...");
+            }
+            return sb.toString();
+        }
+    }
+
+    private CMakeJUnitReport() {
+    }
+
+    static Summary convert(File ctestJUnit, File report, String suiteName) throws IOException {
+        Files.createDirectories(report.getParentFile().toPath());
+        Summary summary = new Summary();
+        try ( InputStream in = Files.newInputStream(ctestJUnit.toPath()); OutputStream out = Files.newOutputStream(report.toPath()) ) {
+            XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+            inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+            inputFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+            XMLStreamReader reader = inputFactory.createXMLStreamReader(in);
+            XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+            try {
+                convert(reader, writer, suiteName, summary);
+            }
+            finally {
+                reader.close();
+                writer.close();
+            }
+        }
+        catch ( XMLStreamException e ) {
+            throw new IOException("Could not convert " + ctestJUnit + ": " + e.getMessage(), e);
+        }
+        return summary;
+    }
+
+    private static void convert(XMLStreamReader reader, XMLStreamWriter writer, String suiteName, Summary summary) throws XMLStreamException {
+        writer.writeStartDocument("UTF-8", "1.0");
+        String testcase = null;
+        while ( reader.hasNext() ) {
+            switch ( reader.next() ) {
+                case XMLStreamConstants.START_ELEMENT:
+                    String element = reader.getLocalName();
+                    writer.writeStartElement(element);
+                    switch ( element ) {
+                        case "testsuite":
+                            writeTestsuiteAttributes(reader, writer, suiteName);
+                            break;
+                        case "testcase":
+                            testcase = reader.getAttributeValue(null, "name");
+                            summary.tests++;
+                            writeTestcaseAttributes(reader, writer, suiteName);
+                            break;
+                        case "failure":
+                        case "error":
+                            summary.failures++;
+                            if ( testcase != null )
+                                summary.failed.add(testcase);
+                            copyAttributes(reader, writer);
+                            break;
+                        case "skipped":
+                            summary.skipped++;
+                            copyAttributes(reader, writer);
+                            break;
+                        default:
+                            copyAttributes(reader, writer);
+                            break;
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    if ( reader.getLocalName().equals("testcase") )
+                        testcase = null;
+                    writer.writeEndElement();
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.SPACE:
+                    if ( !reader.isWhiteSpace() )
+                        writer.writeCharacters(reader.getText());
+                    break;
+                case XMLStreamConstants.CDATA:
+                    writer.writeCData(reader.getText());
+                    break;
+                default:
+                    break;
+            }
+        }
+        writer.writeEndDocument();
+    }
+
+    private static void writeTestsuiteAttributes(XMLStreamReader reader, XMLStreamWriter writer, String suiteName) throws XMLStreamException {
+        int skipped = 0;
+        boolean hasErrors = false;
+        for ( int i = 0; i < reader.getAttributeCount(); i++ ) {
+            String name = reader.getAttributeLocalName(i);
+            String value = reader.getAttributeValue(i);
+            switch ( name ) {
+                case "name":
+                    // ctest names the suite after the project, gradle after the test class
+                    writer.writeAttribute(name, suiteName);
+                    break;
+                case "disabled":
+                case "skipped":
+                    // ctest counts disabled tests separately, junit only knows skipped ones
+                    skipped += parseInt(value);
+                    break;
+                case "errors":
+                    hasErrors = true;
+                    writer.writeAttribute(name, value);
+                    break;
+                default:
+                    writer.writeAttribute(name, value);
+                    break;
+            }
+        }
+        writer.writeAttribute("skipped", String.valueOf(skipped));
+        if ( !hasErrors )
+            writer.writeAttribute("errors", "0");
+    }
+
+    private static void writeTestcaseAttributes(XMLStreamReader reader, XMLStreamWriter writer, String suiteName) throws XMLStreamException {
+        for ( int i = 0; i < reader.getAttributeCount(); i++ ) {
+            String name = reader.getAttributeLocalName(i);
+            // ctest uses the test name as class name, group the tests of one task together instead
+            if ( name.equals("classname") )
+                writer.writeAttribute(name, suiteName);
+            // pass/fail is expressed by the child elements
+            else if ( !name.equals("status") )
+                writer.writeAttribute(name, reader.getAttributeValue(i));
+        }
+    }
+
+    private static void copyAttributes(XMLStreamReader reader, XMLStreamWriter writer) throws XMLStreamException {
+        for ( int i = 0; i < reader.getAttributeCount(); i++ )
+            writer.writeAttribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+    }
+
+    private static int parseInt(String value) {
+        try {
+            return Integer.parseInt(value.trim());
+        }
+        catch ( NumberFormatException e ) {
+            return 0;
+        }
+    }
+}
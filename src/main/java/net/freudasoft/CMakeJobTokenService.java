@@ -0,0 +1,145 @@
+package net.freudasoft;
+
+import org.gradle.api.Project;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Build wide pool of job tokens shared by all cmake build tasks of all projects.
+ * A build task takes one token (blocking) plus as many additional tokens as are free right now, up to its fair share
+ * of the pool among the tasks holding or waiting for tokens, and runs its native build with that many jobs. This keeps
+ * the total number of compiler processes near the configured maximum, no matter how many native projects gradle builds
+ * in parallel.
+ *
+ * The pool is configured by the gradle properties
+ * <ul>
+ *     <li>cmake.maxJobs - total number of jobs. default is the number of available processors.</li>
+ *     <li>cmake.compileJobMemoryMb - memory needed by one compile job, default 1024.</li>
+ *     <li>cmake.linkJobMemoryMb - memory needed by one link job, default 4096.</li>
+ * </ul>
+ * The memory settings size the compile and link job pools of the Ninja generators, so parallel jobs of a build fit into the physical memory.
+ * The pools are written into each build folder and limit the jobs of that build only; builds running in parallel are
+ * only limited together by the token count, not by memory.
+ */
+public abstract class CMakeJobTokenService implements BuildService<CMakeJobTokenService.Params> {
+    public static final String NAME = "cmakeJobTokens";
+    private static final int DEFAULT_COMPILE_JOB_MEMORY_MB = 1024;
+    private static final int DEFAULT_LINK_JOB_MEMORY_MB = 4096;
+
+    public interface Params extends BuildServiceParameters {
+        Property<Integer> getMaxJobs();
+        Property<Integer> getCompileJobMemoryMb();
+        Property<Integer> getLinkJobMemoryMb();
+    }
+
+    private final Semaphore tokens;
+    // tasks holding or waiting for tokens
+    private final AtomicInteger running = new AtomicInteger();
+
+    public CMakeJobTokenService() {
+        tokens = new Semaphore(getMaxJobs(), true);
+    }
+
+    static Provider<CMakeJobTokenService> register(Project project) {
+        return project.getGradle().getSharedServices().registerIfAbsent(NAME, CMakeJobTokenService.class, spec -> {
+            spec.getParameters().getMaxJobs().set( project.getProviders().gradleProperty("cmake.maxJobs").map(Integer::valueOf) );
+            spec.getParameters().getCompileJobMemoryMb().set( project.getProviders().gradleProperty("cmake.compileJobMemoryMb").map(Integer::valueOf) );
+            spec.getParameters().getLinkJobMemoryMb().set( project.getProviders().gradleProperty("cmake.linkJobMemoryMb").map(Integer::valueOf) );
+        });
+    }
+
+    public int getMaxJobs() {
+        int max = getParameters().getMaxJobs().getOrElse(0);
+        return max > 0 ? max : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * @return the number of compile jobs that fit into physical memory, at most the job count. 0 if the memory is not known.
+     */
+    public int getCompileJobs() {
+        return jobsInMemory(getParameters().getCompileJobMemoryMb().getOrElse(DEFAULT_COMPILE_JOB_MEMORY_MB));
+    }
+
+    /**
+     * @return the number of link jobs that fit into physical memory, at most the job count. 0 if the memory is not known.
+     */
+    public int getLinkJobs() {
+        return jobsInMemory(getParameters().getLinkJobMemoryMb().getOrElse(DEFAULT_LINK_JOB_MEMORY_MB));
+    }
+
+    /**
+     * @return true if the link job memory is set explicitly
+     */
+    public boolean isLinkJobMemorySet() {
+        return getParameters().getLinkJobMemoryMb().isPresent();
+    }
+
+    // total, not free memory: the pools are written into the build files and used by all later builds
+    private int jobsInMemory(int perJobMb) {
+        if ( perJobMb <= 0 )
+            return 0;
+        long totalMb = getTotalPhysicalMemory() / (1024L * 1024L);
+        if ( totalMb <= 0 )
+            return 0;
+        return (int)Math.max(1, Math.min(getMaxJobs(), totalMb / perJobMb));
+    }
+
+    /**
+     * Blocks until at least one token is available, then grabs up to {@code wanted} tokens, but not more than the
+     * fair share of the pool, so tasks started later don't run with one job while the first one holds all tokens.
+     * @return the number of tokens granted. Must be given back by {@link #release(int)}.
+     */
+    public int acquire(int wanted) throws InterruptedException {
+        running.incrementAndGet();
+        try {
+            tokens.acquire();
+        }
+        catch ( InterruptedException e ) {
+            running.decrementAndGet();
+            throw e;
+        }
+        int share = Math.max(1, getMaxJobs() / running.get());
+        int granted = 1;
+        while ( granted < Math.min(wanted, share) && tokens.tryAcquire() )
+            granted++;
+        return granted;
+    }
+
+    /**
+     * Blocks until all tokens are free and takes them, so no other native build runs alongside, e.g. while measuring.
+     * @return the number of tokens taken. Must be given back by {@link #release(int)}.
+     */
+    public int acquireAll() throws InterruptedException {
+        int all = getMaxJobs();
+        running.incrementAndGet();
+        try {
+            tokens.acquire(all);
+        }
+        catch ( InterruptedException e ) {
+            running.decrementAndGet();
+            throw e;
+        }
+        return all;
+    }
+
+    public void release(int granted) {
+        tokens.release(granted);
+        running.decrementAndGet();
+    }
+
+    // getTotalMemorySize, which replaces it, only exists since JDK 14
+    @SuppressWarnings("deprecation")
+    private static long getTotalPhysicalMemory() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if ( os instanceof com.sun.management.OperatingSystemMXBean )
+            return ((com.sun.management.OperatingSystemMXBean)os).getTotalPhysicalMemorySize();
+        return 0;
+    }
+}
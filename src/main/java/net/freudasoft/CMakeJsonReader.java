@@ -0,0 +1,303 @@
+package net.freudasoft;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Minimal streaming (pull) JSON reader for the files written by cmake, like the File API replies.
+ * Values are read one token at a time, so large replies are never held in memory as a tree.
+ */
+class CMakeJsonReader implements Closeable {
+    enum Token { BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT }
+
+    private enum Scope { TOP, EMPTY_OBJECT, NONEMPTY_OBJECT, DANGLING_NAME, EMPTY_ARRAY, NONEMPTY_ARRAY }
+
+    private final Reader in;
+    private final char[] buffer = new char[8192];
+    private int pos;
+    private int limit;
+
+    private final Deque<Scope> stack = new ArrayDeque<>();
+    private final StringBuilder text = new StringBuilder();
+    private Token peeked;
+    private String peekedValue;
+
+    CMakeJsonReader(Reader in) {
+        this.in = in;
+        stack.push(Scope.TOP);
+    }
+
+    Token peek() throws IOException {
+        if ( peeked != null )
+            return peeked;
+        int c;
+        switch ( stack.peek() ) {
+            case TOP:
+                c = nextNonWhitespace();
+                if ( c == -1 )
+                    return setPeeked(Token.END_DOCUMENT, null);
+                return readValue(c);
+            case EMPTY_ARRAY:
+                c = nextNonWhitespace();
+                if ( c == ']' )
+                    return setPeeked(Token.END_ARRAY, null);
+                replaceScope(Scope.NONEMPTY_ARRAY);
+                return readValue(c);
+            case NONEMPTY_ARRAY:
+                c = nextNonWhitespace();
+                if ( c == ']' )
+                    return setPeeked(Token.END_ARRAY, null);
+                if ( c != ',' )
+                    throw syntaxError("expected ',' or ']'");
+                return readValue(nextNonWhitespace());
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT:
+                c = nextNonWhitespace();
+                if ( c == '}' )
+                    return setPeeked(Token.END_OBJECT, null);
+                if ( stack.peek() == Scope.NONEMPTY_OBJECT ) {
+                    if ( c != ',' )
+                        throw syntaxError("expected ',' or '}'");
+                    c = nextNonWhitespace();
+                }
+                if ( c != '"' )
+                    throw syntaxError("expected a name");
+                replaceScope(Scope.DANGLING_NAME);
+                return setPeeked(Token.NAME, readString());
+            case DANGLING_NAME:
+                if ( nextNonWhitespace() != ':' )
+                    throw syntaxError("expected ':'");
+                replaceScope(Scope.NONEMPTY_OBJECT);
+                return readValue(nextNonWhitespace());
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    boolean hasNext() throws IOException {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    void beginObject() throws IOException {
+        consume(Token.BEGIN_OBJECT);
+        stack.push(Scope.EMPTY_OBJECT);
+    }
+
+    void endObject() throws IOException {
+        consume(Token.END_OBJECT);
+        stack.pop();
+    }
+
+    void beginArray() throws IOException {
+        consume(Token.BEGIN_ARRAY);
+        stack.push(Scope.EMPTY_ARRAY);
+    }
+
+    void endArray() throws IOException {
+        consume(Token.END_ARRAY);
+        stack.pop();
+    }
+
+    String nextName() throws IOException {
+        return consume(Token.NAME);
+    }
+
+    String nextString() throws IOException {
+        Token token = peek();
+        if ( token != Token.STRING && token != Token.NUMBER && token != Token.BOOLEAN )
+            throw syntaxError("expected a string but was " + token);
+        return consume(token);
+    }
+
+    long nextLong() throws IOException {
+        String value = consume(Token.NUMBER);
+        try {
+            return value.indexOf('.') < 0 && value.indexOf('e') < 0 && value.indexOf('E') < 0 ? Long.parseLong(value) : (long)Double.parseDouble(value);
+        }
+        catch ( NumberFormatException e ) {
+            throw syntaxError("invalid number " + value);
+        }
+    }
+
+    int nextInt() throws IOException {
+        return (int)nextLong();
+    }
+
+    boolean nextBoolean() throws IOException {
+        return Boolean.parseBoolean(consume(Token.BOOLEAN));
+    }
+
+    void nextNull() throws IOException {
+        consume(Token.NULL);
+    }
+
+    /**
+     * Skips the next value, including all nested objects and arrays.
+     */
+    void skipValue() throws IOException {
+        int depth = 0;
+        do {
+            switch ( peek() ) {
+                case BEGIN_OBJECT:
+                    beginObject();
+                    depth++;
+                    break;
+                case BEGIN_ARRAY:
+                    beginArray();
+                    depth++;
+                    break;
+                case END_OBJECT:
+                    endObject();
+                    depth--;
+                    break;
+                case END_ARRAY:
+                    endArray();
+                    depth--;
+                    break;
+                case END_DOCUMENT:
+                    throw syntaxError("unexpected end of document");
+                default:
+                    peeked = null;
+                    break;
+            }
+        } while ( depth > 0 );
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private String consume(Token expected) throws IOException {
+        Token token = peek();
+        if ( token != expected )
+            throw syntaxError("expected " + expected + " but was " + token);
+        String value = peekedValue;
+        peeked = null;
+        peekedValue = null;
+        return value;
+    }
+
+    private Token setPeeked(Token token, String value) {
+        peeked = token;
+        peekedValue = value;
+        return token;
+    }
+
+    private void replaceScope(Scope scope) {
+        stack.pop();
+        stack.push(scope);
+    }
+
+    private Token readValue(int c) throws IOException {
+        switch ( c ) {
+            case '{':
+                return setPeeked(Token.BEGIN_OBJECT, null);
+            case '[':
+                return setPeeked(Token.BEGIN_ARRAY, null);
+            case '"':
+                return setPeeked(Token.STRING, readString());
+            case 't':
+                expectLiteral("rue");
+                return setPeeked(Token.BOOLEAN, "true");
+            case 'f':
+                expectLiteral("alse");
+                return setPeeked(Token.BOOLEAN, "false");
+            case 'n':
+                expectLiteral("ull");
+                return setPeeked(Token.NULL, null);
+            case -1:
+                throw syntaxError("unexpected end of document");
+            default:
+                if ( c != '-' && ( c < '0' || c > '9' ) )
+                    throw syntaxError("unexpected character '" + (char)c + "'");
+                text.setLength(0);
+                text.append((char)c);
+                while ( fill() ) {
+                    char n = buffer[pos];
+                    if ( ( n < '0' || n > '9' ) && n != '.' && n != 'e' && n != 'E' && n != '+' && n != '-' )
+                        break;
+                    text.append(n);
+                    pos++;
+                }
+                return setPeeked(Token.NUMBER, text.toString());
+        }
+    }
+
+    private String readString() throws IOException {
+        text.setLength(0);
+        while ( true ) {
+            int c = read();
+            if ( c == -1 )
+                throw syntaxError("unterminated string");
+            if ( c == '"' )
+                return text.toString();
+            if ( c != '\\' ) {
+                text.append((char)c);
+                continue;
+            }
+            c = read();
+            switch ( c ) {
+                case 'n': text.append('\n'); break;
+                case 't': text.append('\t'); break;
+                case 'r': text.append('\r'); break;
+                case 'b': text.append('\b'); break;
+                case 'f': text.append('\f'); break;
+                case 'u':
+                    int code = 0;
+                    for ( int i = 0; i < 4; i++ ) {
+                        int digit = Character.digit(read(), 16);
+                        if ( digit < 0 )
+                            throw syntaxError("invalid unicode escape");
+                        code = code * 16 + digit;
+                    }
+                    text.append((char)code);
+                    break;
+                case -1:
+                    throw syntaxError("unterminated string");
+                default:
+                    text.append((char)c); // \" \\ \/
+                    break;
+            }
+        }
+    }
+
+    private void expectLiteral(String rest) throws IOException {
+        for ( int i = 0; i < rest.length(); i++ ) {
+            if ( read() != rest.charAt(i) )
+                throw syntaxError("invalid literal");
+        }
+    }
+
+    private int nextNonWhitespace() throws IOException {
+        int c;
+        do {
+            c = read();
+        } while ( c == ' ' || c == '\t' || c == '\n' || c == '\r' );
+        return c;
+    }
+
+    private int read() throws IOException {
+        return fill() ? buffer[pos++] : -1;
+    }
+
+    private boolean fill() throws IOException {
+        if ( pos < limit )
+            return true;
+        limit = in.read(buffer, 0, buffer.length);
+        pos = 0;
+        if ( limit <= 0 ) {
+            limit = 0;
+            return false;
+        }
+        return true;
+    }
+
+    private IOException syntaxError(String message) {
+        return new IOException("Malformed JSON: " + message);
+    }
+}
@@ -0,0 +1,138 @@
+package net.freudasoft;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Minimal streaming JSON writer for the reports written by the plugin.
+ */
+class CMakeJsonWriter implements Closeable {
+    private final Writer out;
+    private boolean needComma;
+    private boolean afterOpen;
+    private int depth;
+
+    CMakeJsonWriter(Writer out) {
+        this.out = out;
+    }
+
+    CMakeJsonWriter beginObject() throws IOException {
+        beforeValue();
+        out.write('{');
+        depth++;
+        needComma = false;
+        afterOpen = true;
+        return this;
+    }
+
+    CMakeJsonWriter endObject() throws IOException {
+        depth--;
+        if ( !afterOpen )
+            newline();
+        afterOpen = false;
+        out.write('}');
+        needComma = true;
+        return this;
+    }
+
+    CMakeJsonWriter beginArray() throws IOException {
+        beforeValue();
+        out.write('[');
+        depth++;
+        needComma = false;
+        afterOpen = true;
+        return this;
+    }
+
+    CMakeJsonWriter endArray() throws IOException {
+        depth--;
+        if ( !afterOpen )
+            newline();
+        afterOpen = false;
+        out.write(']');
+        needComma = true;
+        return this;
+    }
+
+    CMakeJsonWriter name(String name) throws IOException {
+        beforeValue();
+        string(name);
+        out.write(": ");
+        needComma = false;
+        return this;
+    }
+
+    CMakeJsonWriter value(String value) throws IOException {
+        beforeValue();
+        if ( value == null )
+            out.write("null");
+        else
+            string(value);
+        needComma = true;
+        return this;
+    }
+
+    CMakeJsonWriter value(long value) throws IOException {
+        beforeValue();
+        out.write(Long.toString(value));
+        needComma = true;
+        return this;
+    }
+
+    CMakeJsonWriter value(double value) throws IOException {
+        beforeValue();
+        out.write(Double.isNaN(value) || Double.isInfinite(value) ? "null" : Double.toString(value));
+        needComma = true;
+        return this;
+    }
+
+    CMakeJsonWriter value(boolean value) throws IOException {
+        beforeValue();
+        out.write(value ? "true" : "false");
+        needComma = true;
+        return this;
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.write('\n');
+        out.close();
+    }
+
+    private void beforeValue() throws IOException {
+        if ( needComma ) {
+            out.write(',');
+            newline();
+        }
+        else if ( afterOpen )
+            newline();
+        afterOpen = false;
+    }
+
+    private void newline() throws IOException {
+        out.write('\n');
+        for ( int i = 0; i < depth; i++ )
+            out.write("  ");
+    }
+
+    private void string(String s) throws IOException {
+        out.write('"');
+        for ( int i = 0; i < s.length(); i++ ) {
+            char c = s.charAt(i);
+            switch ( c ) {
+                case '"': out.write("\\\""); break;
+                case '\\': out.write("\\\\"); break;
+                case '\n': out.write("\\n"); break;
+                case '\r': out.write("\\r"); break;
+                case '\t': out.write("\\t"); break;
+                default:
+                    if ( c < 0x20 )
+                        out.write(String.format("\\u%04x", (int)c));
+                    else
+                        out.write(c);
+            }
+        }
+        out.write('"');
+    }
+}
@@ -0,0 +1,57 @@
+package net.freudasoft;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Collects output lines and hands them to the logger as one message per batch instead of one per line.
+ *
+ * A batch is written when it is full, and at the latest after a short interval, so slow output such as
+ * build progress still shows up promptly.
+ */
+class CMakeLogBatcher implements AutoCloseable {
+    private static final int MAX_LINES = 500;
+    private static final long FLUSH_INTERVAL_MILLIS = 200;
+
+    private static final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "cmake-log-flusher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Consumer<String> sink;
+    private final StringBuilder batch = new StringBuilder();
+    private final ScheduledFuture<?> timer;
+    private int lines;
+
+    CMakeLogBatcher( Consumer<String> sink ) {
+        this.sink = sink;
+        this.timer = flusher.scheduleWithFixedDelay(this::flush, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    synchronized void add(String line) {
+        if ( lines > 0 )
+            batch.append(System.lineSeparator());
+        batch.append(line);
+        if ( ++lines >= MAX_LINES )
+            flush();
+    }
+
+    synchronized void flush() {
+        if ( lines == 0 )
+            return;
+        String message = batch.toString();
+        batch.setLength(0);
+        lines = 0;
+        sink.accept(message);
+    }
+
+    @Override
+    public void close() {
+        timer.cancel(false);
+        flush();
+    }
+}
@@ -0,0 +1,81 @@
+package net.freudasoft;
+
+import org.gradle.api.Project;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the metrics of all cmake invocations of a build, across all projects and variants,
+ * and writes them into one JSON file when the build finishes.
+ * The default location is build/reports/cmake/metrics.json of the root project.
+ */
+public abstract class CMakeMetricsService implements BuildService<CMakeMetricsService.Params>, AutoCloseable {
+    public static final String NAME = "cmakeMetrics";
+
+    public interface Params extends BuildServiceParameters {
+        RegularFileProperty getOutputFile();
+    }
+
+    private final long buildStartEpochMillis = System.currentTimeMillis();
+    private final List<CMakeInvocationMetrics> invocations = new ArrayList<>();
+
+    static Provider<CMakeMetricsService> register(Project project) {
+        return project.getGradle().getSharedServices().registerIfAbsent(NAME, CMakeMetricsService.class, spec ->
+                spec.getParameters().getOutputFile().set(project.getRootProject().getLayout().getBuildDirectory().file("reports/cmake/metrics.json")));
+    }
+
+    synchronized void record(CMakeInvocationMetrics metrics) {
+        invocations.add(metrics);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if ( invocations.isEmpty() )
+            return;
+        File file = getParameters().getOutputFile().getAsFile().get();
+        Files.createDirectories(file.getParentFile().toPath());
+
+        // totals per phase, over all projects
+        Map<String, long[]> totals = new LinkedHashMap<>();
+        for ( CMakeInvocationMetrics m : invocations ) {
+            long[] t = totals.computeIfAbsent(m.phase, k -> new long[] { 0, 0, -1 });
+            t[0] += m.wallMillis;
+            t[1] += Math.max(0, m.cpuMillis);
+            t[2] = Math.max(t[2], m.peakRssBytes);
+        }
+
+        try ( CMakeJsonWriter json = new CMakeJsonWriter(new OutputStreamWriter(Files.newOutputStream(file.toPath()), StandardCharsets.UTF_8)) ) {
+            json.beginObject();
+            json.name("buildStartEpochMillis").value(buildStartEpochMillis);
+            json.name("buildEndEpochMillis").value(System.currentTimeMillis());
+            json.name("totals").beginObject();
+            for ( Map.Entry<String, long[]> entry : totals.entrySet() ) {
+                json.name(entry.getKey()).beginObject();
+                json.name("wallMillis").value(entry.getValue()[0]);
+                json.name("cpuMillis").value(entry.getValue()[1]);
+                json.name("maxPeakRssBytes").value(entry.getValue()[2]);
+                json.endObject();
+            }
+            json.endObject();
+            json.name("invocations").beginArray();
+            for ( CMakeInvocationMetrics m : invocations )
+                m.write(json);
+            json.endArray();
+            json.endObject();
+        }
+        Logging.getLogger(CMakeMetricsService.class).info("CMake metrics written to " + file);
+    }
+}
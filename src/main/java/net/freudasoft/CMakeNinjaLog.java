@@ -0,0 +1,239 @@
+package net.freudasoft;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Analysis of the .ninja_log written by the Ninja generators: slowest translation units,
+ * the critical path and the achieved parallelism of one build.
+ *
+ * Ninja appends one line per finished output to the log, so the entries of a build are the lines appended
+ * after the size the log had before the build. Only that part of the file is read.
+ * Ninja recompacts the log when it has too many stale entries, rewriting it from the start. The log was recompacted
+ * if it is shorter than before or starts with another entry, then the whole log is read and the build is taken to
+ * start where the end times drop.
+ */
+class CMakeNinjaLog {
+    static final String LOG_FILE = ".ninja_log";
+    private static final int SLOWEST = 20;
+
+    static class Edge {
+        final long startMillis;
+        final long endMillis;
+        final String output;
+
+        Edge(long startMillis, long endMillis, String output) {
+            this.startMillis = startMillis;
+            this.endMillis = endMillis;
+            this.output = output;
+        }
+
+        long duration() {
+            return endMillis - startMillis;
+        }
+    }
+
+    /**
+     * State of the log before a build.
+     */
+    static class Mark {
+        final long size;
+        // first line after the header, null if there is none
+        final String firstEntry;
+
+        Mark(long size, String firstEntry) {
+            this.size = size;
+            this.firstEntry = firstEntry;
+        }
+    }
+
+    private CMakeNinjaLog() {
+    }
+
+    /**
+     * @return the state of the log, null if there is none
+     */
+    static Mark mark(File workingFolder) {
+        File log = new File(workingFolder, LOG_FILE);
+        if ( !log.isFile() )
+            return null;
+        try {
+            return new Mark(log.length(), firstEntry(log));
+        }
+        catch ( IOException e ) {
+            return null;
+        }
+    }
+
+    /**
+     * @param before the state of the log before the build, or null if there was none
+     * @return the edges finished by the last build
+     */
+    static List<Edge> readNewEdges(File workingFolder, Mark before) throws IOException {
+        File log = new File(workingFolder, LOG_FILE);
+        if ( !log.isFile() )
+            return Collections.emptyList();
+        // without a log before the build, the whole log belongs to this build
+        boolean recompacted = before != null && ( log.length() < before.size || before.firstEntry != null && !before.firstEntry.equals(firstEntry(log)) );
+        List<Edge> edges = new ArrayList<>();
+        try ( RandomAccessFile file = new RandomAccessFile(log, "r") ) {
+            file.seek(recompacted || before == null ? 0 : before.size);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(file.getChannel()), StandardCharsets.UTF_8));
+            Set<String> seen = new HashSet<>();
+            String line;
+            long lastEnd = -1;
+            while ( (line = reader.readLine()) != null ) {
+                if ( line.startsWith("#") )
+                    continue;
+                // start end mtime output hash
+                String[] fields = line.split("\t");
+                if ( fields.length < 5 )
+                    continue;
+                long start;
+                long end;
+                try {
+                    start = Long.parseLong(fields[0]);
+                    end = Long.parseLong(fields[1]);
+                }
+                catch ( NumberFormatException e ) {
+                    continue;
+                }
+                // ninja writes entries in order of completion. If the log was recompacted, a new build starts where the end time drops.
+                if ( recompacted && end < lastEnd ) {
+                    edges.clear();
+                    seen.clear();
+                }
+                lastEnd = end;
+                // edges with several outputs have one line per output
+                if ( seen.add(start + "/" + end + "/" + fields[4]) )
+                    edges.add(new Edge(start, end, fields[3]));
+            }
+        }
+        return edges;
+    }
+
+    private static String firstEntry(File log) throws IOException {
+        try ( BufferedReader reader = Files.newBufferedReader(log.toPath(), StandardCharsets.UTF_8) ) {
+            String line;
+            while ( (line = reader.readLine()) != null ) {
+                if ( !line.startsWith("#") )
+                    return line;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Writes the report as JSON and returns a short summary for the log.
+     */
+    static String writeReport(List<Edge> edges, int jobs, File report) throws IOException {
+        long first = Long.MAX_VALUE;
+        long last = 0;
+        long busy = 0;
+        for ( Edge edge : edges ) {
+            first = Math.min(first, edge.startMillis);
+            last = Math.max(last, edge.endMillis);
+            busy += edge.duration();
+        }
+        long wall = edges.isEmpty() ? 0 : last - first;
+        double parallelism = wall > 0 ? (double)busy / wall : 0;
+
+        List<Edge> translationUnits = new ArrayList<>();
+        for ( Edge edge : edges ) {
+            if ( edge.output.endsWith(".o") || edge.output.endsWith(".obj") )
+                translationUnits.add(edge);
+        }
+        translationUnits.sort(Comparator.comparingLong(Edge::duration).reversed());
+
+        List<Edge> criticalPath = criticalPath(edges);
+        long criticalMillis = 0;
+        for ( Edge edge : criticalPath )
+            criticalMillis += edge.duration();
+
+        Files.createDirectories(report.getParentFile().toPath());
+        try ( CMakeJsonWriter json = new CMakeJsonWriter(new OutputStreamWriter(Files.newOutputStream(report.toPath()), StandardCharsets.UTF_8)) ) {
+            json.beginObject();
+            json.name("edges").value(edges.size());
+            json.name("wallMillis").value(wall);
+            json.name("busyMillis").value(busy);
+            json.name("jobs").value(jobs);
+            json.name("parallelism").value(Math.round(parallelism * 100) / 100.0);
+            json.name("utilization").value(jobs > 0 ? Math.round(parallelism / jobs * 1000) / 1000.0 : 0);
+            json.name("slowestTranslationUnits").beginArray();
+            for ( Edge edge : translationUnits.subList(0, Math.min(SLOWEST, translationUnits.size())) )
+                writeEdge(json, edge);
+            json.endArray();
+            json.name("criticalPathMillis").value(criticalMillis);
+            json.name("criticalPath").beginArray();
+            for ( Edge edge : criticalPath )
+                writeEdge(json, edge);
+            json.endArray();
+            json.endObject();
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("ninja: %d edges in %.1fs, parallelism %.1f of %d jobs, critical path %.1fs",
+                edges.size(), wall / 1000.0, parallelism, jobs, criticalMillis / 1000.0));
+        if ( !translationUnits.isEmpty() )
+            sb.append(String.format(", slowest %s (%.1fs)", translationUnits.get(0).output, translationUnits.get(0).duration() / 1000.0));
+        return sb.toString();
+    }
+
+    /**
+     * The log has no dependency information, so the critical path is estimated from the timing: starting with the edge
+     * that finished last, the predecessor of an edge is the edge that finished last before it started.
+     */
+    private static List<Edge> criticalPath(List<Edge> edges) {
+        if ( edges.isEmpty() )
+            return Collections.emptyList();
+        List<Edge> byEnd = new ArrayList<>(edges);
+        byEnd.sort(Comparator.comparingLong((Edge e) -> e.endMillis));
+        List<Edge> path = new ArrayList<>();
+        int index = byEnd.size() - 1;
+        Edge current = byEnd.get(index);
+        path.add(current);
+        while ( true ) {
+            // binary search for the last edge with endMillis <= current.startMillis
+            int lo = 0;
+            int hi = index - 1;
+            int found = -1;
+            while ( lo <= hi ) {
+                int mid = (lo + hi) >>> 1;
+                if ( byEnd.get(mid).endMillis <= current.startMillis ) {
+                    found = mid;
+                    lo = mid + 1;
+                }
+                else
+                    hi = mid - 1;
+            }
+            if ( found < 0 )
+                break;
+            index = found;
+            current = byEnd.get(index);
+            path.add(current);
+        }
+        Collections.reverse(path);
+        return path;
+    }
+
+    private static void writeEdge(CMakeJsonWriter json, Edge edge) throws IOException {
+        json.beginObject();
+        json.name("output").value(edge.output);
+        json.name("startMillis").value(edge.startMillis);
+        json.name("durationMillis").value(edge.duration());
+        json.endObject();
+    }
+}
@@ -0,0 +1,74 @@
+package net.freudasoft;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Drains one output stream of a child process on its own thread.
+ * Every line is handed to a consumer as soon as it is read, and the last lines are kept
+ * in a fixed size ring buffer so they can be reported when the process fails.
+ */
+class CMakeOutputPump implements Runnable {
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_TAIL_LINE_LENGTH = 1024;
+
+    private final InputStream stream;
+    private final Consumer<String> consumer;
+    private final int tailSize;
+    private final Deque<String> tail;
+    private IOException failure;
+    private Thread thread;
+
+    CMakeOutputPump( InputStream stream, Consumer<String> consumer, int tailSize ) {
+        this.stream = stream;
+        this.consumer = consumer;
+        this.tailSize = tailSize;
+        this.tail = new ArrayDeque<>(tailSize);
+    }
+
+    void start(String threadName) {
+        thread = new Thread(this, threadName);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void join() throws InterruptedException, IOException {
+        if ( thread != null )
+            thread.join();
+        if ( failure != null )
+            throw failure;
+    }
+
+    @Override
+    public void run() {
+        try ( BufferedReader reader = new BufferedReader(new InputStreamReader(stream), READ_BUFFER_SIZE) ) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                consumer.accept(line);
+                remember(line);
+            }
+        }
+        catch ( IOException e ) {
+            failure = e;
+        }
+    }
+
+    private synchronized void remember(String line) {
+        if ( tailSize <= 0 )
+            return;
+        if ( tail.size() == tailSize )
+            tail.removeFirst();
+        tail.addLast( line.length() > MAX_TAIL_LINE_LENGTH ? line.substring(0, MAX_TAIL_LINE_LENGTH) + "..." : line );
+    }
+
+    synchronized List<String> getTail() {
+        return new ArrayList<>(tail);
+    }
+}
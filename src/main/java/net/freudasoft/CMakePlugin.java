@@ -17,108 +17,305 @@
 package net.freudasoft;
 
 import org.gradle.api.*;
-import org.gradle.api.logging.LogLevel;
+import org.gradle.api.file.ConfigurableFileTree;
 import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
 import org.gradle.api.tasks.Input;
-import org.gradle.api.tasks.TaskContainer;
+import org.gradle.api.tasks.TaskProvider;
+import org.gradle.build.event.BuildEventsListenerRegistry;
+
+import javax.inject.Inject;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class CMakePlugin implements Plugin<Project> {
-    private boolean deleteDirectory(File directoryToBeDeleted) {
-        File[] allContents = directoryToBeDeleted.listFiles();
-        if (allContents != null) {
-            for (File file : allContents) {
-                deleteDirectory(file);
-            }
+    // helper targets of the Visual Studio and Xcode generators
+    private static final Set<String> GENERATOR_TARGETS = new HashSet<>(Arrays.asList("ALL_BUILD", "ZERO_CHECK", "INSTALL", "PACKAGE", "RUN_TESTS"));
+    private static final String[] HEADER_PATTERNS = { "**/*.h", "**/*.hh", "**/*.hpp", "**/*.hxx", "**/*.inl", "**/*.ipp", "**/*.tpp" };
+
+    private static void configureConfigureTask(CMakeConfigureTask task, CMakePluginExtension extension) {
+        task.getExecutable().set(extension.getExecutable());
+        task.getWorkingFolder().set(extension.getWorkingFolder());
+        task.getSourceFolder().set(extension.getSourceFolder());
+        task.getConfigurationTypes().set(extension.getConfigurationTypes());
+        task.getBuildType().set(extension.getBuildType());
+        task.getInstallPrefix().set(extension.getInstallPrefix());
+        task.getGenerator().set(extension.getGenerator());
+        task.getPlatform().set(extension.getPlatform());
+        task.getToolset().set(extension.getToolset());
+        task.getToolchainFile().set(extension.getToolchainFile());
+        task.getBuildSharedLibs().set(extension.getBuildSharedLibs());
+        task.getBuildStaticLibs().set(extension.getBuildStaticLibs());
+        task.getDef().set(extension.getDef());
+        task.getCompilerLauncher().set(extension.getCompilerLauncher());
+        task.getCompilerCacheDir().set(extension.getCompilerCacheDir());
+        task.getCompilerCacheSize().set(extension.getCompilerCacheSize());
+        task.getProfileConfigure().set(extension.getProfileConfigure());
+        task.getShareInitialCache().set(extension.getShareInitialCache());
+        task.getFetchContentCacheDir().set(extension.getFetchContentCacheDir());
+        task.getFetchContentCacheSize().set(extension.getFetchContentCacheSize());
+        task.getUnitySettings().set(extension.getUnitySettingsFile());
+        // gradle cmakeTuneUnity cmakeBuild
+        task.mustRunAfter("cmakeTuneUnity");
+    }
+
+    private static void configureBuildTask(CMakeBuildTask task, CMakePluginExtension extension) {
+        task.getExecutable().set(extension.getExecutable());
+        task.getWorkingFolder().set(extension.getWorkingFolder());
+        task.getSourceFolder().set(extension.getSourceFolder());
+        task.getBuildConfig().set(extension.getBuildConfig());
+        task.getBuildClean().set(extension.getBuildClean());
+        task.getParallelJobs().set(extension.getParallelJobs());
+        task.getCompilerLauncher().set(extension.getCompilerLauncher());
+        task.getCompilerCacheDir().set(extension.getCompilerCacheDir());
+        task.getCompilerCacheSize().set(extension.getCompilerCacheSize());
+    }
+
+    /**
+     * Registers a cmakeBuild&lt;Target&gt; task for every target of an already configured working folder,
+     * with the target's sources as inputs and its artifacts as outputs, depending on the tasks of the targets it depends on.
+     * Until cmakeConfigure ran for the first time there is no File API reply, requested target tasks are created by registerTargetTaskRule.
+     */
+    private static void registerTargetTasks(Project project, CMakePluginExtension extension) {
+        File buildFolder = extension.getWorkingFolder().getAsFile().get();
+        Provider<CMakeBuildFolderLock> lock = CMakeBuildFolderLock.register(project, buildFolder);
+        project.getTasks().named("cmakeBuild", CMakeBuildTask.class, task -> task.usesService(lock));
+        project.getTasks().named("cmakeClean", CMakeCleanTask.class, task -> task.usesService(lock));
+        project.getTasks().named("cmakeTest", CMakeTestTask.class, task -> task.usesService(lock));
+        project.getTasks().named("cmakeInstall", CMakeInstallTask.class, task -> task.usesService(lock));
+
+        CMakeCodeModel model;
+        try {
+            model = CMakeFileApi.readCodeModel(buildFolder);
+        }
+        catch ( IOException e ) {
+            project.getLogger().warn("Could not read the cmake File API reply in " + buildFolder + ": " + e.getMessage());
+            return;
+        }
+        if ( model == null )
+            return;
+
+        // single-config generators have exactly one configuration, named after CMAKE_BUILD_TYPE
+        String config = model.getConfigurations().size() == 1 ? null : extension.getBuildConfig().getOrNull();
+        List<CMakeCodeModel.Target> targets = model.getTargets(config);
+
+        project.getTasks().named("cmakeInstall", CMakeInstallTask.class, task -> {
+            for ( CMakeCodeModel.Target target : targets )
+                task.getInstallInputs().from(target.getArtifacts());
+        });
+
+        if ( !extension.getTargetTasks().get() )
+            return;
+
+        Map<String, String> taskNameById = new HashMap<>();
+        Map<String, CMakeCodeModel.Target> targetById = new HashMap<>();
+        for ( CMakeCodeModel.Target target : targets ) {
+            String taskName = "cmakeBuild" + taskSuffix(target.getName());
+            if ( GENERATOR_TARGETS.contains(target.getName()) || project.getTasks().getNames().contains(taskName) )
+                continue;
+            taskNameById.put(target.getId(), taskName);
+            targetById.put(target.getId(), target);
+        }
+
+        for ( Map.Entry<String, String> entry : taskNameById.entrySet() ) {
+            CMakeCodeModel.Target target = targetById.get(entry.getKey());
+            project.getTasks().register(entry.getValue(), CMakeBuildTask.class, task -> {
+                configureBuildTask(task, extension);
+                task.setDescription("Build the CMake target " + target.getName());
+                task.getBuildTarget().set(target.getName());
+                task.getArtifacts().setFrom(target.getArtifacts());
+
+                // headers are usually not listed as target sources, so all headers of the source tree are inputs
+                ConfigurableFileTree headers = project.getObjects().fileTree().from(extension.getSourceFolder());
+                headers.include(HEADER_PATTERNS);
+                task.getSourceFiles().setFrom(target.getSources(), headers);
+
+                task.dependsOn("cmakeConfigure");
+                for ( String dependency : target.getDependencies() ) {
+                    String dependencyTask = taskNameById.get(dependency);
+                    if ( dependencyTask != null ) {
+                        task.dependsOn(dependencyTask);
+                        task.getSourceFiles().from(targetById.get(dependency).getArtifacts());
+                    }
+                }
+                task.usesService(lock);
+            });
+        }
+    }
+
+    /**
+     * Creates a requested cmakeBuild&lt;Target&gt; task that registerTargetTasks did not create because there was no File API
+     * reply yet, like in a fresh checkout or after cmakeClean. The target is looked up in the reply when the task runs,
+     * after cmakeConfigure. Without the reply, the task has no artifacts and no dependencies on other target tasks.
+     */
+    private static void registerTargetTaskRule(Project project, CMakePluginExtension extension) {
+        project.getTasks().addRule("Pattern: cmakeBuild<Target>: builds a CMake target", taskName -> {
+            String suffix = taskName.startsWith("cmakeBuild") ? taskName.substring("cmakeBuild".length()) : "";
+            if ( suffix.isEmpty() || !Character.isUpperCase(suffix.charAt(0)) || !extension.getTargetTasks().get() )
+                return;
+            project.getTasks().register(taskName, CMakeBuildTask.class, task -> {
+                configureBuildTask(task, extension);
+                task.setDescription("Build the CMake target of " + taskName);
+                task.getTargetTaskSuffix().set(suffix);
+                task.dependsOn("cmakeConfigure");
+                task.mustRunAfter("cmakeClean");
+                task.usesService(CMakeBuildFolderLock.register(project, extension.getWorkingFolder().getAsFile().get()));
+            });
+        });
+    }
+
+    private static void registerVariantTasks(Project project, CMakePluginExtension extension, CMakeVariant variant) {
+        String suffix = taskSuffix(variant.getName());
+        String configureTaskName = "cmakeConfigure" + suffix;
+
+        project.getTasks().register(configureTaskName, CMakeConfigureTask.class, task -> {
+            configureConfigureTask(task, extension);
+            task.setDescription("Configure the " + variant.getName() + " variant with CMake");
+            task.getWorkingFolder().set(variant.getWorkingFolder());
+            task.getBuildType().set(variant.getBuildType().orElse(extension.getBuildType()));
+            task.getGenerator().set(variant.getGenerator().orElse(extension.getGenerator()));
+            task.getPlatform().set(variant.getPlatform().orElse(extension.getPlatform()));
+            task.getToolset().set(variant.getToolset().orElse(extension.getToolset()));
+            task.getToolchainFile().set(variant.getToolchainFile().orElse(extension.getToolchainFile()));
+            task.getDef().putAll(variant.getDef());
+        });
+
+        project.getTasks().register("cmakeBuild" + suffix, CMakeBuildTask.class, task -> {
+            configureBuildTask(task, extension);
+            task.setDescription("Build the " + variant.getName() + " variant with CMake");
+            task.getWorkingFolder().set(variant.getWorkingFolder());
+            // single-config generators build what CMAKE_BUILD_TYPE selected, multi-config generators need --config
+            task.getBuildConfig().set(variant.getBuildConfig().orElse(variant.getBuildType()).orElse(extension.getBuildConfig()));
+            task.getBuildTarget().set(variant.getBuildTarget().orElse(extension.getBuildTarget()));
+            task.dependsOn(configureTaskName);
+            task.usesService(CMakeBuildFolderLock.register(project, variant.getWorkingFolder().getAsFile().get()));
+        });
+    }
+
+    static String taskSuffix(String targetName) {
+        StringBuilder sb = new StringBuilder();
+        for ( String part : targetName.split("[^A-Za-z0-9]+") ) {
+            if ( !part.isEmpty() )
+                sb.append(Character.toUpperCase(part.charAt(0))).append(part.substring(1));
         }
-        return directoryToBeDeleted.delete();
+        return sb.toString();
+    }
+
+    private final BuildEventsListenerRegistry listenerRegistry;
+
+    @Inject
+    public CMakePlugin(BuildEventsListenerRegistry listenerRegistry) {
+        this.listenerRegistry = listenerRegistry;
     }
 
     @Override
     public void apply(Project project) {
         CMakePluginExtension extension = project.getExtensions().create("cmake", CMakePluginExtension.class, project);
 
+        // kill running native builds when another task fails
+        Provider<CMakeCancellationService> cancellation = project.getGradle().getSharedServices().registerIfAbsent(CMakeCancellationService.NAME, CMakeCancellationService.class,
+                spec -> spec.getParameters().getContinueOnFailure().set(project.getGradle().getStartParameter().isContinueOnFailure()));
+        listenerRegistry.onTaskCompletion(cancellation);
+
         /*
          * cmakeConfigureTask
          */
         project.getTasks().register("cmakeConfigure", CMakeConfigureTask.class, new Action<CMakeConfigureTask>() {
             @Override
             public void execute(CMakeConfigureTask task) {
-                task.getExecutable().set(extension.getExecutable());
-                task.getWorkingFolder().set(extension.getWorkingFolder());
-                task.getSourceFolder().set(extension.getSourceFolder());
-                task.getConfigurationTypes().set(extension.getConfigurationTypes());
-                task.getInstallPrefix().set(extension.getInstallPrefix());
-                task.getGenerator().set(extension.getGenerator());
-                task.getPlatform().set(extension.getPlatform());
-                task.getToolset().set(extension.getToolset());
-                task.getBuildSharedLibs().set(extension.getBuildSharedLibs());
-                task.getBuildStaticLibs().set(extension.getBuildStaticLibs());
-                task.getDef().set(extension.getDef());
+                configureConfigureTask(task, extension);
+                // gradle cmakeClean cmakeBuild
+                task.mustRunAfter("cmakeClean");
             }
         });
 
         project.getTasks().register("cmakeBuild", CMakeBuildTask.class, new Action<CMakeBuildTask>() {
             @Override
             public void execute(CMakeBuildTask task) {
-                task.getExecutable().set(extension.getExecutable());
-                task.getWorkingFolder().set(extension.getWorkingFolder());
-                task.getBuildConfig().set(extension.getBuildConfig());
+                configureBuildTask(task, extension);
+                task.getArtifacts().setFrom(extension.getArtifacts());
+                task.getInstallFolder().set(extension.getInstallFolder());
                 task.getBuildTarget().set(extension.getBuildTarget());
-                task.getBuildClean().set(extension.getBuildClean());
+                task.dependsOn("cmakeConfigure");
+                task.mustRunAfter("cmakeClean");
             }
         });
 
-        Task cmakeClean = project.task( "cmakeClean" ).doFirst(task -> {
-            // should go to clean...
-            File workingFolder = extension.getWorkingFolder().getAsFile().get().getAbsoluteFile();
-            if ( workingFolder.exists() ) {
-                project.getLogger().info("Deleting folder "+ workingFolder.toString());
-                if (!deleteDirectory(workingFolder))
-                    throw new GradleException("Could not delete working folder " + workingFolder);
-            }
+        // the working folder is known after the build script ran
+        project.afterEvaluate(p -> registerTargetTasks(p, extension));
+        registerTargetTaskRule(project, extension);
+
+        // tasks of the variants are registered lazily, so a variant costs nothing until its tasks are requested
+        extension.getVariants().all(variant -> registerVariantTasks(project, extension, variant));
+
+        project.getTasks().register("cmakeClean", CMakeCleanTask.class, task -> {
+            task.getExecutable().set(extension.getExecutable());
+            task.getWorkingFolder().set(extension.getWorkingFolder());
         });
-        cmakeClean.setGroup("cmake");
-        cmakeClean.setDescription("Clean CMake configuration");
-
-
-
-        Task cmakeGenerators = project.task( "cmakeGenerators" ).doFirst(task -> {
-            // should go to clean...
-            ProcessBuilder pb = new ProcessBuilder(extension.getExecutable().getOrElse("cmake"), "--help");
-            try {
-                // start
-                Process process = pb.start();
-
-                BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-                String line;
-                boolean foundGenerators = false;
-                while ((line = reader.readLine()) != null) {
-                    if ( line.equals("Generators") )
-                        foundGenerators = true;
-                    if ( foundGenerators )
-                        project.getLogger().log(LogLevel.QUIET, line);
-                }
-                process.waitFor();
-            }
-            catch ( IOException e ) {
-                throw new GradleScriptException( "cmake --help failed.", e );
-            }
-            catch ( InterruptedException e ) {
-                throw new GradleScriptException( "cmake --help failed.", e );
-            }
+
+        project.getTasks().register("cmakeTest", CMakeTestTask.class, task -> {
+            task.getExecutable().set(extension.getExecutable().map(CMakeTestTask::ctestFor));
+            task.getCmakeExecutable().set(extension.getExecutable());
+            task.getWorkingFolder().set(extension.getWorkingFolder());
+            task.getBuildConfig().set(extension.getBuildConfig());
+            task.getParallelJobs().set(extension.getParallelJobs());
+            // the test binaries are read from the File API reply when the task runs, see CMakeTestTask.getTestBinaries()
+            ConfigurableFileTree testFiles = project.getObjects().fileTree().from(extension.getWorkingFolder());
+            testFiles.include("**/CTestTestfile.cmake");
+            task.getTestInputs().from(extension.getArtifacts(), testFiles);
+            task.dependsOn("cmakeBuild");
+        });
+
+        TaskProvider<CMakeInstallTask> install = project.getTasks().register("cmakeInstall", CMakeInstallTask.class, task -> {
+            task.getExecutable().set(extension.getExecutable());
+            task.getWorkingFolder().set(extension.getWorkingFolder());
+            task.getBuildConfig().set(extension.getBuildConfig());
+            task.getComponents().set(extension.getInstallComponents());
+            task.getBuildInstallFolder().set(extension.getInstallFolder());
+            // the artifacts of all targets are added from the File API reply, see registerTargetTasks
+            ConfigurableFileTree installScripts = project.getObjects().fileTree().from(extension.getWorkingFolder());
+            installScripts.include("**/cmake_install.cmake");
+            task.getInstallInputs().from(extension.getArtifacts());
+            task.getInstallScripts().from(installScripts);
+            task.dependsOn("cmakeBuild");
         });
-        cmakeGenerators.setGroup("cmake");
-        cmakeGenerators.setDescription("List available CMake generators");
 
-        TaskContainer tasks = project.getTasks();
-        tasks.getByName("cmakeBuild").dependsOn(tasks.getByName("cmakeConfigure"));
+        // the install folder for other projects: dependencies { nativeLibs project(path: ':native', configuration: 'cmakeInstallElements') }
+        project.getConfigurations().register("cmakeInstallElements", configuration -> {
+            configuration.setDescription("The install folder of cmakeInstall");
+            configuration.setCanBeResolved(false);
+            configuration.setCanBeConsumed(true);
+            configuration.getOutgoing().artifact(install.flatMap(CMakeInstallTask::getInstallFolder), artifact -> {
+                artifact.setType("directory");
+                artifact.builtBy(install);
+            });
+        });
 
+        project.getTasks().register("cmakeTuneUnity", CMakeTuneUnityTask.class, task -> {
+            task.getExecutable().set(extension.getExecutable());
+            task.getSourceFolder().set(extension.getSourceFolder());
+            task.getConfigurationTypes().set(extension.getConfigurationTypes());
+            task.getBuildType().set(extension.getBuildType());
+            task.getGenerator().set(extension.getGenerator());
+            task.getPlatform().set(extension.getPlatform());
+            task.getToolset().set(extension.getToolset());
+            task.getToolchainFile().set(extension.getToolchainFile());
+            task.getDef().set(extension.getDef());
+            task.getBuildConfig().set(extension.getBuildConfig());
+            task.getBuildTarget().set(extension.getBuildTarget());
+            task.getParallelJobs().set(extension.getParallelJobs());
+            task.getUnitySettings().set(extension.getUnitySettingsFile());
+        });
 
+        project.getTasks().register("cmakeGenerators", CMakeGeneratorsTask.class, task ->
+                task.getExecutable().set(extension.getExecutable()));
     }
 
 }
\ No newline at end of file
@@ -16,8 +16,13 @@
 
 package net.freudasoft;
 
+import org.gradle.api.Action;
+import org.gradle.api.NamedDomainObjectContainer;
 import org.gradle.api.Project;
+import org.gradle.api.file.ConfigurableFileCollection;
 import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.ListProperty;
 import org.gradle.api.provider.MapProperty;
 import org.gradle.api.provider.Property;
 import org.gradle.api.tasks.Input;
@@ -35,18 +40,36 @@ public class CMakePluginExtension {
     // parameters used by config step
     private final DirectoryProperty sourceFolder;
     private final Property<String> configurationTypes;
+    private final Property<String> buildType;
     private final Property<String>  installPrefix;
     private final Property<String> generator; // for example: "Visual Studio 16 2019"
     private final Property<String> platform ; // for example "x64" or "Win32" or "ARM" or "ARM64", supported on vs > 8.0
     private final Property<String> toolset; // for example "v142", supported on vs > 10.0
+    private final RegularFileProperty toolchainFile;
     private final Property<Boolean> buildSharedLibs;
     private final Property<Boolean> buildStaticLibs;
     private final MapProperty<String,String> def;
+    private final Property<String> compilerLauncher; // "auto", "none", "ccache", "sccache" or a path
+    private final Property<String> compilerCacheDir;
+    private final Property<String> compilerCacheSize; // for example "20G"
+    private final Property<Boolean> profileConfigure;
+    private final Property<Boolean> shareInitialCache;
+    private final Property<String> fetchContentCacheDir;
+    private final Property<String> fetchContentCacheSize; // for example "10G"
 
     // parameters used on build step
     private final Property<String> buildConfig;
     private final Property<String> buildTarget;
     private final Property<Boolean> buildClean;
+    private final Property<Integer> parallelJobs;
+    private final ConfigurableFileCollection artifacts;
+    private final DirectoryProperty installFolder;
+    private final ListProperty<String> installComponents;
+    private final RegularFileProperty unitySettingsFile;
+    private final Property<Boolean> targetTasks;
+
+    // additional build variants, each with its own working folder and tasks
+    private final NamedDomainObjectContainer<CMakeVariant> variants;
 
 
     public CMakePluginExtension(Project project) {
@@ -54,20 +77,46 @@ public class CMakePluginExtension {
         workingFolder = project.getObjects().directoryProperty();
         sourceFolder = project.getObjects().directoryProperty();
         configurationTypes = project.getObjects().property(String.class);
+        buildType = project.getObjects().property(String.class);
         installPrefix = project.getObjects().property(String.class);
         generator = project.getObjects().property(String.class);
         platform = project.getObjects().property(String.class);
         toolset = project.getObjects().property(String.class);
+        toolchainFile = project.getObjects().fileProperty();
         buildSharedLibs = project.getObjects().property(Boolean.class);
         buildStaticLibs = project.getObjects().property(Boolean.class);
         def = project.getObjects().mapProperty(String.class, String.class);
+        compilerLauncher = project.getObjects().property(String.class);
+        compilerCacheDir = project.getObjects().property(String.class);
+        compilerCacheSize = project.getObjects().property(String.class);
+        profileConfigure = project.getObjects().property(Boolean.class);
+        shareInitialCache = project.getObjects().property(Boolean.class);
+        fetchContentCacheDir = project.getObjects().property(String.class);
+        fetchContentCacheSize = project.getObjects().property(String.class);
         buildConfig = project.getObjects().property(String.class);
         buildTarget = project.getObjects().property(String.class);
         buildClean = project.getObjects().property(Boolean.class);
+        parallelJobs = project.getObjects().property(Integer.class);
+        artifacts = project.getObjects().fileCollection();
+        installFolder = project.getObjects().directoryProperty();
+        installComponents = project.getObjects().listProperty(String.class);
+        unitySettingsFile = project.getObjects().fileProperty();
+        targetTasks = project.getObjects().property(Boolean.class);
+        variants = project.container(CMakeVariant.class, name -> new CMakeVariant(name, project));
 
         // default values
         workingFolder.set(new File(project.getBuildDir(), "cmake"));
         sourceFolder.set(new File(project.getBuildDir(), "src" + File.separator + "main" + File.separator + "cpp"));
+        targetTasks.convention(Boolean.TRUE);
+        unitySettingsFile.convention(project.getLayout().getProjectDirectory().file("cmake-unity.properties"));
+        // the compiler cache is shared by all projects, so its location and size can be set once in gradle.properties
+        compilerCacheDir.convention(project.getProviders().gradleProperty("cmake.compilerCacheDir"));
+        compilerCacheSize.convention(project.getProviders().gradleProperty("cmake.compilerCacheSize"));
+        shareInitialCache.convention(project.getProviders().gradleProperty("cmake.shareInitialCache").map(Boolean::valueOf).orElse(Boolean.FALSE));
+        fetchContentCacheDir.convention(project.getProviders().gradleProperty("cmake.fetchContentCacheDir"));
+        generator.convention(project.getProviders().gradleProperty("cmake.generator"));
+        fetchContentCacheSize.convention(project.getProviders().gradleProperty("cmake.fetchContentCacheSize"));
+        parallelJobs.convention(project.getGradle().getStartParameter().getMaxWorkerCount());
     }
 
 /// region getters
@@ -87,6 +136,10 @@ public class CMakePluginExtension {
         return configurationTypes;
     }
 
+    public Property<String> getBuildType() {
+        return buildType;
+    }
+
     public Property<String> getInstallPrefix() {
         return installPrefix;
     }
@@ -102,6 +155,10 @@ public class CMakePluginExtension {
         return toolset;
     }
 
+    public RegularFileProperty getToolchainFile() {
+        return toolchainFile;
+    }
+
     public Property<Boolean> getBuildSharedLibs() {
         return buildSharedLibs;
     }
@@ -114,6 +171,34 @@ public class CMakePluginExtension {
         return def;
     }
 
+    public Property<String> getCompilerLauncher() {
+        return compilerLauncher;
+    }
+
+    public Property<String> getCompilerCacheDir() {
+        return compilerCacheDir;
+    }
+
+    public Property<String> getCompilerCacheSize() {
+        return compilerCacheSize;
+    }
+
+    public Property<Boolean> getProfileConfigure() {
+        return profileConfigure;
+    }
+
+    public Property<Boolean> getShareInitialCache() {
+        return shareInitialCache;
+    }
+
+    public Property<String> getFetchContentCacheDir() {
+        return fetchContentCacheDir;
+    }
+
+    public Property<String> getFetchContentCacheSize() {
+        return fetchContentCacheSize;
+    }
+
     public Property<String> getBuildConfig() {
         return buildConfig;
     }
@@ -125,6 +210,38 @@ public class CMakePluginExtension {
     public Property<Boolean> getBuildClean() {
         return buildClean;
     }
+
+    public Property<Integer> getParallelJobs() {
+        return parallelJobs;
+    }
+
+    public ConfigurableFileCollection getArtifacts() {
+        return artifacts;
+    }
+
+    public DirectoryProperty getInstallFolder() {
+        return installFolder;
+    }
+
+    public ListProperty<String> getInstallComponents() {
+        return installComponents;
+    }
+
+    public RegularFileProperty getUnitySettingsFile() {
+        return unitySettingsFile;
+    }
+
+    public Property<Boolean> getTargetTasks() {
+        return targetTasks;
+    }
+
+    public NamedDomainObjectContainer<CMakeVariant> getVariants() {
+        return variants;
+    }
+
+    public void variants(Action<? super NamedDomainObjectContainer<CMakeVariant>> action) {
+        action.execute(variants);
+    }
 /// endregion getters
 
 
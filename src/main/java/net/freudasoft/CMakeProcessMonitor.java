@@ -0,0 +1,176 @@
+package net.freudasoft;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Samples CPU time and resident memory of a child process and all its descendants while it runs.
+ *
+ * On Linux the values come from /proc: the CPU time of the tree is the sum of user, system and reaped children's
+ * times of all live processes, and the memory is the sum of their resident set sizes. Elsewhere only the
+ * CPU time of the direct child is available.
+ *
+ * A process that exits between two samples is gone from /proc, so a final sample after its exit takes the CPU time
+ * from the times of the reaped children of this JVM, as long as no other monitored process ran meanwhile. Its memory
+ * stays unknown if it was never sampled.
+ */
+class CMakeProcessMonitor implements Runnable {
+    private static final long SAMPLE_MILLIS = 200;
+    private static final long TICKS_PER_SECOND = 100; // USER_HZ
+    private static final boolean PROCFS = new File("/proc/self/stat").isFile();
+
+    // monitors between construction and stop, to know if the reaped children times belong to one process
+    private static final Set<CMakeProcessMonitor> active = ConcurrentHashMap.newKeySet();
+
+    private final long childrenCpuBefore;
+    private volatile boolean overlapped;
+    private Process process;
+    private volatile boolean stopped;
+    private Thread thread;
+    private long cpuMillis = -1;
+    private long peakRssBytes = -1;
+
+    /**
+     * To be created before the process is started, so the final sample can tell its CPU time.
+     */
+    CMakeProcessMonitor() {
+        synchronized ( active ) {
+            if ( !active.isEmpty() ) {
+                overlapped = true;
+                active.forEach(m -> m.overlapped = true);
+            }
+            active.add(this);
+        }
+        childrenCpuBefore = PROCFS ? childrenCpuMillis() : -1;
+    }
+
+    void start(Process process, String threadName) {
+        this.process = process;
+        thread = new Thread(this, threadName);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void stop() throws InterruptedException {
+        stopped = true;
+        if ( thread != null ) {
+            thread.interrupt();
+            thread.join();
+        }
+        if ( process != null ) {
+            // final sample: descendants still alive, then the reaped process itself
+            sample();
+            if ( !process.isAlive() && !overlapped && childrenCpuBefore >= 0 ) {
+                long childrenCpu = childrenCpuMillis();
+                if ( childrenCpu >= 0 ) {
+                    synchronized ( this ) {
+                        cpuMillis = Math.max(cpuMillis, childrenCpu - childrenCpuBefore);
+                    }
+                }
+            }
+        }
+        active.remove(this);
+    }
+
+    @Override
+    public void run() {
+        while ( !stopped && process.isAlive() ) {
+            sample();
+            try {
+                Thread.sleep(SAMPLE_MILLIS);
+            }
+            catch ( InterruptedException e ) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return CPU time of the process tree in milliseconds, or -1 if unknown
+     */
+    synchronized long getCpuMillis() {
+        return cpuMillis;
+    }
+
+    /**
+     * @return the highest sampled resident memory of the process tree in bytes, or -1 if unknown
+     */
+    synchronized long getPeakRssBytes() {
+        return peakRssBytes;
+    }
+
+    private void sample() {
+        List<ProcessHandle> tree = new ArrayList<>();
+        tree.add(process.toHandle());
+        process.descendants().forEach(tree::add);
+
+        long cpu = 0;
+        long rss = 0;
+        boolean any = false;
+        for ( ProcessHandle handle : tree ) {
+            if ( PROCFS ) {
+                long[] values = readProc(handle.pid());
+                if ( values == null )
+                    continue;
+                cpu += values[0];
+                rss += values[1];
+                any = true;
+            }
+            else if ( handle.pid() == process.pid() ) {
+                java.util.Optional<Duration> total = handle.info().totalCpuDuration();
+                if ( total.isPresent() ) {
+                    cpu = total.get().toMillis();
+                    any = true;
+                }
+            }
+        }
+        if ( !any )
+            return;
+        synchronized ( this ) {
+            cpuMillis = Math.max(cpuMillis, cpu);
+            if ( PROCFS )
+                peakRssBytes = Math.max(peakRssBytes, rss);
+        }
+    }
+
+    // cpu millis of the reaped children of this JVM, -1 if unknown
+    private static long childrenCpuMillis() {
+        try {
+            String stat = new String(Files.readAllBytes(new File("/proc/self/stat").toPath()), StandardCharsets.US_ASCII);
+            String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+            return (Long.parseLong(fields[13]) + Long.parseLong(fields[14])) * 1000 / TICKS_PER_SECOND;
+        }
+        catch ( IOException | RuntimeException e ) {
+            return -1;
+        }
+    }
+
+    // returns { cpu millis including reaped children, rss bytes } or null if the process is gone
+    private static long[] readProc(long pid) {
+        try {
+            String stat = new String(Files.readAllBytes(new File("/proc/" + pid + "/stat").toPath()), StandardCharsets.US_ASCII);
+            // the command name may contain spaces, fields are counted after its closing parenthesis, starting with field 3
+            String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+            long ticks = Long.parseLong(fields[11]) + Long.parseLong(fields[12]) + Long.parseLong(fields[13]) + Long.parseLong(fields[14]);
+
+            long rssKb = 0;
+            for ( String line : Files.readAllLines(new File("/proc/" + pid + "/status").toPath(), StandardCharsets.US_ASCII) ) {
+                if ( line.startsWith("VmRSS:") ) {
+                    rssKb = Long.parseLong(line.substring(6).replace("kB", "").trim());
+                    break;
+                }
+            }
+            return new long[] { ticks * 1000 / TICKS_PER_SECOND, rssKb * 1024 };
+        }
+        catch ( IOException | RuntimeException e ) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package net.freudasoft;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.api.tasks.options.Option;
+import org.gradle.workers.WorkerExecutor;
+
+import javax.inject.Inject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Runs the tests of a build folder with ctest.
+ *
+ * The result is cached on the test binaries and test definitions, so tests of unchanged binaries are not run again.
+ * The test binaries are taken from cmake's File API reply, without it (cmake older than 3.14) the tests always run.
+ * With ctest 3.21 or newer the results are written as JUnit XML to build/test-results/&lt;task name&gt;.
+ */
+@CacheableTask
+public abstract class CMakeTestTask extends DefaultTask {
+    // the binaries the test results depend on: the test executables and the shared libraries they load
+    private static final Set<String> TEST_BINARY_TYPES = new HashSet<>(Arrays.asList("EXECUTABLE", "SHARED_LIBRARY", "MODULE_LIBRARY"));
+
+    private final Property<String> executable;
+    private final Property<String> cmakeExecutable;
+    private final DirectoryProperty workingFolder;
+    private final ConfigurableFileCollection testInputs;
+    private final Property<String> buildConfig;
+    private final ListProperty<String> arguments;
+    private final Property<Integer> parallelJobs;
+    private final Property<Integer> shardIndex;
+    private final Property<Integer> shardCount;
+    private final Property<Boolean> rerunFailed;
+    private final DirectoryProperty testResultsFolder;
+    private final Property<CMakeJobTokenService> jobTokens;
+    private final Property<CMakeMetricsService> metrics;
+    private final Property<CMakeCapabilitiesService> capabilities;
+    private final String projectPath;
+
+    public CMakeTestTask() {
+        setGroup("cmake");
+        setDescription("Run the tests of a CMake build with CTest");
+        projectPath = getProject().getPath();
+        executable = getProject().getObjects().property(String.class);
+        cmakeExecutable = getProject().getObjects().property(String.class);
+        workingFolder = getProject().getObjects().directoryProperty();
+        testInputs = getProject().getObjects().fileCollection();
+        buildConfig = getProject().getObjects().property(String.class);
+        arguments = getProject().getObjects().listProperty(String.class);
+        parallelJobs = getProject().getObjects().property(Integer.class);
+        shardIndex = getProject().getObjects().property(Integer.class);
+        shardCount = getProject().getObjects().property(Integer.class);
+        rerunFailed = getProject().getObjects().property(Boolean.class);
+        testResultsFolder = getProject().getObjects().directoryProperty();
+        jobTokens = getProject().getObjects().property(CMakeJobTokenService.class);
+        metrics = getProject().getObjects().property(CMakeMetricsService.class);
+        capabilities = getProject().getObjects().property(CMakeCapabilitiesService.class);
+
+        // default values
+        parallelJobs.convention(getProject().getGradle().getStartParameter().getMaxWorkerCount());
+        shardIndex.convention(getProject().getProviders().gradleProperty("cmake.testShardIndex").map(Integer::valueOf));
+        shardCount.convention(getProject().getProviders().gradleProperty("cmake.testShardCount").map(Integer::valueOf));
+        rerunFailed.convention(Boolean.FALSE);
+        testResultsFolder.convention(getProject().getLayout().getBuildDirectory().dir("test-results/" + getName()));
+        Provider<CMakeJobTokenService> tokenService = CMakeJobTokenService.register(getProject());
+        jobTokens.set(tokenService);
+        usesService(tokenService);
+        Provider<CMakeMetricsService> metricsService = CMakeMetricsService.register(getProject());
+        metrics.set(metricsService);
+        usesService(metricsService);
+        Provider<CMakeCapabilitiesService> capabilitiesService = CMakeCapabilitiesService.register(getProject());
+        capabilities.set(capabilitiesService);
+        usesService(capabilitiesService);
+
+        // which tests rerun depends on the last run, not on the inputs. without known test binaries nothing can be skipped
+        getOutputs().upToDateWhen(task -> !rerunFailed.get() && readTestBinaries() != null);
+        getOutputs().cacheIf("rerunning failed tests depends on the last run", task -> !rerunFailed.get());
+        getOutputs().cacheIf("the test binaries are only known from a cmake File API reply (cmake 3.14 or newer)", task -> readTestBinaries() != null);
+    }
+
+    /**
+     * @return ctest next to the given cmake executable, or ctest from the PATH
+     */
+    static String ctestFor(String cmake) {
+        File file = new File(cmake);
+        if ( file.getParentFile() == null )
+            return "ctest";
+        return new File(file.getParentFile(), cmake.endsWith(".exe") ? "ctest.exe" : "ctest").getPath();
+    }
+
+    /// region getters
+    @Input
+    @Optional
+    public Property<String> getExecutable() {
+        return executable;
+    }
+
+    @Internal("used to look up the version")
+    public Property<String> getCmakeExecutable() {
+        return cmakeExecutable;
+    }
+
+    @Internal("tracked by getTestInputs() and getTestBinaries()")
+    public DirectoryProperty getWorkingFolder() {
+        return workingFolder;
+    }
+
+    /**
+     * The test binaries, shared libraries and test definitions (CTestTestfile.cmake) the results depend on.
+     */
+    @InputFiles
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public ConfigurableFileCollection getTestInputs() {
+        return testInputs;
+    }
+
+    /**
+     * The executables and shared libraries of the File API reply in the working folder. Read when the task runs,
+     * after the build, so they are known on a fresh checkout as well.
+     */
+    @InputFiles
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public List<File> getTestBinaries() {
+        List<File> binaries = readTestBinaries();
+        return binaries != null ? binaries : Collections.emptyList();
+    }
+
+    @Input
+    @Optional
+    public Property<String> getBuildConfig() {
+        return buildConfig;
+    }
+
+    /**
+     * Additional ctest arguments, like {@code -L <label>} or {@code -E <regex>}.
+     */
+    @Input
+    public ListProperty<String> getArguments() {
+        return arguments;
+    }
+
+    @Internal("the job count does not change the test result")
+    public Property<Integer> getParallelJobs() {
+        return parallelJobs;
+    }
+
+    /**
+     * Zero based index of the shard to run. Test i (in ctest's order) belongs to shard i % shardCount.
+     */
+    @Input
+    @Optional
+    public Property<Integer> getShardIndex() {
+        return shardIndex;
+    }
+
+    @Input
+    @Optional
+    public Property<Integer> getShardCount() {
+        return shardCount;
+    }
+
+    @Input
+    @Option(option = "rerun-failed", description = "Run only the tests that failed in the last run.")
+    public Property<Boolean> getRerunFailed() {
+        return rerunFailed;
+    }
+
+    @OutputDirectory
+    public DirectoryProperty getTestResultsFolder() {
+        return testResultsFolder;
+    }
+
+    @Internal
+    public Property<CMakeJobTokenService> getJobTokens() {
+        return jobTokens;
+    }
+
+    @Internal
+    public Property<CMakeMetricsService> getMetrics() {
+        return metrics;
+    }
+
+    @Internal
+    public Property<CMakeCapabilitiesService> getCapabilities() {
+        return capabilities;
+    }
+    /// endregion
+
+    // null if there is no File API reply
+    private List<File> readTestBinaries() {
+        File buildFolder = workingFolder.getAsFile().get();
+        CMakeCodeModel model;
+        try {
+            model = CMakeFileApi.readCodeModel(buildFolder);
+        }
+        catch ( IOException e ) {
+            getLogger().info("Could not read the cmake File API reply in " + buildFolder + ": " + e.getMessage());
+            return null;
+        }
+        if ( model == null )
+            return null;
+        // single-config generators have exactly one configuration, named after CMAKE_BUILD_TYPE
+        String config = model.getConfigurations().size() == 1 ? null : buildConfig.getOrNull();
+        List<File> binaries = new ArrayList<>();
+        for ( CMakeCodeModel.Target target : model.getTargets(config) ) {
+            if ( TEST_BINARY_TYPES.contains(target.getType()) )
+                binaries.addAll(target.getArtifacts());
+        }
+        return binaries;
+    }
+
+    private List<String> buildCmdLine(File junitOutput) {
+        List<String> parameters = new ArrayList<>();
+
+        parameters.add(executable.getOrElse("ctest"));
+        parameters.add("--output-on-failure");
+        parameters.add("--parallel");
+        parameters.add(CMakeExecWork.JOBS);
+
+        if ( buildConfig.isPresent() && !buildConfig.get().isEmpty() ) {
+            parameters.add("-C");
+            parameters.add(buildConfig.get());
+        }
+
+        if ( shardCount.getOrElse(1) > 1 ) {
+            int count = shardCount.get();
+            int index = shardIndex.getOrElse(0);
+            if ( index < 0 || index >= count )
+                throw new GradleException( "Test shard index " + index + " is out of range for " + count + " shards." );
+            // ctest numbers the tests from 1: start at index + 1 and take every count-th test
+            parameters.add("-I");
+            parameters.add((index + 1) + ",," + count);
+        }
+
+        if ( rerunFailed.get() )
+            parameters.add("--rerun-failed");
+
+        if ( junitOutput != null ) {
+            parameters.add("--output-junit");
+            parameters.add(junitOutput.getAbsolutePath());
+        }
+
+        parameters.addAll(arguments.get());
+        return parameters;
+    }
+
+    private int getJobCount() {
+        int jobs = parallelJobs.getOrElse(0);
+        return jobs > 0 ? jobs : Runtime.getRuntime().availableProcessors();
+    }
+
+    @Inject
+    protected abstract WorkerExecutor getWorkerExecutor();
+
+    @TaskAction
+    public void test() {
+        // ctest writes JUnit XML since 3.21
+        File junitOutput = null;
+        if ( capabilities.get().get(cmakeExecutable.getOrNull()).isAtLeast(3, 21) )
+            junitOutput = new File(workingFolder.getAsFile().get(), "Testing/" + getName() + "-junit.xml");
+        else
+            getLogger().info("  CMakePlugin.task " + getName() + " - no test report, requires ctest 3.21");
+
+        List<String> cmdLine = buildCmdLine(junitOutput);
+        File report = testResultsFolder.file("TEST-" + getName() + ".xml").get().getAsFile();
+        report.delete();
+        File junit = junitOutput;
+        getWorkerExecutor().noIsolation().submit(CMakeExecWork.class, params -> {
+            params.getTaskName().set(getName());
+            params.getProjectPath().set(projectPath);
+            params.getPhase().set("test");
+            params.getMetrics().set(metrics);
+            params.getCommandLine().set(cmdLine);
+            params.getWorkingFolder().set(workingFolder);
+            params.getJobs().set(getJobCount());
+            params.getJobTokens().set(jobTokens);
+            if ( junit != null ) {
+                params.getJUnitOutput().set(junit);
+                params.getTestReport().set(report);
+            }
+        });
+    }
+}
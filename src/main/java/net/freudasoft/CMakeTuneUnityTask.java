@@ -0,0 +1,481 @@
+package net.freudasoft;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.FileSystemOperations;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.MapProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.TaskAction;
+
+import javax.inject.Inject;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the fastest unity build settings of a project by building it from scratch with a range of batch sizes,
+ * with and without its precompiled headers, and writes them to the unity settings file read by the configure tasks.
+ *
+ * Each trial configures and builds a scratch working folder without compiler launcher, so no result comes from a compiler cache.
+ * Trials that fail (unity builds can break sources that rely on file local names) are reported and skipped.
+ * The task takes all tokens of the job token pool while it measures, so no other native build distorts the timings.
+ */
+public abstract class CMakeTuneUnityTask extends DefaultTask {
+    private static final List<String> OBJECT_EXTENSIONS = Arrays.asList(".o", ".obj");
+    // trials within this fraction of the fastest one count as equally fast, the one with less memory wins
+    private static final double EQUAL_WALL_TIME = 0.05;
+
+    static final String UNITY_BUILD = "CMAKE_UNITY_BUILD";
+    static final String UNITY_BUILD_BATCH_SIZE = "CMAKE_UNITY_BUILD_BATCH_SIZE";
+    static final String DISABLE_PRECOMPILE_HEADERS = "CMAKE_DISABLE_PRECOMPILE_HEADERS";
+
+    private final Property<String> executable;
+    private final DirectoryProperty sourceFolder;
+    private final Property<String> configurationTypes;
+    private final Property<String> buildType;
+    private final Property<String> generator;
+    private final Property<String> platform;
+    private final Property<String> toolset;
+    private final RegularFileProperty toolchainFile;
+    private final MapProperty<String,String> def;
+    private final Property<String> buildConfig;
+    private final Property<String> buildTarget;
+    private final Property<Integer> parallelJobs;
+    private final ListProperty<Integer> batchSizes;
+    private final Property<Boolean> tunePrecompileHeaders;
+    private final DirectoryProperty tuningFolder;
+    private final RegularFileProperty unitySettings;
+    private final RegularFileProperty report;
+    private final Property<CMakeJobTokenService> jobTokens;
+    private final Property<CMakeMetricsService> metrics;
+    private final Property<CMakeCapabilitiesService> capabilities;
+    private final String projectPath;
+
+    private static class Trial {
+        final String name;
+        final int batchSize; // 0: no unity build
+        final boolean precompileHeaders;
+        long wallMillis;
+        long peakRssBytes = -1;
+        long objectBytes;
+        String failure;
+
+        Trial(int batchSize, boolean precompileHeaders) {
+            this.batchSize = batchSize;
+            this.precompileHeaders = precompileHeaders;
+            this.name = (batchSize > 0 ? "unity-" + batchSize : "no-unity") + (precompileHeaders ? "" : "-no-pch");
+        }
+
+        String describe() {
+            return (batchSize > 0 ? "unity build, batch size " + batchSize : "no unity build") + (precompileHeaders ? "" : ", no precompiled headers");
+        }
+    }
+
+    public CMakeTuneUnityTask() {
+        setGroup("cmake");
+        setDescription("Find the fastest unity build batch size by building the project with each");
+        projectPath = getProject().getPath();
+        executable = getProject().getObjects().property(String.class);
+        sourceFolder = getProject().getObjects().directoryProperty();
+        configurationTypes = getProject().getObjects().property(String.class);
+        buildType = getProject().getObjects().property(String.class);
+        generator = getProject().getObjects().property(String.class);
+        platform = getProject().getObjects().property(String.class);
+        toolset = getProject().getObjects().property(String.class);
+        toolchainFile = getProject().getObjects().fileProperty();
+        def = getProject().getObjects().mapProperty(String.class, String.class);
+        buildConfig = getProject().getObjects().property(String.class);
+        buildTarget = getProject().getObjects().property(String.class);
+        parallelJobs = getProject().getObjects().property(Integer.class);
+        batchSizes = getProject().getObjects().listProperty(Integer.class);
+        tunePrecompileHeaders = getProject().getObjects().property(Boolean.class);
+        tuningFolder = getProject().getObjects().directoryProperty();
+        unitySettings = getProject().getObjects().fileProperty();
+        report = getProject().getObjects().fileProperty();
+        jobTokens = getProject().getObjects().property(CMakeJobTokenService.class);
+        metrics = getProject().getObjects().property(CMakeMetricsService.class);
+        capabilities = getProject().getObjects().property(CMakeCapabilitiesService.class);
+
+        // default values
+        batchSizes.convention(Arrays.asList(4, 8, 16, 32));
+        tunePrecompileHeaders.convention(Boolean.TRUE);
+        tuningFolder.convention(getProject().getLayout().getBuildDirectory().dir("cmake-tune"));
+        report.convention(getProject().getLayout().getBuildDirectory().file("reports/cmake/" + getName() + ".json"));
+        Provider<CMakeJobTokenService> tokenService = CMakeJobTokenService.register(getProject());
+        jobTokens.set(tokenService);
+        usesService(tokenService);
+        Provider<CMakeMetricsService> metricsService = CMakeMetricsService.register(getProject());
+        metrics.set(metricsService);
+        usesService(metricsService);
+        Provider<CMakeCapabilitiesService> capabilitiesService = CMakeCapabilitiesService.register(getProject());
+        capabilities.set(capabilitiesService);
+        usesService(capabilitiesService);
+
+        // a measurement, the result depends on the machine and its load
+        getOutputs().upToDateWhen(task -> false);
+    }
+
+    /// region getters
+    @Input
+    @Optional
+    public Property<String> getExecutable() {
+        return executable;
+    }
+
+    @Internal("the task always runs, hashing the sources would only cost time")
+    public DirectoryProperty getSourceFolder() {
+        return sourceFolder;
+    }
+
+    @Input
+    @Optional
+    public Property<String> getConfigurationTypes() {
+        return configurationTypes;
+    }
+
+    @Input
+    @Optional
+    public Property<String> getBuildType() {
+        return buildType;
+    }
+
+    @Input
+    @Optional
+    public Property<String> getGenerator() {
+        return generator;
+    }
+
+    @Input
+    @Optional
+    public Property<String> getPlatform() {
+        return platform;
+    }
+
+    @Input
+    @Optional
+    public Property<String> getToolset() {
+        return toolset;
+    }
+
+    @Internal("passed on to the trials")
+    public RegularFileProperty getToolchainFile() {
+        return toolchainFile;
+    }
+
+    @Input
+    @Optional
+    public MapProperty<String, String> getDef() {
+        return def;
+    }
+
+    @Input
+    @Optional
+    public Property<String> getBuildConfig() {
+        return buildConfig;
+    }
+
+    @Input
+    @Optional
+    public Property<String> getBuildTarget() {
+        return buildTarget;
+    }
+
+    @Internal("the same job count is used for all trials")
+    public Property<Integer> getParallelJobs() {
+        return parallelJobs;
+    }
+
+    /**
+     * The unity batch sizes to try. A build without unity build is always measured for comparison.
+     */
+    @Input
+    public ListProperty<Integer> getBatchSizes() {
+        return batchSizes;
+    }
+
+    /**
+     * If true (default), every batch size is also tried with the precompiled headers of the project disabled.
+     */
+    @Input
+    public Property<Boolean> getTunePrecompileHeaders() {
+        return tunePrecompileHeaders;
+    }
+
+    /**
+     * Scratch folder of the trial builds, deleted afterwards. Default is build/cmake-tune.
+     */
+    @Internal
+    public DirectoryProperty getTuningFolder() {
+        return tuningFolder;
+    }
+
+    /**
+     * The settings file written, read by the configure tasks.
+     */
+    @OutputFile
+    public RegularFileProperty getUnitySettings() {
+        return unitySettings;
+    }
+
+    /**
+     * Measurements of all trials. Default is build/reports/cmake/&lt;task name&gt;.json.
+     */
+    @OutputFile
+    public RegularFileProperty getReport() {
+        return report;
+    }
+
+    @Internal
+    public Property<CMakeJobTokenService> getJobTokens() {
+        return jobTokens;
+    }
+
+    @Internal
+    public Property<CMakeMetricsService> getMetrics() {
+        return metrics;
+    }
+
+    @Internal
+    public Property<CMakeCapabilitiesService> getCapabilities() {
+        return capabilities;
+    }
+    /// endregion
+
+    private List<String> configureCmdLine(CMakeCapabilities caps, Trial trial) {
+        List<String> parameters = new ArrayList<>();
+        Map<String,String> defs = def.getOrElse(Collections.emptyMap());
+
+        parameters.add(executable.getOrElse("cmake"));
+        String selectedGenerator = generator.getOrElse("");
+        if ( CMakeConfigureTask.AUTO.equals(selectedGenerator) )
+            selectedGenerator = CMakeConfigureTask.autoGenerator(caps, configurationTypes.getOrNull(), defs.get("CMAKE_MAKE_PROGRAM"));
+        if ( selectedGenerator != null && !selectedGenerator.isEmpty() ) {
+            parameters.add("-G");
+            parameters.add(selectedGenerator);
+        }
+        if ( platform.isPresent() && !platform.get().isEmpty() ) {
+            parameters.add("-A");
+            parameters.add(platform.get());
+        }
+        if ( toolset.isPresent() && !toolset.get().isEmpty() ) {
+            parameters.add("-T");
+            parameters.add(toolset.get());
+        }
+        if ( toolchainFile.isPresent() )
+            parameters.add("-DCMAKE_TOOLCHAIN_FILE=" + toolchainFile.getAsFile().get().getAbsolutePath());
+        if ( configurationTypes.isPresent() && !configurationTypes.get().isEmpty() )
+            parameters.add("-DCMAKE_CONFIGURATION_TYPES=" + configurationTypes.get());
+        if ( buildType.isPresent() && !buildType.get().isEmpty() )
+            parameters.add("-DCMAKE_BUILD_TYPE=" + buildType.get());
+
+        // the settings under test and the compiler launcher are set by the trial
+        for ( Map.Entry<String,String> entry : defs.entrySet() ) {
+            String key = entry.getKey();
+            if ( !key.startsWith("CMAKE_UNITY_BUILD") && !key.equals(DISABLE_PRECOMPILE_HEADERS) && !key.endsWith("_COMPILER_LAUNCHER") )
+                parameters.add("-D" + key + "=" + entry.getValue());
+        }
+        for ( String lang : CMakeCompilerLauncher.LANGUAGES )
+            parameters.add("-DCMAKE_" + lang + "_COMPILER_LAUNCHER=");
+        parameters.addAll(settingsOf(trial));
+
+        parameters.add(sourceFolder.getAsFile().get().getAbsolutePath());
+        return parameters;
+    }
+
+    private List<String> buildCmdLine(int jobs) {
+        List<String> parameters = new ArrayList<>();
+        parameters.add(executable.getOrElse("cmake"));
+        parameters.add("--build");
+        parameters.add(".");
+        if ( buildConfig.isPresent() && !buildConfig.get().isEmpty() ) {
+            parameters.add("--config");
+            parameters.add(buildConfig.get());
+        }
+        if ( buildTarget.isPresent() && !buildTarget.get().isEmpty() ) {
+            parameters.add("--target");
+            parameters.add(buildTarget.get());
+        }
+        parameters.add("--parallel");
+        parameters.add(String.valueOf(jobs));
+        return parameters;
+    }
+
+    // -D settings of a trial, also the lines of the settings file
+    private List<String> settingsOf(Trial trial) {
+        List<String> settings = new ArrayList<>();
+        settings.add("-D" + UNITY_BUILD + "=" + (trial.batchSize > 0 ? "ON" : "OFF"));
+        if ( trial.batchSize > 0 )
+            settings.add("-D" + UNITY_BUILD_BATCH_SIZE + "=" + trial.batchSize);
+        if ( tunePrecompileHeaders.get() )
+            settings.add("-D" + DISABLE_PRECOMPILE_HEADERS + "=" + (trial.precompileHeaders ? "OFF" : "ON"));
+        return settings;
+    }
+
+    @Inject
+    protected abstract FileSystemOperations getFileSystemOperations();
+
+    @TaskAction
+    public void tune() {
+        // CMAKE_UNITY_BUILD and CMAKE_DISABLE_PRECOMPILE_HEADERS exist since cmake 3.16
+        CMakeCapabilities caps = capabilities.get().get(executable.getOrNull());
+        if ( !caps.isAtLeast(3, 16) )
+            throw new GradleException( "Unity builds require cmake 3.16 or newer, found " + caps.getVersion() );
+
+        List<Trial> trials = new ArrayList<>();
+        for ( boolean pch : tunePrecompileHeaders.get() ? new boolean[] { true, false } : new boolean[] { true } ) {
+            trials.add(new Trial(0, pch));
+            for ( int size : batchSizes.get() )
+                trials.add(new Trial(size, pch));
+        }
+
+        File folder = tuningFolder.getAsFile().get();
+        CMakeJobTokenService tokens = jobTokens.get();
+        int granted;
+        try {
+            getLogger().info("  CMakePlugin.task " + getName() + " - waiting for all " + tokens.getMaxJobs() + " cmake job token(s)");
+            granted = tokens.acquireAll();
+        }
+        catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new GradleException( "Interrupted while waiting for the cmake job tokens.", e );
+        }
+        try {
+            int jobs = parallelJobs.getOrElse(0) > 0 ? Math.min(parallelJobs.get(), granted) : granted;
+            for ( Trial trial : trials ) {
+                getLogger().lifecycle("  CMakePlugin.task " + getName() + " - building with " + trial.describe());
+                run(caps, trial, new File(folder, trial.name), jobs);
+                if ( trial.failure != null && trial.batchSize == 0 && trial.precompileHeaders )
+                    throw new GradleException( "The project does not build without unity build: " + trial.failure );
+            }
+        }
+        finally {
+            tokens.release(granted);
+            getFileSystemOperations().delete(spec -> spec.delete(folder));
+        }
+
+        Trial best = selectBest(trials);
+        try {
+            writeSettings(best, trials.get(0));
+            writeReport(trials, best);
+        }
+        catch ( IOException e ) {
+            throw new GradleException( "Could not write the unity settings " + unitySettings.getAsFile().get(), e );
+        }
+        getLogger().lifecycle("  CMakePlugin.task " + getName() + " - fastest: " + best.describe() + ", written to " + unitySettings.getAsFile().get());
+    }
+
+    private void run(CMakeCapabilities caps, Trial trial, File buildFolder, int jobs) {
+        getFileSystemOperations().delete(spec -> spec.delete(buildFolder));
+        CMakeExecutor executor = new CMakeExecutor(getLogger(), getName());
+        CMakeInvocationMetrics[] measured = new CMakeInvocationMetrics[1];
+        executor.setMetricsSink(m -> {
+            m.projectPath = projectPath;
+            m.phase = "tune";
+            if ( metrics.isPresent() )
+                metrics.get().record(m);
+            measured[0] = m;
+        });
+        try {
+            executor.exec(configureCmdLine(caps, trial), buildFolder);
+            executor.exec(buildCmdLine(jobs), buildFolder);
+        }
+        catch ( GradleException e ) {
+            trial.failure = e.getMessage();
+            getLogger().warn("  CMakePlugin.task " + getName() + " - " + trial.describe() + " failed: " + e.getMessage());
+            return;
+        }
+        // the build invocation, configure time does not depend on the settings
+        trial.wallMillis = measured[0].wallMillis;
+        trial.peakRssBytes = measured[0].peakRssBytes;
+        try {
+            trial.objectBytes = objectSize(buildFolder.toPath());
+        }
+        catch ( IOException e ) {
+            getLogger().info("  CMakePlugin.task " + getName() + " - could not measure the object files of " + buildFolder + ": " + e.getMessage());
+        }
+        getLogger().lifecycle(String.format("  CMakePlugin.task %s - %s: wall %.1fs, peak rss %s, objects %.1f MB", getName(), trial.describe(), trial.wallMillis / 1000.0,
+                trial.peakRssBytes >= 0 ? String.format("%.0f MB", trial.peakRssBytes / (1024.0 * 1024.0)) : "unknown", trial.objectBytes / (1024.0 * 1024.0)));
+    }
+
+    private static long objectSize(Path folder) throws IOException {
+        long[] size = { 0 };
+        Files.walkFileTree(folder, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                String name = file.getFileName().toString();
+                if ( OBJECT_EXTENSIONS.stream().anyMatch(name::endsWith) )
+                    size[0] += attrs.size();
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return size[0];
+    }
+
+    // the fastest, among about equally fast trials the one with the least memory, then the smallest objects
+    private static Trial selectBest(List<Trial> trials) {
+        long fastest = trials.stream().filter(t -> t.failure == null).mapToLong(t -> t.wallMillis).min().getAsLong();
+        return trials.stream()
+                .filter(t -> t.failure == null && t.wallMillis <= fastest * (1 + EQUAL_WALL_TIME))
+                .min(Comparator.comparingLong((Trial t) -> t.peakRssBytes < 0 ? Long.MAX_VALUE : t.peakRssBytes).thenComparingLong(t -> t.objectBytes))
+                .get();
+    }
+
+    private void writeSettings(Trial best, Trial baseline) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add(String.format("# written by %s: %s, build %.1fs (without unity build %.1fs)", getName(), best.describe(),
+                best.wallMillis / 1000.0, baseline.wallMillis / 1000.0));
+        for ( String setting : settingsOf(best) )
+            lines.add(setting.substring(2));
+        File file = unitySettings.getAsFile().get();
+        Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
+        Files.write(file.toPath(), lines, StandardCharsets.UTF_8);
+    }
+
+    private void writeReport(List<Trial> trials, Trial best) throws IOException {
+        File file = report.getAsFile().get();
+        Files.createDirectories(file.getParentFile().toPath());
+        try ( CMakeJsonWriter json = new CMakeJsonWriter(new OutputStreamWriter(Files.newOutputStream(file.toPath()), StandardCharsets.UTF_8)) ) {
+            json.beginObject();
+            json.name("best").value(best.name);
+            json.name("trials").beginArray();
+            for ( Trial trial : trials ) {
+                json.beginObject();
+                json.name("name").value(trial.name);
+                json.name("batchSize").value(trial.batchSize);
+                json.name("precompileHeaders").value(trial.precompileHeaders);
+                if ( trial.failure != null ) {
+                    json.name("failure").value(trial.failure);
+                }
+                else {
+                    json.name("wallMillis").value(trial.wallMillis);
+                    json.name("peakRssBytes").value(trial.peakRssBytes);
+                    json.name("objectBytes").value(trial.objectBytes);
+                }
+                json.endObject();
+            }
+            json.endArray();
+            json.endObject();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ * Copyright 2019 Marco Freudenberger
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.freudasoft;
+
+import org.gradle.api.Named;
+import org.gradle.api.Project;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.MapProperty;
+import org.gradle.api.provider.Property;
+
+/**
+ * One entry of the cmake { variants { ... } } container, for example Debug, Release or an ASan build.
+ * Every variant has its own working folder and its own cmakeConfigure&lt;Variant&gt; and cmakeBuild&lt;Variant&gt; tasks.
+ * Settings not made on the variant are taken from the main cmake configuration.
+ */
+public class CMakeVariant implements Named {
+    private final String name;
+
+    private final DirectoryProperty workingFolder;
+    private final Property<String> buildType;
+    private final Property<String> generator;
+    private final Property<String> platform;
+    private final Property<String> toolset;
+    private final RegularFileProperty toolchainFile;
+    private final MapProperty<String,String> def; // added to the main configuration's def
+    private final Property<String> buildConfig;
+    private final Property<String> buildTarget;
+
+    public CMakeVariant(String name, Project project) {
+        this.name = name;
+        workingFolder = project.getObjects().directoryProperty();
+        buildType = project.getObjects().property(String.class);
+        generator = project.getObjects().property(String.class);
+        platform = project.getObjects().property(String.class);
+        toolset = project.getObjects().property(String.class);
+        toolchainFile = project.getObjects().fileProperty();
+        def = project.getObjects().mapProperty(String.class, String.class);
+        buildConfig = project.getObjects().property(String.class);
+        buildTarget = project.getObjects().property(String.class);
+
+        // default values
+        workingFolder.set(project.getLayout().getBuildDirectory().dir("cmake-" + name));
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+/// region getters
+    public DirectoryProperty getWorkingFolder() {
+        return workingFolder;
+    }
+
+    public Property<String> getBuildType() {
+        return buildType;
+    }
+
+    public Property<String> getGenerator() {
+        return generator;
+    }
+
+    public Property<String> getPlatform() {
+        return platform;
+    }
+
+    public Property<String> getToolset() {
+        return toolset;
+    }
+
+    public RegularFileProperty getToolchainFile() {
+        return toolchainFile;
+    }
+
+    public MapProperty<String, String> getDef() {
+        return def;
+    }
+
+    public Property<String> getBuildConfig() {
+        return buildConfig;
+    }
+
+    public Property<String> getBuildTarget() {
+        return buildTarget;
+    }
+/// endregion getters
+}
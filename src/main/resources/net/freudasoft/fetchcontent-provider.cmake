@@ -0,0 +1,90 @@
+# Written by the cmake gradle plugin, included through CMAKE_PROJECT_TOP_LEVEL_INCLUDES (cmake >= 3.24).
+#
+# Dependencies declared with FetchContent_Declare() that are pinned to their content, by URL_HASH or by a full git
+# commit hash in GIT_TAG, are populated once into a cache shared by all projects and builds. FetchContent then uses
+# the cached sources through FETCHCONTENT_SOURCE_DIR_<uppercaseName>; the dependency is still built in the build folder.
+# Other dependencies (branches, tags, custom download or patch commands) are left to FetchContent.
+
+include_guard(GLOBAL)
+include(FetchContent)
+
+set(GRADLE_FETCHCONTENT_CACHE "@CACHE_DIR@")
+# the entries this configure uses, gradle configures again when one of them was evicted
+set(GRADLE_FETCHCONTENT_ENTRIES "${CMAKE_BINARY_DIR}/@ENTRIES_FILE@")
+file(WRITE "${GRADLE_FETCHCONTENT_ENTRIES}" "")
+
+function(gradle_fetchcontent_populate name result)
+    # the details that define the content. where it is placed and how it is added to the build don't
+    set(content "")
+    set(skip_value FALSE)
+    set(previous "")
+    set(pinned FALSE)
+    foreach(arg IN LISTS ARGN)
+        if(skip_value)
+            set(skip_value FALSE)
+        elseif(arg MATCHES "^(SOURCE_DIR|BINARY_DIR|SUBBUILD_DIR|SOURCE_SUBDIR)$")
+            set(skip_value TRUE)
+        elseif(arg MATCHES "^(EXCLUDE_FROM_ALL|SYSTEM|OVERRIDE_FIND_PACKAGE)$")
+        elseif(arg STREQUAL "FIND_PACKAGE_ARGS")
+            break()
+        elseif(arg MATCHES "^(DOWNLOAD_COMMAND|UPDATE_COMMAND|PATCH_COMMAND|SVN_REPOSITORY|HG_REPOSITORY|CVS_REPOSITORY)$")
+            return()
+        else()
+            if(previous MATCHES "^(URL_HASH|URL_MD5)$")
+                set(pinned TRUE)
+            elseif(previous STREQUAL "GIT_TAG" AND arg MATCHES "^[0-9a-fA-F]+$")
+                string(LENGTH "${arg}" length)
+                if(length EQUAL 40 OR length EQUAL 64)
+                    set(pinned TRUE)
+                endif()
+            endif()
+            list(APPEND content "${arg}")
+        endif()
+        set(previous "${arg}")
+    endforeach()
+    if(NOT pinned)
+        return()
+    endif()
+
+    string(SHA1 key "${content}")
+    set(entry "${GRADLE_FETCHCONTENT_CACHE}/${key}")
+    # concurrent configures of other projects and builds wait here; the gradle build holds the same lock while evicting
+    file(LOCK "${entry}.lock" GUARD FUNCTION TIMEOUT 3600 RESULT_VARIABLE locked)
+    if(NOT locked STREQUAL "0")
+        message(WARNING "Could not lock ${entry}.lock, not using the shared FetchContent cache for ${name}: ${locked}")
+        return()
+    endif()
+    if(NOT EXISTS "${entry}/.complete")
+        if(FETCHCONTENT_FULLY_DISCONNECTED)
+            return()
+        endif()
+        # left over by an interrupted populate
+        file(REMOVE_RECURSE "${entry}")
+        message(STATUS "Populating ${name} in the shared FetchContent cache ${entry}")
+        FetchContent_Populate(gradle_${key}
+            ${content}
+            SOURCE_DIR "${entry}/src"
+            BINARY_DIR "${CMAKE_BINARY_DIR}/_deps/gradle-${name}-build"
+            SUBBUILD_DIR "${CMAKE_BINARY_DIR}/_deps/gradle-${name}-subbuild"
+        )
+        file(TOUCH "${entry}/.complete")
+    endif()
+    # the modification time of .used orders the entries for eviction
+    file(TOUCH "${entry}/.used")
+    file(APPEND "${GRADLE_FETCHCONTENT_ENTRIES}" "${entry}\n")
+    set(${result} "${entry}/src" PARENT_SCOPE)
+endfunction()
+
+# a macro, so FETCHCONTENT_SOURCE_DIR_<uppercaseName> is set where FetchContent_MakeAvailable() reads it
+macro(gradle_fetchcontent_provide method name)
+    string(TOUPPER "${name}" __gradle_fetchcontent_upper)
+    if(NOT DEFINED FETCHCONTENT_SOURCE_DIR_${__gradle_fetchcontent_upper})
+        unset(__gradle_fetchcontent_source_dir)
+        gradle_fetchcontent_populate("${name}" __gradle_fetchcontent_source_dir ${ARGN})
+        if(DEFINED __gradle_fetchcontent_source_dir)
+            set(FETCHCONTENT_SOURCE_DIR_${__gradle_fetchcontent_upper} "${__gradle_fetchcontent_source_dir}")
+        endif()
+    endif()
+endmacro()
+
+cmake_language(SET_DEPENDENCY_PROVIDER gradle_fetchcontent_provide SUPPORTED_METHODS FETCHCONTENT_MAKEAVAILABLE_SERIAL)
@@ -0,0 +1,280 @@
+package net.freudasoft;
+
+import org.gradle.api.logging.Logging;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CMakeBuildSnapshotTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File build;
+    private File snapshot;
+
+    @Before
+    public void setUp() throws IOException {
+        build = tmp.newFolder("build");
+        snapshot = new File(build, "CMakeFiles/gradle-build-snapshot-cmakeBuild.bin");
+        // edited before the build
+        write("src/a.cpp", "int a;").setLastModified(System.currentTimeMillis() - 60000);
+        write("build/CMakeFiles/foo.dir/a.cpp.o", "object");
+        write("build/libfoo.so", "library");
+    }
+
+    private File write(String path, String content) throws IOException {
+        File file = new File(tmp.getRoot(), path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private boolean record(String target) throws IOException {
+        return CMakeBuildSnapshot.record(build, snapshot, "key", target, System.currentTimeMillis());
+    }
+
+    private void ninja(String statements) throws IOException {
+        write("build/CMakeCache.txt", "CMAKE_GENERATOR:INTERNAL=Ninja\n");
+        write("build/build.ninja", "ninja_required_version = 1.5\n"
+                + "build CMakeFiles/foo.dir/a.cpp.o: CXX_COMPILER__foo_Debug " + tmp.getRoot() + "/src/a.cpp\n"
+                + "build libfoo.so: CXX_SHARED_LIBRARY_LINKER__foo_Debug CMakeFiles/foo.dir/a.cpp.o\n"
+                + "build foo: phony libfoo.so\n"
+                + statements
+                + "default all\n");
+    }
+
+    private void makefiles(String makefile2, String customTarget) throws IOException {
+        write("build/CMakeCache.txt", "CMAKE_GENERATOR:INTERNAL=Unix Makefiles\n");
+        write("build/Makefile", "all: cmake_check_build_system\n"
+                + "\t$(MAKE) $(MAKESILENT) -f CMakeFiles/Makefile2 all\n"
+                + ".PHONY : all\n\n"
+                + "install: preinstall\n"
+                + "\t/usr/bin/cmake -P cmake_install.cmake\n"
+                + ".PHONY : install\n");
+        write("build/CMakeFiles/Makefile2", "all: CMakeFiles/foo.dir/all\n"
+                + ".PHONY : all\n\n"
+                + "CMakeFiles/foo.dir/all:\n"
+                + "\t$(MAKE) $(MAKESILENT) -f CMakeFiles/foo.dir/build.make CMakeFiles/foo.dir/depend\n"
+                + "\t$(MAKE) $(MAKESILENT) -f CMakeFiles/foo.dir/build.make CMakeFiles/foo.dir/build\n"
+                + ".PHONY : CMakeFiles/foo.dir/all\n\n"
+                + "CMakeFiles/foo.dir/rule: cmake_check_build_system\n"
+                + "\t$(MAKE) $(MAKESILENT) -f CMakeFiles/Makefile2 CMakeFiles/foo.dir/all\n"
+                + ".PHONY : CMakeFiles/foo.dir/rule\n\n"
+                + "foo: CMakeFiles/foo.dir/rule\n"
+                + ".PHONY : foo\n\n"
+                + "cmake_check_build_system:\n"
+                + "\t/usr/bin/cmake --check-build-system CMakeFiles/Makefile.cmake 0\n"
+                + ".PHONY : cmake_check_build_system\n"
+                + makefile2);
+        write("build/CMakeFiles/foo.dir/build.make", "cmake_force:\n"
+                + ".PHONY : cmake_force\n\n"
+                + "CMakeFiles/foo.dir/a.cpp.o: " + tmp.getRoot() + "/src/a.cpp\n"
+                + "\t/usr/bin/c++ -o CMakeFiles/foo.dir/a.cpp.o -c " + tmp.getRoot() + "/src/a.cpp\n\n"
+                + "CMakeFiles/foo.dir/a.cpp.i: cmake_force\n"
+                + "\t/usr/bin/c++ -E " + tmp.getRoot() + "/src/a.cpp > CMakeFiles/foo.dir/a.cpp.i\n\n"
+                + "libfoo.so: CMakeFiles/foo.dir/a.cpp.o\n"
+                + "libfoo.so: CMakeFiles/foo.dir/build.make\n"
+                + "\t/usr/bin/cmake -E cmake_link_script CMakeFiles/foo.dir/link.txt\n\n"
+                + "CMakeFiles/foo.dir/build: libfoo.so\n"
+                + ".PHONY : CMakeFiles/foo.dir/build\n\n"
+                + "CMakeFiles/foo.dir/depend:\n"
+                + "\tcd /build && /usr/bin/cmake -E cmake_depends \"Unix Makefiles\"\n"
+                + ".PHONY : CMakeFiles/foo.dir/depend\n");
+        if ( customTarget != null )
+            write("build/CMakeFiles/docs.dir/build.make", customTarget);
+    }
+
+    @Test
+    public void ninjaBuildWithExistingOutputsIsRecorded() throws IOException {
+        ninja("build all: phony libfoo.so\n");
+        assertTrue(record(null));
+        assertTrue(CMakeBuildSnapshot.isUnchanged(snapshot, "key", Logging.getLogger(getClass())));
+        assertFalse(CMakeBuildSnapshot.isUnchanged(snapshot, "other key", Logging.getLogger(getClass())));
+    }
+
+    @Test
+    public void sourceModifiedDuringTheBuildIsNotRecorded() throws IOException {
+        ninja("build all: phony libfoo.so\n");
+        long buildStart = System.currentTimeMillis() - 10000;
+        assertTrue(CMakeBuildSnapshot.record(build, snapshot, "key", null, buildStart));
+        write("src/a.cpp", "int b;");
+        assertFalse(CMakeBuildSnapshot.record(build, snapshot, "key", null, buildStart));
+        assertFalse(snapshot.exists());
+    }
+
+    @Test
+    public void ninjaInstallTargetIsNotRecorded() throws IOException {
+        ninja("build all: phony libfoo.so\n"
+                + "build CMakeFiles/install.util: CUSTOM_COMMAND all\n"
+                + "  COMMAND = cd /build && /usr/bin/cmake -P cmake_install.cmake\n"
+                + "build install: phony CMakeFiles/install.util\n");
+        assertTrue(record(null));
+        assertFalse(record("install"));
+        assertFalse(snapshot.exists());
+    }
+
+    @Test
+    public void ninjaCustomTargetIsNotRecorded() throws IOException {
+        ninja("build CMakeFiles/docs: CUSTOM_COMMAND\n"
+                + "build docs: phony CMakeFiles/docs\n"
+                + "build all: phony libfoo.so docs\n");
+        assertFalse(record(null));
+        // not built by the target
+        assertTrue(record("foo"));
+    }
+
+    @Test
+    public void ninjaMissingForcedInputIsNotRecorded() throws IOException {
+        ninja("build always: phony\n"
+                + "build generated.h: CUSTOM_COMMAND | always\n"
+                + "build all: phony libfoo.so || generated.h\n");
+        write("build/generated.h", "header");
+        assertFalse(record(null));
+    }
+
+    @Test
+    public void makefilesBuildIsRecorded() throws IOException {
+        makefiles("", null);
+        assertTrue(record(null));
+        assertTrue(record("foo"));
+        assertTrue(CMakeBuildSnapshot.isUnchanged(snapshot, "key", Logging.getLogger(getClass())));
+    }
+
+    @Test
+    public void makefilesInstallTargetIsNotRecorded() throws IOException {
+        makefiles("", null);
+        assertFalse(record("install"));
+    }
+
+    @Test
+    public void makefilesCustomTargetIsNotRecorded() throws IOException {
+        makefiles("all: CMakeFiles/docs.dir/all\n"
+                + "CMakeFiles/docs.dir/all:\n"
+                + "\t$(MAKE) $(MAKESILENT) -f CMakeFiles/docs.dir/build.make CMakeFiles/docs.dir/build\n"
+                + ".PHONY : CMakeFiles/docs.dir/all\n",
+                "docs: CMakeFiles/docs\n"
+                + "docs: CMakeFiles/docs.dir/build.make\n"
+                + ".PHONY : docs\n\n"
+                + "CMakeFiles/docs:\n"
+                + "\tdoxygen\n\n"
+                + "CMakeFiles/docs.dir/build: docs\n"
+                + ".PHONY : CMakeFiles/docs.dir/build\n");
+        assertFalse(record(null));
+        assertTrue(record("foo"));
+    }
+
+    @Test
+    public void parseNinjaEscapesAndContinuations() {
+        CMakeBuildSnapshot.BuildGraph graph = new CMakeBuildSnapshot.BuildGraph();
+        CMakeBuildSnapshot.parseNinja("build out$ 1.o | out.d: CXX in$:put.cpp $\n"
+                + "    more.cpp | implicit.h || order $$dollar.h |@ check\n"
+                + "  FLAGS = -O2 $\n"
+                + "    -g\n"
+                + "build ${prefix}/gen.o: CXX gen.cpp\n"
+                + "build all: phony out$ 1.o\n"
+                + "default all\n", graph);
+
+        CMakeBuildSnapshot.Rule rule = graph.rules.get("out 1.o");
+        assertTrue(rule.command);
+        assertEquals(Arrays.asList("in:put.cpp", "more.cpp", "implicit.h"), rule.inputs);
+        assertEquals(Arrays.asList("order", "$dollar.h", "check"), rule.orderOnly);
+        assertTrue(graph.rules.get("out.d") == rule);
+        // a path with a variable can't be resolved
+        assertFalse(graph.rules.containsKey("${prefix}/gen.o"));
+        assertTrue(graph.paths.contains("gen.cpp"));
+        assertFalse(graph.rules.get("all").command);
+        assertEquals(Collections.singletonList("out 1.o"), graph.rules.get("all").inputs);
+        assertEquals(Collections.singletonList("all"), graph.defaults);
+        assertFalse(graph.paths.contains("FLAGS"));
+    }
+
+    @Test
+    public void parseMakeContinuationsAndEscapes() {
+        CMakeBuildSnapshot.BuildGraph graph = new CMakeBuildSnapshot.BuildGraph();
+        CMakeBuildSnapshot.parseMake("# dependencies\n"
+                + "CXX_FLAGS = -O2 -DX=a:b\n"
+                + "OUT := out\n"
+                + "CMakeFiles/foo.dir/a\\ b.cpp.o: /src/a\\ b.cpp \\\n"
+                + "  /usr/include/stdio.h \\\n"
+                + "  /src/c$$d.h\n"
+                + "CMakeFiles/foo.dir/a\\ b.cpp.o: CMakeFiles/foo.dir/flags.make | CMakeFiles/foo.dir\n"
+                + "\t/usr/bin/c++ -c /src/a\\ b.cpp\n"
+                + "\n"
+                + "C:/src/x.h:\n"
+                + "all: foo\n"
+                + ".PHONY : all\n", graph);
+
+        CMakeBuildSnapshot.Rule rule = graph.rules.get("CMakeFiles/foo.dir/a b.cpp.o");
+        assertTrue(rule.command);
+        assertEquals(Arrays.asList("/src/a b.cpp", "/usr/include/stdio.h", "/src/c$d.h", "CMakeFiles/foo.dir/flags.make"), rule.inputs);
+        assertEquals(Collections.singletonList("CMakeFiles/foo.dir"), rule.orderOnly);
+        assertTrue(graph.rules.containsKey("C:/src/x.h"));
+        assertFalse(graph.rules.get("C:/src/x.h").command);
+        assertEquals(Collections.singleton("all"), graph.phony);
+        assertFalse(graph.rules.containsKey("CXX_FLAGS"));
+        assertFalse(graph.rules.containsKey("OUT"));
+    }
+
+    @Test
+    public void readNinjaDepsVersion4() throws IOException {
+        ByteBuffer deps = ByteBuffer.allocate(256).order(ByteOrder.LITTLE_ENDIAN);
+        deps.put("# ninjadeps\n".getBytes(StandardCharsets.US_ASCII)).putInt(4);
+        pathRecord(deps, "CMakeFiles/foo.dir/a.cpp.o", 0);
+        pathRecord(deps, "/src/a.h", 1);
+        pathRecord(deps, "/src/sub/b.hpp", 2);
+        // deps record: output id, 64 bit mtime, input ids
+        deps.putInt((4 + 8 + 2 * 4) | 0x80000000).putInt(0).putLong(123456789L).putInt(1).putInt(2);
+        // truncated by an interrupted build
+        deps.putInt(100).put((byte)'x');
+        File depsLog = new File(build, ".ninja_deps");
+        Files.write(depsLog.toPath(), Arrays.copyOf(deps.array(), deps.position()));
+
+        List<String> paths = new ArrayList<>();
+        CMakeBuildSnapshot.readNinjaDeps(depsLog.toPath(), paths);
+        assertEquals(Arrays.asList("CMakeFiles/foo.dir/a.cpp.o", "/src/a.h", "/src/sub/b.hpp"), paths);
+    }
+
+    private static void pathRecord(ByteBuffer buffer, String path, int id) {
+        byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+        int padded = (bytes.length + 3) & ~3;
+        buffer.putInt(padded + 4).put(bytes);
+        for ( int i = bytes.length; i < padded; i++ )
+            buffer.put((byte)0);
+        buffer.putInt(~id);
+    }
+
+    @Test
+    public void touchedFileWithSameContentIsUnchanged() throws IOException {
+        ninja("build all: phony libfoo.so\n");
+        File source = new File(tmp.getRoot(), "src/a.cpp");
+        source.setLastModified(System.currentTimeMillis() - 60000);
+        assertTrue(record(null));
+
+        assertTrue(source.setLastModified(System.currentTimeMillis() + 5000));
+        assertTrue(CMakeBuildSnapshot.isUnchanged(snapshot, "key", Logging.getLogger(getClass())));
+        assertTrue(CMakeBuildSnapshot.isUnchanged(snapshot, "key", Logging.getLogger(getClass())));
+
+        // same size, other content
+        write("src/a.cpp", "int b;");
+        assertFalse(CMakeBuildSnapshot.isUnchanged(snapshot, "key", Logging.getLogger(getClass())));
+        write("src/a.cpp", "int a;");
+        new File(build, "libfoo.so").delete();
+        assertFalse(CMakeBuildSnapshot.isUnchanged(snapshot, "key", Logging.getLogger(getClass())));
+    }
+}
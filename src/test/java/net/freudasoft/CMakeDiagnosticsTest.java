@@ -0,0 +1,98 @@
+package net.freudasoft;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CMakeDiagnosticsTest {
+    @Test
+    public void parseGcc() {
+        CMakeDiagnostics.Diagnostic d = CMakeDiagnostics.parse("/src/a.cpp:12:7: warning: unused variable 'x' [-Wunused-variable]");
+        assertEquals("/src/a.cpp", d.file);
+        assertEquals(12, d.line);
+        assertEquals(7, d.column);
+        assertEquals("warning", d.severity);
+        assertEquals("-Wunused-variable", d.id);
+        assertEquals("unused variable 'x'", d.message);
+    }
+
+    @Test
+    public void parseGccWithoutColumnAndId() {
+        CMakeDiagnostics.Diagnostic d = CMakeDiagnostics.parse("/src/a.cpp:3: fatal error: b.h: No such file or directory");
+        assertEquals(3, d.line);
+        assertEquals(0, d.column);
+        assertEquals("error", d.severity);
+        assertNull(d.id);
+        assertEquals("b.h: No such file or directory", d.message);
+    }
+
+    @Test
+    public void parseMsvc() {
+        CMakeDiagnostics.Diagnostic d = CMakeDiagnostics.parse("  C:\\src\\a.cpp(42,9): warning C4996: 'strcpy': This function may be unsafe.");
+        assertEquals("C:\\src\\a.cpp", d.file);
+        assertEquals(42, d.line);
+        assertEquals(9, d.column);
+        assertEquals("warning", d.severity);
+        assertEquals("C4996", d.id);
+        assertEquals("'strcpy': This function may be unsafe.", d.message);
+
+        d = CMakeDiagnostics.parse("C:\\src\\b.cpp(7): error C2065: 'y': undeclared identifier");
+        assertEquals("error", d.severity);
+        assertEquals(0, d.column);
+    }
+
+    @Test
+    public void parseOtherLines() {
+        assertNull(CMakeDiagnostics.parse("[ 50%] Building CXX object CMakeFiles/foo.dir/a.cpp.o"));
+        assertNull(CMakeDiagnostics.parse("-- Looking for include file error.h - found"));
+        assertNull(CMakeDiagnostics.parse("make: *** [all] Error 2"));
+    }
+
+    @Test
+    public void repeatsAreCountedButNotShown() {
+        CMakeDiagnostics diagnostics = new CMakeDiagnostics();
+        List<String> shown = new ArrayList<>();
+        CMakeDiagnostics.Filter filter = diagnostics.filter(shown::add);
+        List<String> warning = Arrays.asList(
+                "In file included from /src/a.cpp:1:",
+                "/src/common.h:5:9: warning: unused variable 'x' [-Wunused-variable]",
+                "    5 |     int x;",
+                "      |         ^",
+                "/src/common.h:2:1: note: declared here");
+        for ( String line : warning )
+            filter.accept(line);
+        filter.accept("[ 50%] Building CXX object CMakeFiles/foo.dir/b.cpp.o");
+        for ( String line : warning )
+            filter.accept(line.replace("a.cpp", "b.cpp"));
+        filter.accept("[100%] Linking CXX shared library libfoo.so");
+        filter.close();
+
+        List<String> expected = new ArrayList<>(warning);
+        expected.add("[ 50%] Building CXX object CMakeFiles/foo.dir/b.cpp.o");
+        expected.add("[100%] Linking CXX shared library libfoo.so");
+        assertEquals(expected, shown);
+        assertFalse(diagnostics.isEmpty());
+        String summary = diagnostics.summary();
+        assertTrue(summary, summary.startsWith("diagnostics: 2 warning(s), 0 error(s) in 1 file(s), 1 repeat(s) not shown"));
+        assertTrue(summary, summary.contains("/src/common.h -Wunused-variable: 2"));
+    }
+
+    @Test
+    public void differentLocationsAreShown() {
+        CMakeDiagnostics diagnostics = new CMakeDiagnostics();
+        List<String> shown = new ArrayList<>();
+        CMakeDiagnostics.Filter filter = diagnostics.filter(shown::add);
+        filter.accept("/src/a.cpp:1:1: error: expected ';'");
+        filter.accept("/src/a.cpp:2:1: error: expected ';'");
+        filter.close();
+        assertEquals(2, shown.size());
+        assertTrue(diagnostics.summary().startsWith("diagnostics: 0 warning(s), 2 error(s) in 1 file(s)"));
+    }
+}
@@ -0,0 +1,133 @@
+package net.freudasoft;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CMakeFileApiTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File buildFolder;
+    private File replyFolder;
+
+    // reply of cmake 3.27 for a Ninja Multi-Config build, trimmed to two targets
+    @Before
+    public void setUp() throws Exception {
+        buildFolder = tmp.newFolder("build");
+        replyFolder = new File(buildFolder, ".cmake/api/v1/reply");
+        replyFolder.mkdirs();
+        String source = json(tmp.getRoot().getAbsolutePath() + "/src");
+        String build = json(buildFolder.getAbsolutePath());
+        write("index-2024-03-01T10-00-00-0000.json", "{\n"
+                + "  \"cmake\": {\"generator\": {\"multiConfig\": true, \"name\": \"Ninja Multi-Config\"},\n"
+                + "            \"paths\": {\"cmake\": \"/usr/bin/cmake\"}, \"version\": {\"major\": 3, \"minor\": 27, \"patch\": 7, \"isDirty\": false, \"string\": \"3.27.7\"}},\n"
+                + "  \"objects\": [{\"jsonFile\": \"codemodel-v2-0f2e.json\", \"kind\": \"codemodel\", \"version\": {\"major\": 2, \"minor\": 6}}],\n"
+                + "  \"reply\": {\n"
+                + "    \"client-gradle\": {\"query.json\": {\"error\": \"unknown request kind 'x'\"}},\n"
+                + "    \"codemodel-v2\": {\"jsonFile\": \"codemodel-v2-0f2e.json\", \"kind\": \"codemodel\", \"version\": {\"major\": 2, \"minor\": 6}}\n"
+                + "  }\n"
+                + "}\n");
+        write("codemodel-v2-0f2e.json", "{\n"
+                + "  \"configurations\": [\n"
+                + "    {\"directories\": [{\"build\": \".\", \"jsonFile\": \"directory-.-Debug-d0a1.json\", \"minimumCMakeVersion\": {\"string\": \"3.16\"},\n"
+                + "                      \"projectIndex\": 0, \"source\": \".\", \"targetIndexes\": [0, 1]}],\n"
+                + "     \"name\": \"Debug\",\n"
+                + "     \"projects\": [{\"directoryIndexes\": [0], \"name\": \"demo\", \"targetIndexes\": [0, 1]}],\n"
+                + "     \"targets\": [{\"directoryIndex\": 0, \"id\": \"app::@6890427a1f51a3e7e1df\", \"jsonFile\": \"target-app-Debug-5e1f.json\", \"name\": \"app\", \"projectIndex\": 0},\n"
+                + "                 {\"directoryIndex\": 0, \"id\": \"foo::@6890427a1f51a3e7e1df\", \"jsonFile\": \"target-foo-Debug-77aa.json\", \"name\": \"foo\", \"projectIndex\": 0}]},\n"
+                + "    {\"directories\": [], \"name\": \"Release\", \"projects\": [],\n"
+                + "     \"targets\": [{\"directoryIndex\": 0, \"id\": \"foo::@6890427a1f51a3e7e1df\", \"jsonFile\": \"target-foo-Release-91b0.json\", \"name\": \"foo\", \"projectIndex\": 0}]}\n"
+                + "  ],\n"
+                + "  \"kind\": \"codemodel\",\n"
+                + "  \"paths\": {\"build\": \"" + build + "\", \"source\": \"" + source + "\"},\n"
+                + "  \"version\": {\"major\": 2, \"minor\": 6}\n"
+                + "}\n");
+        write("target-app-Debug-5e1f.json", "{\n"
+                + "  \"artifacts\": [{\"path\": \"Debug/app\"}],\n"
+                + "  \"backtrace\": 1,\n"
+                + "  \"backtraceGraph\": {\"commands\": [\"add_executable\", \"target_link_libraries\"], \"files\": [\"CMakeLists.txt\"],\n"
+                + "                     \"nodes\": [{\"file\": 0}, {\"command\": 0, \"file\": 0, \"line\": 5, \"parent\": 0}]},\n"
+                + "  \"compileGroups\": [{\"compileCommandFragments\": [{\"fragment\": \"-g -DNAME=\\\"app\\\" -Wall\\t-O0\"}], \"language\": \"CXX\", \"sourceIndexes\": [0]}],\n"
+                + "  \"dependencies\": [{\"backtrace\": 2, \"id\": \"foo::@6890427a1f51a3e7e1df\"}],\n"
+                + "  \"id\": \"app::@6890427a1f51a3e7e1df\",\n"
+                + "  \"link\": {\"commandFragments\": [{\"fragment\": \"libfoo.a\", \"role\": \"libraries\"}], \"language\": \"CXX\"},\n"
+                + "  \"name\": \"app\",\n"
+                + "  \"nameOnDisk\": \"app\",\n"
+                + "  \"paths\": {\"build\": \".\", \"source\": \".\"},\n"
+                + "  \"sourceGroups\": [{\"name\": \"Source Files\", \"sourceIndexes\": [0]}],\n"
+                + "  \"sources\": [{\"backtrace\": 1, \"compileGroupIndex\": 0, \"path\": \"main \\u00e4.cpp\", \"sourceGroupIndex\": 0}],\n"
+                + "  \"type\": \"EXECUTABLE\"\n"
+                + "}\n");
+        write("target-foo-Debug-77aa.json", target("Debug", "foo"));
+        write("target-foo-Release-91b0.json", target("Release", "foo"));
+    }
+
+    @Test
+    public void readCodeModel() throws Exception {
+        CMakeCodeModel model = CMakeFileApi.readCodeModel(buildFolder);
+        assertEquals(new File(tmp.getRoot(), "src").getAbsoluteFile(), model.getSourceFolder());
+        assertEquals(buildFolder.getAbsoluteFile(), model.getBuildFolder());
+        assertEquals(Arrays.asList("Debug", "Release"), model.getConfigurations());
+        assertEquals(2, model.getTargets("Debug").size());
+        assertEquals(1, model.getTargets("Release").size());
+        assertEquals(2, model.getTargets(null).size());
+        assertEquals(Collections.emptyList(), model.getTargets("MinSizeRel"));
+
+        CMakeCodeModel.Target app = model.findTarget("Debug", "app");
+        assertEquals("app::@6890427a1f51a3e7e1df", app.getId());
+        assertEquals("EXECUTABLE", app.getType());
+        assertEquals(Collections.singletonList(new File(buildFolder.getAbsoluteFile(), "Debug/app")), app.getArtifacts());
+        assertEquals(Collections.singletonList(new File(new File(tmp.getRoot(), "src").getAbsoluteFile(), "main \u00e4.cpp")), app.getSources());
+        assertEquals(Collections.singletonList("foo::@6890427a1f51a3e7e1df"), app.getDependencies());
+
+        CMakeCodeModel.Target foo = model.findTarget("Release", "foo");
+        assertEquals("STATIC_LIBRARY", foo.getType());
+        assertEquals(Collections.singletonList(new File(buildFolder.getAbsoluteFile(), "Release/libfoo.a")), foo.getArtifacts());
+        assertTrue(foo.getDependencies().isEmpty());
+        assertNull(model.findTarget("Release", "app"));
+    }
+
+    @Test
+    public void cachedUntilTheIndexChanges() throws Exception {
+        CMakeCodeModel model = CMakeFileApi.readCodeModel(buildFolder);
+        assertSame(model, CMakeFileApi.readCodeModel(buildFolder));
+
+        File index = new File(replyFolder, "index-2024-03-01T10-00-00-0000.json");
+        Files.copy(index.toPath(), new File(replyFolder, "index-2024-03-01T11-00-00-0000.json").toPath());
+        CMakeCodeModel reread = CMakeFileApi.readCodeModel(buildFolder);
+        assertTrue(reread != model);
+        assertEquals(model.getConfigurations(), reread.getConfigurations());
+    }
+
+    @Test
+    public void noReply() throws Exception {
+        assertNull(CMakeFileApi.readCodeModel(tmp.newFolder("unconfigured")));
+    }
+
+    private static String target(String config, String name) {
+        return "{\"archive\": {}, \"artifacts\": [{\"path\": \"" + config + "/lib" + name + ".a\"}],"
+                + " \"id\": \"" + name + "::@6890427a1f51a3e7e1df\", \"name\": \"" + name + "\", \"nameOnDisk\": \"lib" + name + ".a\","
+                + " \"sources\": [{\"path\": \"" + name + ".cpp\"}], \"type\": \"STATIC_LIBRARY\"}\n";
+    }
+
+    private static String json(String path) {
+        return path.replace("\\", "\\\\");
+    }
+
+    private void write(String name, String content) throws Exception {
+        Files.write(new File(replyFolder, name).toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,24 @@
+package net.freudasoft;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CMakeInitialCacheTest {
+    @Test
+    public void onlyResultsOfNamedChecksAreShared() {
+        assertTrue(CMakeInitialCache.isProbeResult("HAVE_UNISTD_H", "1"));
+        assertTrue(CMakeInitialCache.isProbeResult("HAVE_SYS_TYPES_H", "1"));
+        assertTrue(CMakeInitialCache.isProbeResult("SIZEOF_VOID_P", "8"));
+        assertTrue(CMakeInitialCache.isProbeResult("HAVE_SIZEOF_LONG", "TRUE"));
+        assertTrue(CMakeInitialCache.isProbeResult("CMAKE_HAVE_LIBC_PTHREAD", "1"));
+
+        // depends on the project's test source
+        assertFalse(CMakeInitialCache.isProbeResult("HAVE_WORKING_ATOMICS", "1"));
+        // failed check
+        assertFalse(CMakeInitialCache.isProbeResult("HAVE_WINDOWS_H", ""));
+        assertFalse(CMakeInitialCache.isProbeResult("CMAKE_CXX_COMPILER_LOADED", "1"));
+        assertFalse(CMakeInitialCache.isProbeResult("SIZEOF_VOID_P", "/usr/bin/cc"));
+    }
+}
@@ -0,0 +1,121 @@
+package net.freudasoft;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CMakeInstallSyncTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private Path staging;
+    private Path output;
+    private Path state;
+
+    @Before
+    public void setUp() throws IOException {
+        staging = tmp.newFolder("staging").toPath().toAbsolutePath();
+        output = tmp.getRoot().toPath().resolve("install");
+        state = tmp.newFolder("state").toPath();
+    }
+
+    private void stage(String path, String content) throws IOException {
+        Path file = staging.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String installed(String path) throws IOException {
+        return new String(Files.readAllBytes(output.resolve(path)), StandardCharsets.UTF_8);
+    }
+
+    private CMakeInstallSync.Result sync() throws IOException {
+        return CMakeInstallSync.sync(staging, Collections.emptyList(), output, state);
+    }
+
+    private List<String> objects() throws IOException {
+        try ( Stream<Path> files = Files.list(state.resolve("objects")) ) {
+            return files.map(p -> p.getFileName().toString()).collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    public void onlyChangedFilesAreReplaced() throws IOException {
+        stage("lib/libfoo.so.1", "library");
+        stage("include/foo.h", "int foo();");
+        Files.createSymbolicLink(staging.resolve("lib/libfoo.so"), Paths.get("libfoo.so.1"));
+
+        CMakeInstallSync.Result result = sync();
+        assertEquals(3, result.updated);
+        assertEquals("library", installed("lib/libfoo.so.1"));
+        assertEquals("int foo();", installed("include/foo.h"));
+        assertTrue(Files.isSymbolicLink(output.resolve("lib/libfoo.so")));
+        assertEquals(Paths.get("libfoo.so.1"), Files.readSymbolicLink(output.resolve("lib/libfoo.so")));
+
+        Object header = Files.readAttributes(output.resolve("include/foo.h"), BasicFileAttributes.class).fileKey();
+        // rewritten by cmake with the same content
+        stage("include/foo.h", "int foo();");
+        stage("lib/libfoo.so.1", "library 2");
+        result = sync();
+        assertEquals(1, result.updated);
+        assertEquals(2, result.unchanged);
+        // still the same file
+        assertEquals(header, Files.readAttributes(output.resolve("include/foo.h"), BasicFileAttributes.class).fileKey());
+        assertEquals("library 2", installed("lib/libfoo.so.1"));
+        // the old library is no longer referenced
+        assertEquals(2, objects().size());
+    }
+
+    @Test
+    public void filesNoLongerInstalledAreRemoved() throws IOException {
+        stage("lib/libfoo.so", "library");
+        stage("share/doc/foo.txt", "doc");
+        sync();
+
+        Files.delete(staging.resolve("share/doc/foo.txt"));
+        CMakeInstallSync.Result result = sync();
+        assertEquals(1, result.removed);
+        assertFalse(Files.exists(output.resolve("share")));
+        assertEquals(1, objects().size());
+    }
+
+    @Test
+    public void filesWithTheSameContentShareTheStore() throws IOException {
+        stage("lib/a.so", "same");
+        stage("lib/b.so", "same");
+        CMakeInstallSync.Result result = sync();
+        assertEquals(2, result.updated);
+        assertEquals(1, result.shared);
+        assertEquals(1, objects().size());
+    }
+
+    @Test
+    public void onlyFilesOfTheManifestsAreInstalled() throws IOException {
+        stage("lib/libfoo.so", "library");
+        stage("lib/stale.so", "left over from an earlier run");
+        Path manifest = tmp.newFile("install_manifest_runtime.txt").toPath();
+        Files.write(manifest, Arrays.asList(staging.resolve("lib/libfoo.so").toString(), "", staging.resolve("lib/libfoo.so").toString()));
+
+        CMakeInstallSync.Result result = CMakeInstallSync.sync(staging, Collections.singletonList(manifest), output, state);
+        assertEquals(1, result.updated);
+        assertTrue(Files.exists(output.resolve("lib/libfoo.so")));
+        assertFalse(Files.exists(output.resolve("lib/stale.so")));
+    }
+}
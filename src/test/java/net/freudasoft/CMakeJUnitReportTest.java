@@ -0,0 +1,70 @@
+package net.freudasoft;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class CMakeJUnitReportTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void convert() throws Exception {
+        File ctest = tmp.newFile("ctest-junit.xml");
+        Files.write(ctest.toPath(), ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<testsuite name=\"myproject\" tests=\"3\" failures=\"1\" disabled=\"1\" skipped=\"0\" hostname=\"ci\" time=\"1\">\n"
+                + "\t<testcase name=\"a\" classname=\"a\" time=\"0.1\" status=\"run\">\n"
+                + "\t\t<system-out>all &lt;fine&gt;</system-out>\n"
+                + "\t</testcase>\n"
+                + "\t<testcase name=\"b\" classname=\"b\" time=\"0.2\" status=\"fail\">\n"
+                + "\t\t<failure message=\"Failed\"/>\n"
+                + "\t\t<system-out><![CDATA[boom]]></system-out>\n"
+                + "\t</testcase>\n"
+                + "\t<testcase name=\"c\" classname=\"c\" time=\"0\" status=\"disabled\">\n"
+                + "\t\t<skipped message=\"Disabled\"/>\n"
+                + "\t</testcase>\n"
+                + "</testsuite>\n").getBytes(StandardCharsets.UTF_8));
+        File report = new File(tmp.getRoot(), "test-results/cmakeTest/TEST-cmakeTest.xml");
+
+        CMakeJUnitReport.Summary summary = CMakeJUnitReport.convert(ctest, report, "cmakeTest");
+        assertEquals(3, summary.tests);
+        assertEquals(1, summary.failures);
+        assertEquals(1, summary.skipped);
+        assertEquals(Arrays.asList("b"), summary.failed);
+        assertEquals("3 test(s), 1 failed, 1 skipped: b", summary.toString());
+
+        Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(report);
+        Element suite = document.getDocumentElement();
+        assertEquals("testsuite", suite.getTagName());
+        assertEquals("cmakeTest", suite.getAttribute("name"));
+        assertEquals("1", suite.getAttribute("skipped"));
+        assertEquals("0", suite.getAttribute("errors"));
+        assertFalse(suite.hasAttribute("disabled"));
+        assertEquals("1", suite.getAttribute("failures"));
+
+        NodeList testcases = suite.getElementsByTagName("testcase");
+        assertEquals(3, testcases.getLength());
+        Element b = (Element)testcases.item(1);
+        assertEquals("b", b.getAttribute("name"));
+        assertEquals("cmakeTest", b.getAttribute("classname"));
+        assertEquals("0.2", b.getAttribute("time"));
+        assertFalse(b.hasAttribute("status"));
+        assertEquals("Failed", ((Element)b.getElementsByTagName("failure").item(0)).getAttribute("message"));
+        assertEquals("boom", b.getElementsByTagName("system-out").item(0).getTextContent());
+        assertEquals("all <fine>", ((Element)testcases.item(0)).getElementsByTagName("system-out").item(0).getTextContent());
+        assertEquals(1, ((Element)testcases.item(2)).getElementsByTagName("skipped").getLength());
+    }
+}
@@ -0,0 +1,95 @@
+package net.freudasoft;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CMakeJsonReaderTest {
+    @Test
+    public void stringsWithEscapes() throws Exception {
+        CMakeJsonReader reader = reader("[\"C:\\\\src\\\\a b.cpp\", \"say \\\"hi\\\"\\n\\t\", \"a\\/b\", \"\\u00e4\\u20AC\", \"\"]");
+        reader.beginArray();
+        assertEquals("C:\\src\\a b.cpp", reader.nextString());
+        assertEquals("say \"hi\"\n\t", reader.nextString());
+        assertEquals("a/b", reader.nextString());
+        assertEquals("\u00e4\u20ac", reader.nextString());
+        assertEquals("", reader.nextString());
+        assertFalse(reader.hasNext());
+        reader.endArray();
+        assertEquals(CMakeJsonReader.Token.END_DOCUMENT, reader.peek());
+    }
+
+    @Test
+    public void numbers() throws Exception {
+        CMakeJsonReader reader = reader("{\"major\": 2, \"minor\":-3, \"big\": 9007199254740993, \"real\": 1.5e3, \"zero\": 0.25}");
+        reader.beginObject();
+        assertEquals("major", reader.nextName());
+        assertEquals(2, reader.nextInt());
+        assertEquals("minor", reader.nextName());
+        assertEquals(-3, reader.nextInt());
+        assertEquals("big", reader.nextName());
+        assertEquals(9007199254740993L, reader.nextLong());
+        assertEquals("real", reader.nextName());
+        assertEquals(1500, reader.nextLong());
+        assertEquals("zero", reader.nextName());
+        assertEquals("0.25", reader.nextString());
+        reader.endObject();
+    }
+
+    @Test
+    public void literals() throws Exception {
+        CMakeJsonReader reader = reader("[true,false,null]");
+        reader.beginArray();
+        assertTrue(reader.nextBoolean());
+        assertFalse(reader.nextBoolean());
+        assertEquals(CMakeJsonReader.Token.NULL, reader.peek());
+        reader.nextNull();
+        reader.endArray();
+    }
+
+    @Test
+    public void skipNestedValues() throws Exception {
+        CMakeJsonReader reader = reader("{\"backtraceGraph\": {\"commands\": [\"add_library\"], \"nodes\": [{\"file\": 0}, {\"file\": 0, \"line\": 3, \"parent\": 0}]},"
+                + " \"empty\": {}, \"list\": [[], [[1, \"]\"]], {\"}\": \"{\"}], \"name\": \"foo\"}");
+        reader.beginObject();
+        assertEquals("backtraceGraph", reader.nextName());
+        reader.skipValue();
+        assertEquals("empty", reader.nextName());
+        reader.skipValue();
+        assertEquals("list", reader.nextName());
+        reader.skipValue();
+        assertEquals("name", reader.nextName());
+        assertEquals("foo", reader.nextString());
+        assertFalse(reader.hasNext());
+        reader.endObject();
+    }
+
+    @Test
+    public void malformed() throws Exception {
+        assertMalformed("{\"a\" 1}");
+        assertMalformed("[1 2]");
+        assertMalformed("[\"open");
+        assertMalformed("[tru]");
+    }
+
+    private static void assertMalformed(String json) throws IOException {
+        try {
+            CMakeJsonReader reader = reader(json);
+            reader.skipValue();
+            fail("no error for " + json);
+        }
+        catch ( IOException e ) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Malformed JSON"));
+        }
+    }
+
+    private static CMakeJsonReader reader(String json) {
+        return new CMakeJsonReader(new StringReader(json));
+    }
+}
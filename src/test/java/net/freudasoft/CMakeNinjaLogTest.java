@@ -0,0 +1,116 @@
+package net.freudasoft;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CMakeNinjaLogTest {
+    private static final String HEADER = "# ninja log v5\n";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File buildFolder;
+    private File log;
+
+    @Before
+    public void setUp() throws Exception {
+        buildFolder = tmp.newFolder("build");
+        log = new File(buildFolder, CMakeNinjaLog.LOG_FILE);
+    }
+
+    @Test
+    public void missingLog() throws Exception {
+        assertNull(CMakeNinjaLog.mark(buildFolder));
+        assertTrue(CMakeNinjaLog.readNewEdges(buildFolder, null).isEmpty());
+    }
+
+    @Test
+    public void firstBuild() throws Exception {
+        CMakeNinjaLog.Mark before = CMakeNinjaLog.mark(buildFolder);
+        write(HEADER + entry(0, 100, "a.o") + entry(0, 150, "b.o") + entry(150, 200, "app"));
+        assertEquals(Arrays.asList("a.o", "b.o", "app"), outputs(CMakeNinjaLog.readNewEdges(buildFolder, before)));
+    }
+
+    @Test
+    public void appended() throws Exception {
+        write(HEADER + entry(0, 100, "a.o") + entry(0, 150, "b.o") + entry(150, 200, "app"));
+        CMakeNinjaLog.Mark before = CMakeNinjaLog.mark(buildFolder);
+        append(entry(0, 90, "a.o") + entry(90, 120, "app"));
+        assertEquals(Arrays.asList("a.o", "app"), outputs(CMakeNinjaLog.readNewEdges(buildFolder, before)));
+    }
+
+    @Test
+    public void nothingBuilt() throws Exception {
+        write(HEADER + entry(0, 100, "a.o"));
+        CMakeNinjaLog.Mark before = CMakeNinjaLog.mark(buildFolder);
+        assertTrue(CMakeNinjaLog.readNewEdges(buildFolder, before).isEmpty());
+    }
+
+    @Test
+    public void multipleOutputsCountOnce() throws Exception {
+        write(HEADER);
+        CMakeNinjaLog.Mark before = CMakeNinjaLog.mark(buildFolder);
+        append("0\t50\t0\tgen.h\tdeadbeef\n0\t50\t0\tgen.cpp\tdeadbeef\n" + entry(50, 80, "gen.o"));
+        assertEquals(Arrays.asList("gen.h", "gen.o"), outputs(CMakeNinjaLog.readNewEdges(buildFolder, before)));
+    }
+
+    @Test
+    public void recompactedAndShorter() throws Exception {
+        StringBuilder stale = new StringBuilder(HEADER);
+        for ( int i = 0; i < 20; i++ )
+            stale.append(entry(0, 100 + i, "a.o"));
+        write(stale.toString());
+        CMakeNinjaLog.Mark before = CMakeNinjaLog.mark(buildFolder);
+        write(HEADER + entry(0, 119, "a.o") + entry(0, 30, "a.o") + entry(30, 60, "app"));
+        assertEquals(Arrays.asList("a.o", "app"), outputs(CMakeNinjaLog.readNewEdges(buildFolder, before)));
+    }
+
+    @Test
+    public void recompactedAndLonger() throws Exception {
+        write(HEADER + entry(0, 100, "old.o") + entry(0, 500, "a.o") + entry(0, 600, "b.o"));
+        CMakeNinjaLog.Mark before = CMakeNinjaLog.mark(buildFolder);
+        // the stale entry is dropped, the rewritten log ends up longer than before
+        StringBuilder rebuilt = new StringBuilder(HEADER + entry(0, 600, "b.o") + entry(0, 500, "a.o"));
+        List<String> expected = new ArrayList<>();
+        for ( int i = 0; i < 10; i++ ) {
+            rebuilt.append(entry(i * 10, i * 10 + 10, "c" + i + ".o"));
+            expected.add("c" + i + ".o");
+        }
+        write(rebuilt.toString());
+        assertTrue(log.length() > before.size);
+        assertEquals(expected, outputs(CMakeNinjaLog.readNewEdges(buildFolder, before)));
+    }
+
+    private static String entry(long start, long end, String output) {
+        return start + "\t" + end + "\t0\t" + output + "\t" + Integer.toHexString(output.hashCode()) + "\n";
+    }
+
+    private static List<String> outputs(List<CMakeNinjaLog.Edge> edges) {
+        List<String> outputs = new ArrayList<>();
+        for ( CMakeNinjaLog.Edge edge : edges )
+            outputs.add(edge.output);
+        return outputs;
+    }
+
+    private void write(String content) throws Exception {
+        Files.write(log.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void append(String content) throws Exception {
+        Files.write(log.toPath(), content.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+    }
+}
@@ -0,0 +1,22 @@
+package net.freudasoft;
+
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class CMakeProcessMonitorTest {
+    @Test
+    public void processExitingBetweenSamples() throws Exception {
+        assumeTrue(new File("/proc/self/stat").isFile());
+        CMakeProcessMonitor monitor = new CMakeProcessMonitor();
+        // busy for about 100 ms of CPU, less than the sample interval
+        Process process = new ProcessBuilder("sh", "-c", "end=$(( $(date +%s%N) + 100000000 )); while [ $(date +%s%N) -lt $end ]; do :; done").start();
+        monitor.start(process, "test-monitor");
+        process.waitFor();
+        monitor.stop();
+        assertTrue("cpu " + monitor.getCpuMillis(), monitor.getCpuMillis() >= 30);
+    }
+}